@@ -0,0 +1,91 @@
+package OptimizeRoute.benchmark;
+
+import OptimizeRoute.ImprovementEngine;
+import OptimizeRoute.Location;
+import OptimizeRoute.Route;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+Time per Route.optimizeRoute() call, plus the tour it produces.
+The secondary "tourLength" and "qualityRatio" results come from the QualityCounters below;
+qualityRatio is the tour length over the expected length of a good tour through uniform stops on the same map,
+so lower is better and optimizer variants can be compared directly.
+Pass -p engine=LIN_KERNIGHAN to measure the Lin-Kernighan engine instead of 2-opt / Or-opt.
+buildHilbertRoute measures the instant Hilbert curve route the same way (the engine does not matter for it).
+*/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+@State(Scope.Benchmark)
+public class OptimizeRouteBenchmark {
+
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    public int size;
+
+    @Param({"UNIFORM", "CLUSTERED"})
+    public StopSets.Distribution distribution;
+
+    @Param({"42"})
+    public long seed;
+
+    @Param({"TWO_OPT"})
+    public ImprovementEngine engine;
+
+    private Route route;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class QualityCounters {
+        public double tourLength;
+        public double qualityRatio;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            tourLength = 0;
+            qualityRatio = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Location[] stops = StopSets.generate(distribution, size, seed);
+        route = StopSets.toRoute(stops);
+        route.setImprovementEngine(engine);
+    }
+
+    // The greedy pass rebuilds the route from scratch, so calling it again on the same route repeats the full work.
+    @Benchmark
+    public double optimizeRoute(QualityCounters counters) {
+        route.optimizeRoute();
+        double length = route.totalDistance();
+        counters.tourLength = length;
+        counters.qualityRatio = StopSets.qualityRatio(length, size);
+        return length;
+    }
+
+    // Only depends on the coordinates, so every call does the same work whatever order the route was left in.
+    @Benchmark
+    public double buildHilbertRoute(QualityCounters counters) {
+        route.buildHilbertRoute();
+        double length = route.totalDistance();
+        counters.tourLength = length;
+        counters.qualityRatio = StopSets.qualityRatio(length, size);
+        return length;
+    }
+}
@@ -0,0 +1,92 @@
+package OptimizeRoute.benchmark;
+
+import OptimizeRoute.Location;
+import OptimizeRoute.Node;
+import OptimizeRoute.Route;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// The cheap Route operations: total distance, lookup and delete by tracking number, and Location.distanceTo().
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+@State(Scope.Benchmark)
+public class RouteOperationsBenchmark {
+
+    private static final int LOOKUPS = 1024;
+
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    public int size;
+
+    @Param({"UNIFORM", "CLUSTERED"})
+    public StopSets.Distribution distribution;
+
+    @Param({"42"})
+    public long seed;
+
+    private Location[] stops;
+    private Route route;
+    private String[] lookups;
+    private int[] lookupIndexes;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        stops = StopSets.generate(distribution, size, seed);
+        route = StopSets.toRoute(stops);
+        SplittableRandom random = new SplittableRandom(seed);
+        lookups = new String[LOOKUPS];
+        lookupIndexes = new int[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            lookupIndexes[i] = random.nextInt(size);
+            lookups[i] = StopSets.trackingNumber(lookupIndexes[i]);
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public double totalDistance() {
+        return route.totalDistance();
+    }
+
+    @Benchmark
+    public Node findTrackingNumber() {
+        next = (next + 1) & (LOOKUPS - 1);
+        return route.findTrackingNumber(lookups[next]);
+    }
+
+    // Deletes a stop and adds it back at the end, so the route keeps its size from one call to the next.
+    @Benchmark
+    public boolean deleteLocation() {
+        next = (next + 1) & (LOOKUPS - 1);
+        boolean deleted = route.deleteLocation(lookups[next]);
+        if (deleted) {
+            route.addLocation(stops[lookupIndexes[next]]);
+        }
+        return deleted;
+    }
+
+    @Benchmark
+    public void distanceTo(Blackhole blackhole) {
+        next = (next + 1) & (LOOKUPS - 1);
+        Location from = stops[lookupIndexes[next]];
+        Location to = stops[lookupIndexes[(next + 1) & (LOOKUPS - 1)]];
+        blackhole.consume(from.distanceTo(to));
+    }
+}
@@ -0,0 +1,88 @@
+package OptimizeRoute.benchmark;
+
+import OptimizeRoute.Location;
+import OptimizeRoute.Route;
+
+import java.util.SplittableRandom;
+
+/*
+Seeded stop sets for the benchmarks, so every run and every optimizer variant sees exactly the same input.
+The map side grows with the stop count (about 32 units per stop along each axis, at least 1000 like the demos),
+which keeps the density similar from 100 to 1,000,000 stops.
+*/
+public final class StopSets {
+
+    public enum Distribution {
+        UNIFORM,
+        CLUSTERED
+    }
+
+    // Beardwood-Halton-Hammersley constant: a good tour through n uniform points is about 0.7124 * sqrt(n * area).
+    private static final double BHH_CONSTANT = 0.7124;
+
+    private StopSets() {
+    }
+
+    public static int side(int size) {
+        return Math.max(1000, (int) Math.sqrt(size) * 32);
+    }
+
+    public static Location[] generate(Distribution distribution, int size, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int side = side(size);
+        Location[] stops = new Location[size];
+
+        int clusterCount = Math.max(1, (int) Math.sqrt(size) / 4);
+        int[] centerX = new int[clusterCount];
+        int[] centerY = new int[clusterCount];
+        for (int i = 0; i < clusterCount; i++) {
+            centerX[i] = random.nextInt(side);
+            centerY[i] = random.nextInt(side);
+        }
+        double spread = side / (4.0 * Math.sqrt(clusterCount));
+
+        for (int i = 0; i < size; i++) {
+            int x;
+            int y;
+            if (distribution == Distribution.UNIFORM) {
+                x = random.nextInt(side);
+                y = random.nextInt(side);
+            } else {
+                int cluster = random.nextInt(clusterCount);
+                x = clamp((int) (centerX[cluster] + gaussian(random) * spread), side);
+                y = clamp((int) (centerY[cluster] + gaussian(random) * spread), side);
+            }
+            stops[i] = new Location(trackingNumber(i), x, y, i + 1);
+        }
+        return stops;
+    }
+
+    // Unique tracking numbers in the 10010 + 6 digits format, which allows up to 1,000,000 stops.
+    public static String trackingNumber(int index) {
+        return Long.toString(10010000000L + index);
+    }
+
+    public static Route toRoute(Location[] stops) {
+        Route route = new Route();
+        for (Location stop : stops) {
+            route.addLocation(stop);
+        }
+        return route;
+    }
+
+    // Tour length divided by the expected length of a good tour through uniform points on the same map.
+    public static double qualityRatio(double tourLength, int size) {
+        double side = side(size);
+        return tourLength / (BHH_CONSTANT * Math.sqrt(size * side * side));
+    }
+
+    private static double gaussian(SplittableRandom random) {
+        double u = 1.0 - random.nextDouble();
+        double v = random.nextDouble();
+        return Math.sqrt(-2.0 * Math.log(u)) * Math.cos(2.0 * Math.PI * v);
+    }
+
+    private static int clamp(int value, int side) {
+        return Math.max(0, Math.min(side - 1, value));
+    }
+}
@@ -1,16 +1,21 @@
 package OptimizeRoute;
 
+import javax.management.JMException;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.border.TitledBorder;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.io.FileWriter;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 /*Description:
 This is a comprehensive visualization tool for a delivery route optimization system.
@@ -18,7 +23,7 @@ It acts as both a graphical interface (view) and an interactive handler (control
 connecting user input with the backend route data structure.
 Main Features:
 1. Visualizes doubly linked list nodes on a 2D map.
-2. Implements the "nearest neighbor" greedy algorithm for route optimization.
+2. Implements the "nearest neighbor" greedy algorithm for route optimization, followed by a 2-opt / Or-opt improvement pass.
 3. Provides real-time interactive functions (click to view, add, and delete).
 4. Ensures data integrity through regular expression-based input validation.
 */
@@ -28,6 +33,20 @@ public class AppDemo extends JFrame {
     // Using a custom Doubly Linked List 'Route' instead of standard Java collections
     private Route deliveryRoute;
 
+    // Phase timings of every optimization, shown in the System Log and over JMX (JConsole / VisualVM).
+    private final MetricsRecorder metrics = new MetricsRecorder();
+
+    // [3] runs in the background for up to this long; [9] Stop ends it early and keeps the best route so far.
+    private static final long OPTIMIZE_TIME_LIMIT = 30000;
+    private OptimizationJob optimizationJob;
+    private double distanceBeforeOptimizing;
+    private double hilbertDistance;
+    // Newest snapshot not yet shown; the optimizer threads only post to the Swing thread when this was empty.
+    private final AtomicReference<TourSnapshot> pendingSnapshot = new AtomicReference<>();
+    // Buttons that touch the route, disabled while it is being optimized.
+    private final List<JButton> routeButtons = new ArrayList<>();
+    private JButton btnStop;
+
     // GUI Components
     private final RoutePanel mapPanel;      // Left side：Interactive map
     private final JTextArea consoleArea;    // Right side: System logs
@@ -36,6 +55,13 @@ public class AppDemo extends JFrame {
     public AppDemo() {
 
         deliveryRoute = new Route();
+        deliveryRoute.setMetrics(metrics);
+        metrics.setLog(line -> SwingUtilities.invokeLater(() -> log(line)));
+        try {
+            metrics.register();
+        } catch (JMException e) {
+            System.out.println("Metrics are not available over JMX: " + e.getMessage());
+        }
 
         // Basic window interface settings
         setTitle("Delivery Route Optimize System");
@@ -109,32 +135,48 @@ public class AppDemo extends JFrame {
         JButton btnGen = new JButton("[1] Generate");
         btnGen.addActionListener(e -> orderGenerator());
         panel.add(btnGen);
+        routeButtons.add(btnGen);
 
         JButton btnView = new JButton("[2] Summary");
         btnView.addActionListener(e -> viewRouteSummary());
         panel.add(btnView);
+        routeButtons.add(btnView);
 
         JButton btnOpt = new JButton("[3] Optimize");
         btnOpt.setBackground(new Color(40, 167, 69));
         btnOpt.addActionListener(e -> optimizeRoute());
         panel.add(btnOpt);
+        routeButtons.add(btnOpt);
 
         JButton btnExp = new JButton("[4] Export CSV");
         btnExp.addActionListener(e -> exportToCSV());
         panel.add(btnExp);
+        routeButtons.add(btnExp);
 
         JButton btnAdd = new JButton("[5] Add Stop");
         btnAdd.addActionListener(e -> addMoreLocation());
         panel.add(btnAdd);
+        routeButtons.add(btnAdd);
 
         JButton btnDel = new JButton("[6] Search/Delete");
         btnDel.addActionListener(e -> searchAndDeleteLocation());
         panel.add(btnDel);
+        routeButtons.add(btnDel);
 
         JButton btnExit = new JButton("[7] Exit");
         btnExit.setBackground(new Color(220, 53, 69));
         btnExit.addActionListener(e -> System.exit(0));
         panel.add(btnExit);
+
+        JButton btnImp = new JButton("[8] Import CSV");
+        btnImp.addActionListener(e -> importFromCSV());
+        panel.add(btnImp);
+        routeButtons.add(btnImp);
+
+        btnStop = new JButton("[9] Stop");
+        btnStop.setEnabled(false);
+        btnStop.addActionListener(e -> stopOptimizing());
+        panel.add(btnStop);
     }
 
     // Main functions
@@ -155,6 +197,7 @@ public class AppDemo extends JFrame {
     // [1] Generate order
     private void orderGenerator() {
         deliveryRoute = new Route();
+        deliveryRoute.setMetrics(metrics);
         mapPanel.setRoute(deliveryRoute); // Update panel reference
 
         Set<String> usedTrackingNumbers = new HashSet<>();
@@ -192,43 +235,102 @@ public class AppDemo extends JFrame {
         log("Route Summary:");
         log("Total Stops: " + deliveryRoute.getSize());
         log(String.format("Current Mileage: %.2f miles", deliveryRoute.totalDistance() / 100));
+        logTimeWindows();
+    }
+
+    // Stops with a promised time window that the route reaches too late, one line each.
+    private void logTimeWindows() {
+        if (!deliveryRoute.hasTimeWindows()) return;
+        List<TimeWindowViolation> violations = deliveryRoute.timeWindowViolations();
+        log(violations.isEmpty() ? "All time windows are kept." : violations.size() + " stops are reached after their time window:");
+        for (TimeWindowViolation violation : violations) {
+            log("  " + violation);
+        }
     }
 
     /* [3] To optimize the route, each delivery stop in reality should be randomly scattered throughout the city.
     The core idea is that before departing from each stop, picks the node closest to the origin (Warehouse) as the start.
-    the system compares which nearby point is the closest, and each departure is to the location closest to the current position.*/
+    the system compares which nearby point is the closest, and each departure is to the location closest to the current position.
+    The optimization runs on background threads, so the window keeps responding; the map shows the best route found so far.
+    Before it starts, the map shows the Hilbert curve order of the stops, which takes no time even for huge routes, so
+    there is a reasonable first draft at once. The route itself is not reordered for it.
+    Routes with time windows skip the draft, it does not look at the windows.*/
     private void optimizeRoute() {
-        if (!routeCheck()) return;
+        if (!routeCheck() || optimizationJob != null) return;
+
+        distanceBeforeOptimizing = deliveryRoute.totalDistance();
+        hilbertDistance = 0;
+        TourSnapshot draft = TourSnapshot.of(deliveryRoute);
+        if (!deliveryRoute.hasTimeWindows()) {
+            long start = System.nanoTime();
+            draft = deliveryRoute.hilbertDraft();
+            hilbertDistance = draft.getDistance();
+            log(String.format("Hilbert curve draft: %.2f miles (%.1f ms)", hilbertDistance/100, (System.nanoTime() - start) / 1e6));
+        }
+        // From here on the optimizer threads own the route, so the map draws copies of it.
+        mapPanel.showSnapshot(draft);
+        log("Optimizing your route... Click [9] Stop to keep the best route found so far.");
+        for (JButton button : routeButtons) {
+            button.setEnabled(false);
+        }
+        btnStop.setEnabled(true);
 
-        double oldDistance = deliveryRoute.totalDistance();
-        log("Optimizing your route...");
+        optimizationJob = deliveryRoute.optimizeAsync(OPTIMIZE_TIME_LIMIT, snapshot -> {
+            if (pendingSnapshot.getAndSet(snapshot) == null) {
+                SwingUtilities.invokeLater(this::showPendingSnapshot);
+            }
+        });
+    }
 
-        deliveryRoute.optimizeRoute();
+    private void showPendingSnapshot() {
+        TourSnapshot snapshot = pendingSnapshot.getAndSet(null);
+        if (snapshot == null) return;
+        if (!snapshot.isFinished()) {
+            mapPanel.showSnapshot(snapshot);
+            nodeInfoLabel.setText(String.format("Optimizing... %.2f miles after %.1f s",
+                    snapshot.getDistance() / 100, snapshot.getElapsedMillis() / 1000.0));
+            return;
+        }
+        // The route has been reordered by now, draw it directly again.
+        optimizationJob = null;
+        mapPanel.showSnapshot(null);
+        for (JButton button : routeButtons) {
+            button.setEnabled(true);
+        }
+        btnStop.setEnabled(false);
 
+        double oldDistance = distanceBeforeOptimizing;
+        double greedyDistance = deliveryRoute.getGreedyDistance();
         double newDistance = deliveryRoute.totalDistance();
         log(String.format("Optimization Done! Mileage: %.2f -> %.2f miles", oldDistance/100, newDistance/100));
+        log(String.format("Greedy pass saved: %.2f miles", (oldDistance - greedyDistance)/100));
+        if (hilbertDistance > 0) {
+            log(String.format("Greedy route: %.2f miles, Hilbert curve draft: %.2f miles", greedyDistance/100, hilbertDistance/100));
+        }
+        log(String.format("Improvement pass saved: %.2f miles", (greedyDistance - newDistance)/100));
         log(String.format("Saved: %.2f miles", (oldDistance - newDistance)/100));
+        logTimeWindows();
 
         mapPanel.repaint();
         nodeInfoLabel.setText("Route Optimized!");
     }
 
+    // [9] Stop the running optimization; the route keeps the best result found so far.
+    private void stopOptimizing() {
+        if (optimizationJob == null) return;
+        optimizationJob.cancel();
+        btnStop.setEnabled(false);
+        log("Stopping, keeping the best route found so far.");
+    }
+
     /* [4] Exporting a document in CSV format is a common requirement in my work,
     especially when I need to add information about delivered packages to an Excel spreadsheet.*/
     private void exportToCSV() {
         if (!routeCheck()) return;
         String fileName = "delivery_route.csv";
-        try (FileWriter writer = new FileWriter(fileName)) {
-            writer.write("Sequence,Tracking Number,X,Y,SerialNumber\n");
-            Node current = deliveryRoute.getHead();
-            int index = 1;
-            while (current != null) {
-                //Import using the specified format.
-                Location loc = current.getCurrentLocation();
-                writer.write(String.format("%d,%s,%d,%d,%d\n", index, loc.getTrackingNumber(), loc.getX(), loc.getY(), loc.getSerialNumber()));
-                current = current.getNext();
-                index++;
-            }
+        try {
+            // Streams the route in the Sequence,Tracking Number,X,Y,SerialNumber format, see RouteCsv.
+            RouteCsv.write(deliveryRoute, Paths.get(fileName));
             log("Export successful to " + fileName);
             JOptionPane.showMessageDialog(this, "Export successful!");
         } catch (IOException e) {
@@ -236,9 +338,29 @@ public class AppDemo extends JFrame {
         }
     }
 
+    /* [8] Orders usually come from the company system as a spreadsheet, so a route can also be loaded
+    from a CSV file in the same layout as the export.*/
+    private void importFromCSV() {
+        JFileChooser chooser = new JFileChooser(new File("."));
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+
+        try {
+            deliveryRoute = RouteCsv.readRoute(chooser.getSelectedFile().toPath());
+        } catch (IOException | IllegalArgumentException e) {
+            log("Import failed: " + e.getMessage());
+            JOptionPane.showMessageDialog(this, "Import failed: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        deliveryRoute.setMetrics(metrics);
+        mapPanel.setRoute(deliveryRoute);
+        log("Imported " + deliveryRoute.getSize() + " stops from " + chooser.getSelectedFile().getName());
+        mapPanel.repaint();
+        nodeInfoLabel.setText("Route has been imported. Click [3] to optimize.");
+    }
+
     /* [5] Sometimes situations arise where you need to add packages to an existing route.
     Therefore, a new feature has been added that allows packages to be added directly to the list
-    and re-sorted without disrupting the original route.*/
+    and slotted into the route without disrupting the original route.*/
     private void addMoreLocation() {
         if (!routeCheck()) return;
 
@@ -254,12 +376,11 @@ public class AppDemo extends JFrame {
         Random r = new Random();
         Location newLocation = new Location(input.trim(), r.nextInt(1000), r.nextInt(1000), deliveryRoute.getSize() + 1);
 
-        deliveryRoute.addLocation(newLocation);
+        // Cheapest insertion plus a local repair, so the rest of the driver's day stays as it was.
+        deliveryRoute.insertLocation(newLocation);
 
         log("Added stop: " + input);
-
-        deliveryRoute.optimizeRoute();
-        log("Route auto-reoptimized.");
+        log("Route updated around the new stop. Click [3] for a full re-optimization.");
         mapPanel.repaint();
     }
 
@@ -288,9 +409,8 @@ public class AppDemo extends JFrame {
 
             if (confirm == JOptionPane.YES_OPTION) {
                 // Call the deletion method.
-                if (deliveryRoute.deleteLocation(targetNumber)) {
-                    deliveryRoute.optimizeRoute(); // Reorder after deletion is complete.
-                    log("Deleted " + targetNumber + " and re-optimized route.");
+                if (deliveryRoute.removeLocation(targetNumber)) { // Splice out and repair the route locally.
+                    log("Deleted " + targetNumber + " and updated the route around it.");
                     mapPanel.repaint();
                     nodeInfoLabel.setText("Package deleted.");
                     nodeInfoLabel.setForeground(Color.BLACK);
@@ -307,6 +427,14 @@ public class AppDemo extends JFrame {
 
     class RoutePanel extends JPanel {
         private Route route;
+        // While the route is being optimized, the panel draws this copy instead of the route itself.
+        private TourSnapshot snapshot;
+        // The route as the renderer last saw it, copied again only when the route changes.
+        private TourSnapshot routeTour;
+        private Node[] routeNodes;
+        private long routeTourModificationCount;
+        private final RouteRenderer renderer = new RouteRenderer(Color.LIGHT_GRAY, 2, 8, 12, "START",
+                new Color(220, 53, 69), false);
 
         public RoutePanel(Route route) {
             this.route = route;
@@ -319,101 +447,95 @@ public class AppDemo extends JFrame {
                     handleClick(e.getX(), e.getY());
                 }
             });
+            // Hover details for the stop under the mouse.
+            addMouseMotionListener(new MouseAdapter() {
+                @Override
+                public void mouseMoved(MouseEvent e) {
+                    handleHover(e.getX(), e.getY());
+                }
+            });
+            // Drag to pan, wheel to zoom, double-click to see the whole route again.
+            renderer.installPanZoom(this);
         }
 
         public void setRoute(Route route) {
             this.route = route;
+            routeTour = null;
         }
 
-        // Handling click events
-        private void handleClick(int mouseX, int mouseY) {
-            if (route == null || route.getHead() == null) return;
-
-            // The current proportions must be recalculated.
-            double scaleX = (double) getWidth() / 1100;
-            double scaleY = (double) getHeight() / 1100;
-
-            Node current = route.getHead();
-            boolean found = false;
+        // Draws the snapshot from now on, or the route again with null.
+        public void showSnapshot(TourSnapshot snapshot) {
+            this.snapshot = snapshot;
+            repaint();
+        }
 
-            while (current != null) {
-                Location loc = current.getCurrentLocation();
-                // Convert coordinates
-                int drawX = (int) (loc.getX() * scaleX) + 40;
-                int drawY = (int) (loc.getY() * scaleY) + 40;
+        // Handling click events: the nearest stop within 10 pixels, found in the renderer's hit-test grid.
+        private void handleClick(int mouseX, int mouseY) {
+            if (route == null || route.getHead() == null || snapshot != null) return;
+
+            int position = renderer.stopAt(currentRouteTour(), mouseX, mouseY, 10);
+            if (position != -1) {
+                Location loc = routeNodes[position].getCurrentLocation();
+                // Update the bottom information bar.
+                String info = String.format("PACKAGE INFO | Tracking: %s | SN: %d | Loc: (%d, %d)",
+                        loc.getTrackingNumber(), loc.getSerialNumber(), loc.getX(), loc.getY());
+                nodeInfoLabel.setText(info);
+                nodeInfoLabel.setForeground(new Color(0, 102, 204));
+                log("Clicked map node: " + loc.getTrackingNumber());
+            } else {
+                nodeInfoLabel.setText("Click on a dot to view details...");
+                nodeInfoLabel.setForeground(Color.DARK_GRAY);
+            }
+        }
 
-                // Calculate the click distance.
-                if (Math.abs(mouseX - drawX) < 10 && Math.abs(mouseY - drawY) < 10) {
-                    // Update the bottom information bar.
-                    String info = String.format("PACKAGE INFO | Tracking: %s | SN: %d | Loc: (%d, %d)",
+        // Shows the stop under the mouse as a tooltip; during optimization only its place and serial number are known.
+        private void handleHover(int mouseX, int mouseY) {
+            String text = null;
+            if (snapshot != null) {
+                int position = renderer.stopAt(snapshot, mouseX, mouseY, 10);
+                if (position != -1) {
+                    text = String.format("Stop %d | SN: %d", position + 1, snapshot.getSerialNumber(position));
+                }
+            } else if (route != null && route.getHead() != null) {
+                int position = renderer.stopAt(currentRouteTour(), mouseX, mouseY, 10);
+                if (position != -1) {
+                    Location loc = routeNodes[position].getCurrentLocation();
+                    text = String.format("Stop %d | Tracking: %s | SN: %d | Loc: (%d, %d)", position + 1,
                             loc.getTrackingNumber(), loc.getSerialNumber(), loc.getX(), loc.getY());
-                    nodeInfoLabel.setText(info);
-                    nodeInfoLabel.setForeground(new Color(0, 102, 204));
-                    log("Clicked map node: " + loc.getTrackingNumber());
-                    found = true;
-                    break;
                 }
-                current = current.getNext();
             }
+            setToolTipText(text);
+        }
 
-            if (!found) {
-                nodeInfoLabel.setText("Click on a dot to view details...");
-                nodeInfoLabel.setForeground(Color.DARK_GRAY);
+        // The route as a snapshot plus its nodes in the same order, copied again only after the route changed.
+        private TourSnapshot currentRouteTour() {
+            if (routeTour == null || routeTourModificationCount != route.getModificationCount()) {
+                routeTour = TourSnapshot.of(route);
+                routeNodes = route.toArray();
+                routeTourModificationCount = route.getModificationCount();
             }
+            return routeTour;
         }
 
         @Override
         protected void paintComponent(Graphics g) {
             super.paintComponent(g);
-            // Enable Anti-aliasing for smoother rendering (High-quality graphics)
             Graphics2D g2 = (Graphics2D) g;
-            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-
-            if (route == null || route.getHead() == null) {
-                g2.setColor(Color.GRAY);
-                g2.drawString("No Route Data. Please Generate Orders.", getWidth()/2 - 100, getHeight()/2);
-                return;
-            }
-
-            // Dynamic scaling
-            double scaleX = (double) getWidth() / 1100;
-            double scaleY = (double) getHeight() / 1100;
-
-            Node current = route.getHead();
 
-            //
-            g2.setColor(Color.LIGHT_GRAY);
-            g2.setStroke(new BasicStroke(2));
-            while (current != null && current.getNext() != null) {
-                Location p1 = current.getCurrentLocation();
-                Location p2 = current.getNext().getCurrentLocation();
-
-                int x1 = (int) (p1.getX() * scaleX) + 40;
-                int y1 = (int) (p1.getY() * scaleY) + 40;
-                int x2 = (int) (p2.getX() * scaleX) + 40;
-                int y2 = (int) (p2.getY() * scaleY) + 40;
-
-                g2.drawLine(x1, y1, x2, y2);
-                current = current.getNext();
-            }
-
-            //
-            current = route.getHead();
-            while (current != null) {
-                Location loc = current.getCurrentLocation();
-                int x = (int) (loc.getX() * scaleX) + 40;
-                int y = (int) (loc.getY() * scaleY) + 40;
-
-                if (current == route.getHead()) {
-                    g2.setColor(new Color(220, 53, 69)); // 起点红
-                    g2.fillOval(x - 6, y - 6, 12, 12);
-                    g2.drawString("START", x - 10, y - 10);
-                } else {
-                    g2.setColor(new Color(0, 123, 255)); // 其他蓝
-                    g2.fillOval(x - 4, y - 4, 8, 8);
+            TourSnapshot tour = snapshot;
+            if (tour == null) {
+                if (route == null || route.getHead() == null) {
+                    g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                    g2.setColor(Color.GRAY);
+                    g2.drawString("No Route Data. Please Generate Orders.", getWidth()/2 - 100, getHeight()/2);
+                    return;
                 }
-                current = current.getNext();
+                tour = currentRouteTour();
             }
+
+            // Dynamic scaling: the 1000 x 1000 city fits the panel, then the user's zoom and pan apply.
+            renderer.setBase((double) getWidth() / 1100, (double) getHeight() / 1100, 40, 40);
+            renderer.paint(g2, tour, getWidth(), getHeight());
         }
     }
 
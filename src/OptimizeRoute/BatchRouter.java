@@ -0,0 +1,210 @@
+package OptimizeRoute;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/*
+Headless batch mode for nightly runs, no Scanner menu and no Swing:
+
+    java -cp logistics-route-optimization.jar OptimizeRoute.BatchRouter <input dir> <output dir> [threads] [time limit ms]
+
+Every manifest in the input directory (*.csv in the RouteCsv layout, or *.bin route snapshots) is loaded,
+optimized and written to the output directory as CSV under its own name plus ".csv" (a.bin becomes a.bin.csv), so
+a.csv and a.bin never write the same file. The output directory must not be the input directory, or the next run
+would pick up the results and summary.csv as manifests. Each file is its own task with
+its own Route, so one bad manifest only fails its own line of the summary. The tasks run on a fixed-size pool
+(one thread per core by default) whose queue is bounded, so only a few manifests are in memory at a time.
+summary.csv in the output directory lists the stops, the distance before and after and the time of every file.
+*/
+public class BatchRouter {
+
+    public static final String SUMMARY_FILE = "summary.csv";
+
+    private final int threads;
+    private final long improvementTimeLimit;
+
+    public BatchRouter(int threads, long improvementTimeLimit) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is needed, got " + threads);
+        }
+        this.threads = threads;
+        this.improvementTimeLimit = improvementTimeLimit;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 4) {
+            usage();
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        long timeLimit = Route.DEFAULT_IMPROVEMENT_TIME_LIMIT;
+        try {
+            if (args.length > 2) {
+                threads = Integer.parseInt(args[2]);
+            }
+            if (args.length > 3) {
+                timeLimit = Long.parseLong(args[3]);
+            }
+        } catch (NumberFormatException e) {
+            usage();
+        }
+        if (threads < 1 || timeLimit < 0) {
+            usage();
+        }
+
+        long start = System.nanoTime();
+        List<Result> results;
+        try {
+            results = new BatchRouter(threads, timeLimit).run(Paths.get(args[0]), Paths.get(args[1]));
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Batch failed: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int failed = 0;
+        long stops = 0;
+        for (Result result : results) {
+            if (result.getError() != null) {
+                failed++;
+                System.out.println(result.getFileName() + ": " + result.getError());
+            }
+            stops += result.getStops();
+        }
+        System.out.printf("Optimized %d routes (%d stops) in %.2f s, %.1f files/s, %d failed.%n",
+                results.size() - failed, stops, seconds, results.size() / seconds, failed);
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    private static void usage() {
+        System.out.println("Usage: BatchRouter <input dir> <output dir> [threads] [time limit ms]");
+        System.exit(2);
+    }
+
+    // Optimizes every manifest in inputDir and returns one result per file, sorted by file name.
+    public List<Result> run(Path inputDir, Path outputDir) throws IOException {
+        Files.createDirectories(outputDir);
+        if (Files.isSameFile(inputDir.toRealPath(), outputDir.toRealPath())) {
+            throw new IllegalArgumentException("The output directory must not be the input directory: " + outputDir);
+        }
+        List<Path> manifests = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(inputDir, "*.{csv,bin}")) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file)) {
+                    manifests.add(file);
+                }
+            }
+        }
+        manifests.sort(null);
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+        List<Future<Result>> futures = new ArrayList<>(manifests.size());
+        List<Result> results = new ArrayList<>(manifests.size());
+        try {
+            for (Path manifest : manifests) {
+                futures.add(executor.submit(() -> process(manifest, outputDir)));
+            }
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Batch was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Batch task failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        writeSummary(results, outputDir.resolve(SUMMARY_FILE));
+        return results;
+    }
+
+    // One manifest from file to file. Never throws, a failure is recorded in the result instead.
+    private Result process(Path manifest, Path outputDir) {
+        String fileName = manifest.getFileName().toString();
+        long start = System.nanoTime();
+        try {
+            Route route = fileName.endsWith(".bin") ? RouteSnapshot.open(manifest).toRoute() : RouteCsv.readRoute(manifest);
+            route.setImprovementTimeLimit(improvementTimeLimit);
+            double before = route.totalDistance();
+            route.optimizeRoute();
+            double after = route.totalDistance();
+            RouteCsv.write(route, outputDir.resolve(fileName + ".csv"));
+            return new Result(fileName, route.getSize(), before, after, System.nanoTime() - start, null);
+        } catch (IOException | RuntimeException e) {
+            return new Result(fileName, 0, 0, 0, System.nanoTime() - start, e.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+    }
+
+    private static void writeSummary(List<Result> results, Path path) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write("File,Stops,Distance Before,Distance After,Saved Percent,Milliseconds,Error\n");
+            for (Result result : results) {
+                double saved = result.getDistanceBefore() == 0 ? 0
+                        : 100 * (result.getDistanceBefore() - result.getDistanceAfter()) / result.getDistanceBefore();
+                writer.write(quote(result.getFileName()) + "," + result.getStops() + ","
+                        + String.format(Locale.ROOT, "%.2f,%.2f,%.2f,%d,", result.getDistanceBefore(), result.getDistanceAfter(), saved,
+                        result.getNanos() / 1_000_000)
+                        + (result.getError() == null ? "" : quote(result.getError())) + "\n");
+            }
+        }
+    }
+
+    // A CSV field in quotes, so commas and quotes in file names and messages do not break the columns.
+    private static String quote(String field) {
+        return "\"" + field.replace("\"", "\"\"") + "\"";
+    }
+
+    // What happened to one manifest. The error is null when the route was optimized and written.
+    public static class Result {
+        private final String fileName;
+        private final int stops;
+        private final double distanceBefore;
+        private final double distanceAfter;
+        private final long nanos;
+        private final String error;
+
+        Result(String fileName, int stops, double distanceBefore, double distanceAfter, long nanos, String error) {
+            this.fileName = fileName;
+            this.stops = stops;
+            this.distanceBefore = distanceBefore;
+            this.distanceAfter = distanceAfter;
+            this.nanos = nanos;
+            this.error = error;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+        public int getStops() {
+            return stops;
+        }
+        public double getDistanceBefore() {
+            return distanceBefore;
+        }
+        public double getDistanceAfter() {
+            return distanceAfter;
+        }
+        public long getNanos() {
+            return nanos;
+        }
+        public String getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package OptimizeRoute;
+
+/*
+Wraps another DistanceProvider and precomputes the distances of each optimization run:
+a dense DistanceMatrix up to MATRIX_LIMIT stops, and above that an LRU DistanceRowCache
+that keeps at most ROW_CACHE_BYTES of rows. Worth it when the wrapped provider is expensive;
+for plain straight-line distances computing them on the fly is usually just as fast.
+*/
+public class CachedDistance implements DistanceProvider {
+
+    public static final int MATRIX_LIMIT = 4096;
+    public static final long ROW_CACHE_BYTES = 64L * 1024 * 1024;
+
+    private final DistanceProvider provider;
+    private final int matrixLimit;
+
+    public CachedDistance(DistanceProvider provider) {
+        this(provider, MATRIX_LIMIT);
+    }
+
+    // Routes of up to matrixLimit stops get a dense matrix, at most DistanceMatrix.MAX_COUNT.
+    public CachedDistance(DistanceProvider provider, int matrixLimit) {
+        if (matrixLimit < 0 || matrixLimit > DistanceMatrix.MAX_COUNT) {
+            throw new IllegalArgumentException("Matrix limit must be between 0 and " + DistanceMatrix.MAX_COUNT + ", got " + matrixLimit);
+        }
+        this.provider = provider;
+        this.matrixLimit = matrixLimit;
+    }
+
+    @Override
+    public double distance(int fromX, int fromY, int toX, int toY) {
+        return provider.distance(fromX, fromY, toX, toY);
+    }
+
+    // Caching does not change which stops are closest.
+    @Override
+    public boolean isStraightLine() {
+        return provider.isStraightLine();
+    }
+
+    @Override
+    public DistanceTable table(int[] xs, int[] ys, int count) {
+        if (count <= matrixLimit) {
+            return new DistanceMatrix(provider, xs, ys, count);
+        }
+        int maxRows = (int) Math.max(1, ROW_CACHE_BYTES / (4L * count));
+        return new DistanceRowCache(provider, xs, ys, count, maxRows);
+    }
+}
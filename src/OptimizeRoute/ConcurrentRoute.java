@@ -0,0 +1,461 @@
+package OptimizeRoute;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/*
+A route that many threads can read and edit at the same time. Route and Node have no locking at all, so a Route
+can only be used by one thread; this is the container for the dispatcher threads that share one route.
+
+The stops are kept in chunks of at most MAX_CHUNK_SIZE locations, in route order. Chunks are never changed:
+an edit copies the one chunk it touches, and the new list of chunks is published with a compare-and-set on a
+single AtomicReference. Every published list is a complete, unchanging Snapshot of the route, so readers never
+lock: snapshot() is one volatile read, and iterating it sees the route exactly as it was at that moment, however
+many edits happen meanwhile. find() is a ConcurrentHashMap lookup.
+
+Writers lock only the chunk they edit, through a fixed set of striped locks (chunk id modulo STRIPES), so edits
+in different parts of the route run at the same time; the compare-and-set then only has to retry the cheap
+copy of the chunk list when another writer published first. The index remembers the chunk of every stop,
+so a writer finds its chunk without scanning the route. Publishing a whole new order (optimizeRoute()) takes
+all the stripes.
+*/
+public class ConcurrentRoute {
+
+    // A chunk that grows past this is split in two.
+    public static final int MAX_CHUNK_SIZE = 512;
+    // Chunks built from a whole route are half full, so inserts do not split them right away.
+    private static final int FILL_CHUNK_SIZE = MAX_CHUNK_SIZE / 2;
+    private static final int STRIPES = 64;
+    // Tries to publish an optimized order before optimizeRoute() gives up because the route keeps changing.
+    private static final int OPTIMIZE_ATTEMPTS = 3;
+
+    private final AtomicReference<Snapshot> current = new AtomicReference<>(new Snapshot(new Chunk[0], 0, 0));
+    private final ConcurrentHashMap<String, Entry> index = new ConcurrentHashMap<>();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final AtomicInteger nextChunkId = new AtomicInteger();
+
+    public ConcurrentRoute() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    // A concurrent copy of a route, in the same order. Only the first stop with a tracking number is kept.
+    public static ConcurrentRoute fromRoute(Route route) {
+        ConcurrentRoute concurrentRoute = new ConcurrentRoute();
+        List<Location> stops = new ArrayList<>(route.getSize());
+        for (Node node = route.getHead(); node != null; node = node.getNext()) {
+            stops.add(node.getCurrentLocation());
+        }
+        concurrentRoute.publish(concurrentRoute.current.get(), stops);
+        return concurrentRoute;
+    }
+
+    public int getSize() {
+        return current.get().size;
+    }
+
+    // The route as it is now. It never changes, so it can be iterated while other threads edit the route.
+    public Snapshot snapshot() {
+        return current.get();
+    }
+
+    // The stop with this tracking number, or null if it is not on the route.
+    public Location find(String trackingNumber) {
+        Entry entry = index.get(trackingNumber);
+        return entry == null || entry.chunkId == Entry.PENDING ? null : entry.location;
+    }
+
+    public boolean contains(String trackingNumber) {
+        return find(trackingNumber) != null;
+    }
+
+    // Appends a stop at the end of the route. Returns false if its tracking number is on the route already.
+    public boolean addLocation(Location location) {
+        Entry entry = reserve(location);
+        if (entry == null) {
+            return false;
+        }
+        while (true) {
+            int lastId = lastChunkId(current.get());
+            ReentrantLock lock = stripe(lastId);
+            lock.lock();
+            try {
+                // The last chunk can only change under its own lock, so check it is still the last one.
+                if (lastChunkId(current.get()) != lastId) {
+                    continue;
+                }
+                Chunk placed;
+                Snapshot snapshot;
+                Snapshot next;
+                do {
+                    snapshot = current.get();
+                    Chunk[] chunks = snapshot.chunks;
+                    Chunk last = chunks.length == 0 ? null : chunks[chunks.length - 1];
+                    if (last == null || last.stops.length >= MAX_CHUNK_SIZE) {
+                        placed = new Chunk(nextChunkId.getAndIncrement(), new Location[]{location});
+                        chunks = Arrays.copyOf(chunks, chunks.length + 1);
+                    } else {
+                        Location[] stops = Arrays.copyOf(last.stops, last.stops.length + 1);
+                        stops[last.stops.length] = location;
+                        placed = new Chunk(last.id, stops);
+                        chunks = chunks.clone();
+                    }
+                    chunks[chunks.length - 1] = placed;
+                    next = new Snapshot(chunks, snapshot.size + 1, snapshot.version + 1);
+                } while (!current.compareAndSet(snapshot, next));
+                entry.chunkId = placed.id;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /*
+    Puts a stop right after the stop with previousTrackingNumber. Returns false if that stop is not on the route
+    or the new tracking number is on it already.
+    */
+    public boolean insertAfter(String previousTrackingNumber, Location location) {
+        Entry entry = reserve(location);
+        if (entry == null) {
+            return false;
+        }
+        Entry previous = index.get(previousTrackingNumber);
+        boolean inserted = previous != null && editChunk(previous, (snapshot, position) -> {
+            Chunk chunk = snapshot.chunks[position];
+            int at = chunk.indexOf(previous.location) + 1;
+            Location[] stops = new Location[chunk.stops.length + 1];
+            System.arraycopy(chunk.stops, 0, stops, 0, at);
+            stops[at] = location;
+            System.arraycopy(chunk.stops, at, stops, at + 1, chunk.stops.length - at);
+            if (stops.length <= MAX_CHUNK_SIZE) {
+                return new Edit(replace(snapshot, position, new Chunk(chunk.id, stops)), snapshot.size + 1);
+            }
+            // Too big: the first half keeps the chunk id, the second half gets a new one.
+            int half = stops.length / 2;
+            Chunk first = new Chunk(chunk.id, Arrays.copyOfRange(stops, 0, half));
+            Chunk second = new Chunk(nextChunkId.getAndIncrement(), Arrays.copyOfRange(stops, half, stops.length));
+            Chunk[] chunks = new Chunk[snapshot.chunks.length + 1];
+            System.arraycopy(snapshot.chunks, 0, chunks, 0, position);
+            chunks[position] = first;
+            chunks[position + 1] = second;
+            System.arraycopy(snapshot.chunks, position + 1, chunks, position + 2, snapshot.chunks.length - position - 1);
+            return new Edit(chunks, snapshot.size + 1, second);
+        }, entry);
+        if (!inserted) {
+            index.remove(location.getTrackingNumber(), entry);
+        }
+        return inserted;
+    }
+
+    // Takes a stop off the route. Returns false if it is not on the route.
+    public boolean deleteLocation(String trackingNumber) {
+        Entry entry = index.get(trackingNumber);
+        if (entry == null || entry.chunkId == Entry.PENDING) {
+            return false;
+        }
+        boolean deleted = editChunk(entry, (snapshot, position) -> {
+            Chunk chunk = snapshot.chunks[position];
+            if (chunk.stops.length == 1) {
+                Chunk[] chunks = new Chunk[snapshot.chunks.length - 1];
+                System.arraycopy(snapshot.chunks, 0, chunks, 0, position);
+                System.arraycopy(snapshot.chunks, position + 1, chunks, position, chunks.length - position);
+                return new Edit(chunks, snapshot.size - 1);
+            }
+            int at = chunk.indexOf(entry.location);
+            Location[] stops = new Location[chunk.stops.length - 1];
+            System.arraycopy(chunk.stops, 0, stops, 0, at);
+            System.arraycopy(chunk.stops, at + 1, stops, at, stops.length - at);
+            return new Edit(replace(snapshot, position, new Chunk(chunk.id, stops)), snapshot.size - 1);
+        }, null);
+        if (deleted) {
+            index.remove(trackingNumber, entry);
+        }
+        return deleted;
+    }
+
+    /*
+    Optimizes a copy of the route with the given steps (for example Route::optimizeRoute, after setting a
+    DistanceProvider; they must keep the same stops) without holding any lock, then publishes the new order if the route was not edited
+    meanwhile. Edits keep going while it runs; when one gets in first the optimization is run again on the
+    new route, a few times at most. Returns false if it never got to publish.
+    */
+    public boolean optimizeRoute(Consumer<Route> optimizer) {
+        for (int attempt = 0; attempt < OPTIMIZE_ATTEMPTS; attempt++) {
+            Snapshot snapshot = current.get();
+            Route route = snapshot.toRoute();
+            optimizer.accept(route);
+            List<Location> stops = new ArrayList<>(route.getSize());
+            for (Node node = route.getHead(); node != null; node = node.getNext()) {
+                stops.add(node.getCurrentLocation());
+            }
+            if (stops.size() != snapshot.size) {
+                throw new IllegalStateException("The optimizer added or removed stops");
+            }
+            lockAll();
+            try {
+                if (current.get() == snapshot) {
+                    publish(snapshot, stops);
+                    return true;
+                }
+            } finally {
+                unlockAll();
+            }
+        }
+        return false;
+    }
+
+    public boolean optimizeRoute() {
+        return optimizeRoute(Route::optimizeRoute);
+    }
+
+    public Route toRoute() {
+        return snapshot().toRoute();
+    }
+
+    // Adds the tracking number to the index as not yet on the route, or returns null if it is taken.
+    private Entry reserve(Location location) {
+        Entry entry = new Entry(location);
+        return index.putIfAbsent(location.getTrackingNumber(), entry) == null ? entry : null;
+    }
+
+    /*
+    Runs one edit on the chunk of a stop under that chunk's stripe lock, retrying the compare-and-set until it
+    publishes. moved is the stop the edit adds, if any; it and the stops of a split-off chunk learn their new chunk
+    once the edit is published. Returns false if the stop left the route before the lock was taken.
+    */
+    private boolean editChunk(Entry entry, ChunkEdit edit, Entry moved) {
+        while (true) {
+            int chunkId = entry.chunkId;
+            if (chunkId == Entry.PENDING || index.get(entry.location.getTrackingNumber()) != entry) {
+                return false;
+            }
+            ReentrantLock lock = stripe(chunkId);
+            lock.lock();
+            try {
+                // The stop may have moved to another chunk while this thread waited for the lock.
+                if (entry.chunkId != chunkId) {
+                    continue;
+                }
+                Snapshot snapshot;
+                Edit result;
+                do {
+                    snapshot = current.get();
+                    int position = snapshot.positionOf(chunkId);
+                    if (position == -1 || snapshot.chunks[position].indexOf(entry.location) == -1) {
+                        return false;
+                    }
+                    result = edit.apply(snapshot, position);
+                } while (!current.compareAndSet(snapshot, new Snapshot(result.chunks, result.size, snapshot.version + 1)));
+                if (moved != null) {
+                    moved.chunkId = chunkId;
+                }
+                if (result.splitOff != null) {
+                    for (Location stop : result.splitOff.stops) {
+                        index.get(stop.getTrackingNumber()).chunkId = result.splitOff.id;
+                    }
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Replaces the whole route with stops in this order. Called with all stripes held (or before anyone can see the route).
+    private void publish(Snapshot snapshot, List<Location> stops) {
+        int chunkCount = (stops.size() + FILL_CHUNK_SIZE - 1) / FILL_CHUNK_SIZE;
+        Chunk[] chunks = new Chunk[chunkCount];
+        List<Location> kept = new ArrayList<>(stops.size());
+        for (Location stop : stops) {
+            Entry entry = index.get(stop.getTrackingNumber());
+            if (entry == null) {
+                index.put(stop.getTrackingNumber(), new Entry(stop));
+                kept.add(stop);
+            } else if (entry.location == stop) {
+                kept.add(stop);
+            }
+        }
+        chunkCount = 0;
+        for (int from = 0; from < kept.size(); from += FILL_CHUNK_SIZE) {
+            int to = Math.min(from + FILL_CHUNK_SIZE, kept.size());
+            Chunk chunk = new Chunk(nextChunkId.getAndIncrement(), kept.subList(from, to).toArray(new Location[0]));
+            chunks[chunkCount++] = chunk;
+        }
+        current.set(new Snapshot(Arrays.copyOf(chunks, chunkCount), kept.size(), snapshot.version + 1));
+        for (int i = 0; i < chunkCount; i++) {
+            for (Location stop : chunks[i].stops) {
+                index.get(stop.getTrackingNumber()).chunkId = chunks[i].id;
+            }
+        }
+    }
+
+    private static Chunk[] replace(Snapshot snapshot, int position, Chunk chunk) {
+        Chunk[] chunks = snapshot.chunks.clone();
+        chunks[position] = chunk;
+        return chunks;
+    }
+
+    private static int lastChunkId(Snapshot snapshot) {
+        return snapshot.chunks.length == 0 ? -1 : snapshot.chunks[snapshot.chunks.length - 1].id;
+    }
+
+    private ReentrantLock stripe(int chunkId) {
+        return stripes[Math.floorMod(chunkId, STRIPES)];
+    }
+
+    // Always in the same order, so two threads taking all stripes can not deadlock.
+    private void lockAll() {
+        for (ReentrantLock lock : stripes) {
+            lock.lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int i = STRIPES - 1; i >= 0; i--) {
+            stripes[i].unlock();
+        }
+    }
+
+    /*
+    One published state of the route: the chunks in route order, the stop count and a version that goes up
+    with every edit. Nothing in it changes after it is published.
+    */
+    public static final class Snapshot implements Iterable<Location> {
+        private final Chunk[] chunks;
+        private final int size;
+        private final long version;
+
+        private Snapshot(Chunk[] chunks, int size, long version) {
+            this.chunks = chunks;
+            this.size = size;
+            this.version = version;
+        }
+
+        public int getSize() {
+            return size;
+        }
+        public long getVersion() {
+            return version;
+        }
+
+        // The stops in route order.
+        public Location[] toArray() {
+            Location[] stops = new Location[size];
+            int at = 0;
+            for (Chunk chunk : chunks) {
+                System.arraycopy(chunk.stops, 0, stops, at, chunk.stops.length);
+                at += chunk.stops.length;
+            }
+            return stops;
+        }
+
+        // A new single-threaded Route with these stops, in this order.
+        public Route toRoute() {
+            Route route = new Route();
+            for (Chunk chunk : chunks) {
+                for (Location stop : chunk.stops) {
+                    route.addLocation(stop);
+                }
+            }
+            return route;
+        }
+
+        @Override
+        public Iterator<Location> iterator() {
+            return new Iterator<>() {
+                private int chunk;
+                private int at;
+
+                @Override
+                public boolean hasNext() {
+                    return chunk < chunks.length;
+                }
+
+                @Override
+                public Location next() {
+                    if (chunk >= chunks.length) {
+                        throw new NoSuchElementException();
+                    }
+                    Location stop = chunks[chunk].stops[at++];
+                    if (at == chunks[chunk].stops.length) {
+                        chunk++;
+                        at = 0;
+                    }
+                    return stop;
+                }
+            };
+        }
+
+        private int positionOf(int chunkId) {
+            for (int i = 0; i < chunks.length; i++) {
+                if (chunks[i].id == chunkId) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    // A piece of the route. Editing it means making a new chunk with the same id.
+    private static final class Chunk {
+        final int id;
+        final Location[] stops;
+
+        Chunk(int id, Location[] stops) {
+            this.id = id;
+            this.stops = stops;
+        }
+
+        int indexOf(Location stop) {
+            for (int i = 0; i < stops.length; i++) {
+                if (stops[i] == stop) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    // Index entry of a stop: the chunk it is in, which only changes while that chunk's stripe is held.
+    private static final class Entry {
+        static final int PENDING = Integer.MIN_VALUE;
+
+        final Location location;
+        volatile int chunkId = PENDING;
+
+        Entry(Location location) {
+            this.location = location;
+        }
+    }
+
+    // The chunks and stop count after an edit, and the chunk split off by it, if any.
+    private static final class Edit {
+        final Chunk[] chunks;
+        final int size;
+        final Chunk splitOff;
+
+        Edit(Chunk[] chunks, int size) {
+            this(chunks, size, null);
+        }
+
+        Edit(Chunk[] chunks, int size, Chunk splitOff) {
+            this.chunks = chunks;
+            this.size = size;
+            this.splitOff = splitOff;
+        }
+    }
+
+    private interface ChunkEdit {
+        Edit apply(Snapshot snapshot, int position);
+    }
+}
@@ -0,0 +1,506 @@
+package OptimizeRoute;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/*
+Contraction hierarchies over a RoadGraph, for shortest road distances that take microseconds instead of a Dijkstra
+over the whole network.
+
+Preprocessing takes the nodes out of the graph one by one, least important first. Taking out node v would break the
+shortest paths u - v - w between its remaining neighbors, so for every such pair a "shortcut" edge u - w of the
+same length is added, unless a local Dijkstra from u that avoids v (the witness search) finds another path that
+is at least as short. The next node to take out is the one with the lowest priority: the shortcuts it would add
+minus the edges it removes, plus how many of its neighbors are gone already and how deep it sits in the hierarchy,
+which keeps the contraction spread evenly over the map. Priorities are updated lazily when a node comes to the top.
+
+The order of contraction is the node's rank. Every shortest path in the original graph has a path of the same
+length through the original edges and the shortcuts that first only goes up in rank and then only down. So a query
+runs two small Dijkstras that only follow edges to higher ranked nodes (the upward graph, kept in CSR form),
+one from each end, and the distance is the best sum over the nodes both reached. A node that can be reached
+shorter through a higher ranked neighbor is not on any shortest up-down path; such nodes are not expanded
+("stall-on-demand"), which makes the searches much smaller.
+
+Many-to-many tables use buckets: the upward search of every target leaves (target, distance) in a bucket at
+each node it settles, and the upward search of a source then reads the buckets of the nodes it settles. A whole
+row of the table costs one small search plus the bucket entries it meets, instead of a Dijkstra per pair.
+
+Queries keep their search state in a ThreadLocal, so one hierarchy can be shared by all worker threads.
+*/
+public class ContractionHierarchy {
+
+    // Nodes a witness search may settle before it gives up and the shortcut is added anyway.
+    private static final int WITNESS_SETTLE_LIMIT = 100;
+    // The same while only estimating a node's priority; a lower limit only costs a few extra shortcuts.
+    private static final int PRIORITY_SETTLE_LIMIT = 10;
+
+    private final int nodeCount;
+    private final int[] rank;
+    // Upward graph: the edges of node v to higher ranked nodes are upTarget[upFirst[v] .. upFirst[v + 1] - 1].
+    private final int[] upFirst;
+    private final int[] upTarget;
+    private final double[] upLength;
+    private final int shortcutCount;
+    private final ThreadLocal<Search[]> searches;
+
+    public ContractionHierarchy(RoadGraph graph) {
+        this.nodeCount = graph.getNodeCount();
+        this.rank = new int[nodeCount];
+        Contraction contraction = new Contraction(graph);
+        contraction.run(rank);
+        this.shortcutCount = contraction.shortcuts;
+
+        // The upward edges were recorded when each node was contracted; put them in CSR order.
+        this.upFirst = new int[nodeCount + 1];
+        for (int v = 0; v < nodeCount; v++) {
+            upFirst[v + 1] = upFirst[v] + contraction.upCount[v];
+        }
+        this.upTarget = new int[upFirst[nodeCount]];
+        this.upLength = new double[upFirst[nodeCount]];
+        for (int v = 0; v < nodeCount; v++) {
+            System.arraycopy(contraction.upTargets, contraction.upStart[v], upTarget, upFirst[v], contraction.upCount[v]);
+            System.arraycopy(contraction.upLengths, contraction.upStart[v], upLength, upFirst[v], contraction.upCount[v]);
+        }
+        this.searches = ThreadLocal.withInitial(() -> new Search[]{new Search(nodeCount), new Search(nodeCount)});
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+    // Shortcut edges added by the preprocessing.
+    public int getShortcutCount() {
+        return shortcutCount;
+    }
+    // Position of the node in the contraction order, 0 for the first one taken out.
+    public int getRank(int node) {
+        return rank[node];
+    }
+
+    // Shortest road distance between two nodes, infinity if they are not connected.
+    public double distance(int from, int to) {
+        if (from == to) {
+            return 0;
+        }
+        Search[] pair = searches.get();
+        Search forward = pair[0];
+        Search backward = pair[1];
+        forward.run(from, Double.POSITIVE_INFINITY);
+        double best = Double.POSITIVE_INFINITY;
+        // The forward distances are all lengths of real paths, so any node both searches reached gives an upper bound.
+        backward.start(to);
+        while (!backward.heap.isEmpty()) {
+            if (backward.heap.peekKey() >= best) {
+                break;
+            }
+            int node = backward.step();
+            if (node >= 0 && forward.reached(node)) {
+                best = Math.min(best, backward.distance[node] + forward.distance[node]);
+            }
+        }
+        return best;
+    }
+
+    /*
+    Runs the upward search of every target (in parallel) and keeps the results by meeting node,
+    for row(). targets holds graph nodes; the rows are indexed like it.
+    */
+    public Buckets buckets(int[] targets, int count) {
+        int[][] nodesOf = new int[count][];
+        double[][] distancesOf = new double[count][];
+        IntStream.range(0, count).parallel().forEach(t -> {
+            Search search = searches.get()[1];
+            search.run(targets[t], Double.POSITIVE_INFINITY);
+            nodesOf[t] = Arrays.copyOf(search.settled, search.settledCount);
+            distancesOf[t] = Arrays.copyOf(search.settledDistance, search.settledCount);
+        });
+        int[] first = new int[nodeCount + 1];
+        for (int t = 0; t < count; t++) {
+            for (int node : nodesOf[t]) {
+                first[node + 1]++;
+            }
+        }
+        for (int v = 0; v < nodeCount; v++) {
+            first[v + 1] += first[v];
+        }
+        int[] fill = Arrays.copyOf(first, nodeCount);
+        int[] target = new int[first[nodeCount]];
+        double[] distance = new double[first[nodeCount]];
+        for (int t = 0; t < count; t++) {
+            int[] nodes = nodesOf[t];
+            double[] distances = distancesOf[t];
+            for (int i = 0; i < nodes.length; i++) {
+                int slot = fill[nodes[i]]++;
+                target[slot] = t;
+                distance[slot] = distances[i];
+            }
+        }
+        return new Buckets(count, first, target, distance);
+    }
+
+    // Writes the shortest distance from the source node to every target of the buckets into row (infinity if unreachable).
+    public void row(int source, Buckets buckets, double[] row) {
+        Arrays.fill(row, 0, buckets.count, Double.POSITIVE_INFINITY);
+        Search search = searches.get()[0];
+        search.run(source, Double.POSITIVE_INFINITY);
+        for (int i = 0; i < search.settledCount; i++) {
+            int node = search.settled[i];
+            double d = search.settledDistance[i];
+            for (int k = buckets.first[node]; k < buckets.first[node + 1]; k++) {
+                double through = d + buckets.distance[k];
+                int t = buckets.target[k];
+                if (through < row[t]) {
+                    row[t] = through;
+                }
+            }
+        }
+    }
+
+    // The upward search spaces of a set of targets, sorted by node. See buckets().
+    public static final class Buckets {
+        private final int count;
+        private final int[] first;
+        private final int[] target;
+        private final double[] distance;
+
+        private Buckets(int count, int[] first, int[] target, double[] distance) {
+            this.count = count;
+            this.first = first;
+            this.target = target;
+            this.distance = distance;
+        }
+
+        public int getTargetCount() {
+            return count;
+        }
+        // Bucket entries over all nodes, the total size of the targets' search spaces.
+        public int getEntryCount() {
+            return target.length;
+        }
+    }
+
+    /*
+    An upward Dijkstra with stall-on-demand. Distances are valid for the nodes whose stamp is the current one,
+    so starting a new search does not clear any array. The settled, not stalled nodes are listed in settled.
+    */
+    private final class Search {
+        final double[] distance;
+        final int[] stamp;
+        int currentStamp;
+        final MinHeap heap = new MinHeap();
+        int[] settled = new int[64];
+        double[] settledDistance = new double[64];
+        int settledCount;
+
+        Search(int nodeCount) {
+            distance = new double[nodeCount];
+            stamp = new int[nodeCount];
+        }
+
+        boolean reached(int node) {
+            return stamp[node] == currentStamp;
+        }
+
+        void start(int source) {
+            currentStamp++;
+            if (currentStamp == 0) {
+                Arrays.fill(stamp, 0);
+                currentStamp = 1;
+            }
+            heap.clear();
+            settledCount = 0;
+            stamp[source] = currentStamp;
+            distance[source] = 0;
+            heap.push(0, source);
+        }
+
+        void run(int source, double limit) {
+            start(source);
+            while (!heap.isEmpty() && heap.peekKey() <= limit) {
+                step();
+            }
+        }
+
+        // Settles the next node and returns it, or -1 when the entry was stale or the node is stalled.
+        int step() {
+            double d = heap.peekKey();
+            int node = heap.pop();
+            if (d > distance[node]) {
+                return -1;
+            }
+            int end = upFirst[node + 1];
+            for (int e = upFirst[node]; e < end; e++) {
+                int higher = upTarget[e];
+                if (stamp[higher] == currentStamp && distance[higher] + upLength[e] < d) {
+                    return -1;
+                }
+            }
+            if (settledCount == settled.length) {
+                settled = Arrays.copyOf(settled, settledCount * 2);
+                settledDistance = Arrays.copyOf(settledDistance, settledCount * 2);
+            }
+            settled[settledCount] = node;
+            settledDistance[settledCount++] = d;
+            for (int e = upFirst[node]; e < end; e++) {
+                int higher = upTarget[e];
+                double through = d + upLength[e];
+                if (stamp[higher] != currentStamp || through < distance[higher]) {
+                    stamp[higher] = currentStamp;
+                    distance[higher] = through;
+                    heap.push(through, higher);
+                }
+            }
+            return node;
+        }
+    }
+
+    /*
+    The preprocessing. While it runs the graph is kept as one growable adjacency list per node, because the
+    shortcuts add edges; a contracted node is taken out of its neighbors' lists. The upward edges of every node
+    are recorded when it is contracted (its remaining neighbors all get a higher rank) in three flat growable arrays.
+    */
+    private static final class Contraction {
+        final int nodeCount;
+        final int[][] adjacent;
+        final double[][] adjacentLength;
+        final int[] degree;
+        final boolean[] contracted;
+        final int[] deletedNeighbors;
+        final int[] level;
+        final int[] priority;
+        int shortcuts;
+
+        int[] upStart;
+        int[] upCount;
+        int[] upTargets = new int[1024];
+        double[] upLengths = new double[1024];
+        int upSize;
+
+        // Witness search state, stamped like Search.
+        final double[] witnessDistance;
+        final int[] witnessStamp;
+        final int[] witnessTarget;
+        int witnessCurrent;
+        final MinHeap witnessHeap = new MinHeap();
+        // Remaining neighbors of the node being looked at.
+        int[] neighbors = new int[16];
+        double[] neighborLengths = new double[16];
+
+        Contraction(RoadGraph graph) {
+            nodeCount = graph.getNodeCount();
+            adjacent = new int[nodeCount][];
+            adjacentLength = new double[nodeCount][];
+            degree = new int[nodeCount];
+            contracted = new boolean[nodeCount];
+            deletedNeighbors = new int[nodeCount];
+            level = new int[nodeCount];
+            priority = new int[nodeCount];
+            upStart = new int[nodeCount];
+            upCount = new int[nodeCount];
+            witnessDistance = new double[nodeCount];
+            witnessStamp = new int[nodeCount];
+            witnessTarget = new int[nodeCount];
+            for (int v = 0; v < nodeCount; v++) {
+                int size = graph.firstEdge(v + 1) - graph.firstEdge(v);
+                adjacent[v] = new int[Math.max(size, 2)];
+                adjacentLength[v] = new double[Math.max(size, 2)];
+            }
+            for (int v = 0; v < nodeCount; v++) {
+                for (int e = graph.firstEdge(v); e < graph.firstEdge(v + 1); e++) {
+                    // Parallel streets collapse into the shortest one.
+                    addEdge(v, graph.edgeTarget(e), graph.edgeLength(e));
+                }
+            }
+        }
+
+        void run(int[] rank) {
+            MinHeap queue = new MinHeap();
+            for (int v = 0; v < nodeCount; v++) {
+                priority[v] = computePriority(v);
+                queue.push(priority[v], v);
+            }
+            int nextRank = 0;
+            while (!queue.isEmpty()) {
+                double key = queue.peekKey();
+                int v = queue.pop();
+                if (contracted[v] || key != priority[v]) {
+                    continue;
+                }
+                // Lazy update: the priority may have gone up since it was pushed.
+                int fresh = computePriority(v);
+                if (fresh > key && !queue.isEmpty() && fresh > queue.peekKey()) {
+                    priority[v] = fresh;
+                    queue.push(fresh, v);
+                    continue;
+                }
+                contract(v);
+                rank[v] = nextRank++;
+                int count = collectNeighbors(v);
+                for (int i = 0; i < count; i++) {
+                    int u = neighbors[i];
+                    deletedNeighbors[u]++;
+                    int oldLevel = level[u];
+                    level[u] = Math.max(level[u], level[v] + 1);
+                    // Only the cheap parts of the priority are brought up to date here; the shortcut count is
+                    // recomputed when u comes to the top of the queue.
+                    priority[u] += 1 + level[u] - oldLevel;
+                    queue.push(priority[u], u);
+                }
+            }
+        }
+
+        private int computePriority(int v) {
+            int count = collectNeighbors(v);
+            int added = shortcutsFor(v, count, PRIORITY_SETTLE_LIMIT, false);
+            // The edge difference counts most: taking out nodes that add many shortcuts early makes big search spaces.
+            return 8 * (added - count) + deletedNeighbors[v] + level[v];
+        }
+
+        private void contract(int v) {
+            int count = collectNeighbors(v);
+            upStart[v] = upSize;
+            upCount[v] = count;
+            for (int i = 0; i < count; i++) {
+                if (upSize == upTargets.length) {
+                    upTargets = Arrays.copyOf(upTargets, upSize * 2);
+                    upLengths = Arrays.copyOf(upLengths, upSize * 2);
+                }
+                upTargets[upSize] = neighbors[i];
+                upLengths[upSize++] = neighborLengths[i];
+            }
+            shortcuts += shortcutsFor(v, count, WITNESS_SETTLE_LIMIT, true);
+            contracted[v] = true;
+            // Take v out of its neighbors' lists, so the searches never look at it again.
+            for (int i = 0; i < count; i++) {
+                removeEdge(upTargets[upStart[v] + i], v);
+            }
+        }
+
+        // Copies the neighbors of v that are not contracted yet into neighbors/neighborLengths.
+        private int collectNeighbors(int v) {
+            int count = 0;
+            for (int i = 0; i < degree[v]; i++) {
+                int u = adjacent[v][i];
+                if (count == neighbors.length) {
+                    neighbors = Arrays.copyOf(neighbors, count * 2);
+                    neighborLengths = Arrays.copyOf(neighborLengths, count * 2);
+                }
+                neighbors[count] = u;
+                neighborLengths[count++] = adjacentLength[v][i];
+            }
+            return count;
+        }
+
+        /*
+        Counts (and with add set, adds) the shortcuts that taking v out needs between its count remaining neighbors.
+        Works on a copy of the neighbor list, because the witness searches do not touch it but adding edges might
+        grow the adjacency lists it was read from.
+        */
+        private int shortcutsFor(int v, int count, int settleLimit, boolean add) {
+            int[] around = Arrays.copyOf(neighbors, count);
+            double[] aroundLength = Arrays.copyOf(neighborLengths, count);
+            int needed = 0;
+            for (int i = 0; i < count - 1; i++) {
+                int u = around[i];
+                double maxLength = 0;
+                for (int j = i + 1; j < count; j++) {
+                    maxLength = Math.max(maxLength, aroundLength[i] + aroundLength[j]);
+                }
+                witnessSearch(u, v, around, i + 1, count, maxLength, settleLimit);
+                for (int j = i + 1; j < count; j++) {
+                    int w = around[j];
+                    double viaV = aroundLength[i] + aroundLength[j];
+                    if (witnessStamp[w] == witnessCurrent && witnessDistance[w] <= viaV) {
+                        continue;
+                    }
+                    needed++;
+                    if (add) {
+                        addEdge(u, w, viaV);
+                        addEdge(w, u, viaV);
+                    }
+                }
+            }
+            return needed;
+        }
+
+        /*
+        Dijkstra from source over the remaining graph without the node skip, until it has settled
+        targets[from .. to - 1], or gone past maxLength or settleLimit nodes.
+        */
+        private void witnessSearch(int source, int skip, int[] targets, int from, int to, double maxLength, int settleLimit) {
+            witnessCurrent++;
+            if (witnessCurrent == 0) {
+                Arrays.fill(witnessStamp, 0);
+                Arrays.fill(witnessTarget, 0);
+                witnessCurrent = 1;
+            }
+            witnessHeap.clear();
+            witnessStamp[source] = witnessCurrent;
+            witnessDistance[source] = 0;
+            witnessHeap.push(0, source);
+            for (int i = from; i < to; i++) {
+                witnessTarget[targets[i]] = witnessCurrent;
+            }
+            int targetsLeft = to - from;
+            int settledCount = 0;
+            while (!witnessHeap.isEmpty() && settledCount < settleLimit) {
+                double d = witnessHeap.peekKey();
+                int node = witnessHeap.pop();
+                if (d > witnessDistance[node]) {
+                    continue;
+                }
+                if (d > maxLength) {
+                    break;
+                }
+                settledCount++;
+                if (witnessTarget[node] == witnessCurrent && --targetsLeft == 0) {
+                    break;
+                }
+                int[] edges = adjacent[node];
+                double[] lengths = adjacentLength[node];
+                for (int i = 0; i < degree[node]; i++) {
+                    int next = edges[i];
+                    double through = d + lengths[i];
+                    if (next == skip || through > maxLength) {
+                        continue;
+                    }
+                    if (witnessStamp[next] != witnessCurrent || through < witnessDistance[next]) {
+                        witnessStamp[next] = witnessCurrent;
+                        witnessDistance[next] = through;
+                        witnessHeap.push(through, next);
+                    }
+                }
+            }
+        }
+
+        private void removeEdge(int from, int to) {
+            int[] targets = adjacent[from];
+            for (int i = 0; i < degree[from]; i++) {
+                if (targets[i] == to) {
+                    int last = --degree[from];
+                    targets[i] = targets[last];
+                    adjacentLength[from][i] = adjacentLength[from][last];
+                    return;
+                }
+            }
+        }
+
+        // Adds the edge from -> to, or shortens it if it is there already.
+        private void addEdge(int from, int to, double length) {
+            int[] targets = adjacent[from];
+            for (int i = 0; i < degree[from]; i++) {
+                if (targets[i] == to) {
+                    if (length < adjacentLength[from][i]) {
+                        adjacentLength[from][i] = length;
+                    }
+                    return;
+                }
+            }
+            if (degree[from] == targets.length) {
+                adjacent[from] = Arrays.copyOf(targets, targets.length * 2);
+                adjacentLength[from] = Arrays.copyOf(adjacentLength[from], targets.length * 2);
+            }
+            adjacent[from][degree[from]] = to;
+            adjacentLength[from][degree[from]++] = length;
+        }
+    }
+}
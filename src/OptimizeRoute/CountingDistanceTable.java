@@ -0,0 +1,22 @@
+package OptimizeRoute;
+
+// Wraps a DistanceTable and counts the lookups, for OptimizationMetrics. Only used while metrics are on.
+class CountingDistanceTable implements DistanceTable {
+
+    private final DistanceTable table;
+    private long count;
+
+    CountingDistanceTable(DistanceTable table) {
+        this.table = table;
+    }
+
+    @Override
+    public double distance(int from, int to) {
+        count++;
+        return table.distance(from, to);
+    }
+
+    long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,45 @@
+package OptimizeRoute;
+
+import java.util.stream.IntStream;
+
+/*
+Dense distance table: every distance between the stops is computed once, in parallel, and kept as a float.
+Needs 4 * n * n bytes, so it is only meant for routes of moderate size (see CachedDistance), and a Java array
+can hold at most MAX_COUNT * MAX_COUNT floats.
+Read-only after construction, so all worker threads can share one matrix.
+*/
+public class DistanceMatrix implements DistanceTable {
+
+    // Largest count whose count * count still fits in one array (46341 * 46341 is above Integer.MAX_VALUE - 8).
+    public static final int MAX_COUNT = 46_340;
+
+    private final int count;
+    private final float[] distances;
+
+    public DistanceMatrix(DistanceProvider provider, int[] xs, int[] ys, int count) {
+        this(count, (from, row) -> {
+            for (int to = 0; to < count; to++) {
+                row[to] = (float) provider.distance(xs[from], ys[from], xs[to], ys[to]);
+            }
+        });
+    }
+
+    // A matrix filled row by row from the source, in parallel.
+    public DistanceMatrix(int count, DistanceRowCache.RowSource source) {
+        if (count < 0 || count > MAX_COUNT) {
+            throw new IllegalArgumentException("A distance matrix holds at most " + MAX_COUNT + " stops, got " + count);
+        }
+        this.count = count;
+        this.distances = new float[(int) ((long) count * count)];
+        IntStream.range(0, count).parallel().forEach(from -> {
+            float[] row = new float[count];
+            source.fillRow(from, row);
+            System.arraycopy(row, 0, distances, (int) ((long) from * count), count);
+        });
+    }
+
+    @Override
+    public double distance(int from, int to) {
+        return distances[(int) ((long) from * count + to)];
+    }
+}
@@ -0,0 +1,43 @@
+package OptimizeRoute;
+
+/*
+How far it is between two points on the map. Route.totalDistance(), the greedy repair code and every optimizer pass
+go through the same provider, so swapping it (for example for cached or road-network distances) changes all of them together.
+
+The optimizers do not ask for distances between coordinates directly. They ask for a DistanceTable over the stops
+of one optimization run and then look distances up by stop index, which lets a provider precompute or cache them.
+The optimizers reverse parts of the route, so distances are expected to be the same in both directions.
+Unless a provider says it measures straight lines (isStraightLine()), the greedy pass and the candidate neighbor
+lists of the local search rank stops by the provider's own distances too, see TourImprover.buildNeighbors().
+*/
+public interface DistanceProvider {
+
+    double distance(int fromX, int fromY, int toX, int toY);
+
+    default double distance(Location from, Location to) {
+        return distance(from.getX(), from.getY(), to.getX(), to.getY());
+    }
+
+    // Distances from (x, y) to each of the first count stops of xs/ys, like the depot legs of a route.
+    default double[] distancesFrom(int x, int y, int[] xs, int[] ys, int count) {
+        double[] distances = new double[count];
+        for (int i = 0; i < count; i++) {
+            distances[i] = distance(x, y, xs[i], ys[i]);
+        }
+        return distances;
+    }
+
+    /*
+    True when the distances are straight-line ones, so the closest stops can be found on a SpatialGrid over the
+    coordinates. Otherwise (road distances, for example) they are ranked by the rows of the DistanceTable, which costs
+    a full row per stop.
+    */
+    default boolean isStraightLine() {
+        return false;
+    }
+
+    // Distances between the first count stops of xs/ys, looked up by index. The default computes every lookup.
+    default DistanceTable table(int[] xs, int[] ys, int count) {
+        return (from, to) -> distance(xs[from], ys[from], xs[to], ys[to]);
+    }
+}
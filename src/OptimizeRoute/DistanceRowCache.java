@@ -0,0 +1,113 @@
+package OptimizeRoute;
+
+import java.util.Arrays;
+
+/*
+Distance table for routes too big for a DistanceMatrix: whole rows of distances are computed on demand
+and the least recently used row is dropped once the cache is full.
+The LRU order is an intrusive doubly linked list over row slots (primitive arrays), so a lookup never allocates.
+Rows come from a RowSource: by default one provider.distance() call per entry, but a provider that can compute
+a whole row at once (like RoadDistance) can bring its own.
+Not thread-safe; forThread() hands every worker its own cache.
+*/
+public class DistanceRowCache implements DistanceTable {
+
+    // Fills one row of distances. Called from any thread that owns a cache, so it must be thread-safe.
+    public interface RowSource {
+        void fillRow(int row, float[] distances);
+    }
+
+    private final RowSource source;
+    private final int count;
+    private final int maxRows;
+
+    private final int[] slotOfRow;
+    private final int[] rowOfSlot;
+    private final float[][] rows;
+    private final int[] newer;
+    private final int[] older;
+    private int newest = -1;
+    private int oldest = -1;
+    private int usedSlots;
+
+    public DistanceRowCache(DistanceProvider provider, int[] xs, int[] ys, int count, int maxRows) {
+        this((row, distances) -> {
+            for (int to = 0; to < count; to++) {
+                distances[to] = (float) provider.distance(xs[row], ys[row], xs[to], ys[to]);
+            }
+        }, count, maxRows);
+    }
+
+    public DistanceRowCache(RowSource source, int count, int maxRows) {
+        this.source = source;
+        this.count = count;
+        this.maxRows = Math.max(1, Math.min(maxRows, count));
+        this.slotOfRow = new int[count];
+        Arrays.fill(slotOfRow, -1);
+        this.rowOfSlot = new int[this.maxRows];
+        this.rows = new float[this.maxRows][];
+        this.newer = new int[this.maxRows];
+        this.older = new int[this.maxRows];
+    }
+
+    @Override
+    public double distance(int from, int to) {
+        int slot = slotOfRow[from];
+        if (slot == -1) {
+            slot = load(from);
+        } else if (slot != newest) {
+            detach(slot);
+            attachNewest(slot);
+        }
+        return rows[slot][to];
+    }
+
+    @Override
+    public DistanceTable forThread() {
+        return new DistanceRowCache(source, count, maxRows);
+    }
+
+    private int load(int row) {
+        int slot;
+        if (usedSlots < maxRows) {
+            slot = usedSlots++;
+            rows[slot] = new float[count];
+        } else {
+            slot = oldest;
+            detach(slot);
+            slotOfRow[rowOfSlot[slot]] = -1;
+        }
+        source.fillRow(row, rows[slot]);
+        rowOfSlot[slot] = row;
+        slotOfRow[row] = slot;
+        attachNewest(slot);
+        return slot;
+    }
+
+    private void detach(int slot) {
+        int newerSlot = newer[slot];
+        int olderSlot = older[slot];
+        if (newerSlot == -1) {
+            newest = olderSlot;
+        } else {
+            older[newerSlot] = olderSlot;
+        }
+        if (olderSlot == -1) {
+            oldest = newerSlot;
+        } else {
+            newer[olderSlot] = newerSlot;
+        }
+    }
+
+    private void attachNewest(int slot) {
+        newer[slot] = -1;
+        older[slot] = newest;
+        if (newest != -1) {
+            newer[newest] = slot;
+        }
+        newest = slot;
+        if (oldest == -1) {
+            oldest = slot;
+        }
+    }
+}
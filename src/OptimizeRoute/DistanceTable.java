@@ -0,0 +1,15 @@
+package OptimizeRoute;
+
+// Distances between the stops of one optimization run, by stop index. See DistanceProvider.table().
+public interface DistanceTable {
+
+    double distance(int from, int to);
+
+    /*
+    A table for another worker thread. Tables that only read shared data return themselves;
+    tables with mutable caches return a fresh cache over the same stops.
+    */
+    default DistanceTable forThread() {
+        return this;
+    }
+}
@@ -0,0 +1,30 @@
+package OptimizeRoute;
+
+// Straight-line distance on the x/y map, the distance the project has always used.
+public class EuclideanDistance implements DistanceProvider {
+
+    public static final EuclideanDistance INSTANCE = new EuclideanDistance();
+
+    private EuclideanDistance() {
+    }
+
+    @Override
+    public double distance(int fromX, int fromY, int toX, int toY) {
+        return Math.sqrt(squaredDistance(fromX, fromY, toX, toY));
+    }
+
+    @Override
+    public boolean isStraightLine() {
+        return true;
+    }
+
+    /*
+    Squared distance in exact integer math. Comparing squared distances gives the same answer as comparing distances,
+    so code that only needs "which one is closer" can skip the square root.
+    */
+    public static long squaredDistance(int fromX, int fromY, int toX, int toY) {
+        long dx = (long) fromX - toX;
+        long dy = (long) fromY - toY;
+        return dx * dx + dy * dy;
+    }
+}
@@ -0,0 +1,54 @@
+package OptimizeRoute;
+
+import java.util.List;
+
+/*
+The result of FleetPlanner.plan(): one Route per vehicle that got stops, with its load and driven length
+(warehouse -> stops -> warehouse), plus the stops no vehicle could take and a message for every broken limit.
+*/
+public class FleetPlan {
+
+    private final List<Route> routes;
+    private final int[] loads;
+    private final double[] lengths;
+    private final List<Location> unassigned;
+    private final List<String> violations;
+
+    FleetPlan(List<Route> routes, int[] loads, double[] lengths, List<Location> unassigned, List<String> violations) {
+        this.routes = routes;
+        this.loads = loads;
+        this.lengths = lengths;
+        this.unassigned = unassigned;
+        this.violations = violations;
+    }
+
+    public List<Route> getRoutes() {
+        return routes;
+    }
+    public int getVehicleCount() {
+        return routes.size();
+    }
+    public int getLoad(int vehicle) {
+        return loads[vehicle];
+    }
+    public double getLength(int vehicle) {
+        return lengths[vehicle];
+    }
+    public List<Location> getUnassigned() {
+        return unassigned;
+    }
+    public List<String> getViolations() {
+        return violations;
+    }
+    public boolean isFeasible() {
+        return unassigned.isEmpty() && violations.isEmpty();
+    }
+
+    public double getTotalDistance() {
+        double total = 0;
+        for (double length : lengths) {
+            total += length;
+        }
+        return total;
+    }
+}
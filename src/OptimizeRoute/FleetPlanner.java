@@ -0,0 +1,355 @@
+package OptimizeRoute;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/*
+Plans the routes of a fleet: every vehicle carries at most `capacity` units of demand (Location.getDemand())
+and may drive at most `maxRouteLength` from the warehouse and back (0 means no limit).
+
+Cluster first, route second:
+1. Sweep: the stops are sorted by their angle around the warehouse, starting after the widest empty angle, and handed
+   to the vehicles in that order. A vehicle keeps taking stops while its load fits and its estimated length
+   (cheapest insertion into its stops so far) stays within the limit, then the next vehicle starts.
+   Once every vehicle is in use, a stop goes to any vehicle that still has room, or stays unassigned.
+2. Savings: inside every cluster a Clarke-Wright savings pass joins the stops into one tour.
+3. The tours are improved with Route.improveRoute(), one task per vehicle on a ForkJoinPool.
+A route that still breaks a limit at the end is reported in FleetPlan.getViolations().
+*/
+public class FleetPlanner {
+
+    public static final long DEFAULT_IMPROVEMENT_TIME_LIMIT = 500;
+    // Savings are only computed between each stop and this many of its nearest stops.
+    private static final int SAVINGS_NEIGHBORS = 25;
+
+    private final int vehicles;
+    private final int capacity;
+    private final double maxRouteLength;
+    private final ForkJoinPool pool;
+    private Location warehouseLocation = new Location("Warehouse",0,0,0);
+    private DistanceProvider distanceProvider = EuclideanDistance.INSTANCE;
+    private long improvementTimeLimit = DEFAULT_IMPROVEMENT_TIME_LIMIT;
+
+    public FleetPlanner(int vehicles, int capacity, double maxRouteLength) {
+        this(vehicles, capacity, maxRouteLength, ForkJoinPool.commonPool());
+    }
+
+    public FleetPlanner(int vehicles, int capacity, double maxRouteLength, ForkJoinPool pool) {
+        if (vehicles < 1 || capacity < 1 || maxRouteLength < 0) {
+            throw new IllegalArgumentException("Invalid fleet: " + vehicles + " vehicles, capacity " + capacity
+                    + ", max route length " + maxRouteLength);
+        }
+        this.vehicles = vehicles;
+        this.capacity = capacity;
+        this.maxRouteLength = maxRouteLength;
+        this.pool = pool;
+    }
+
+    public int getVehicles() {
+        return vehicles;
+    }
+    public int getCapacity() {
+        return capacity;
+    }
+    public double getMaxRouteLength() {
+        return maxRouteLength;
+    }
+
+    public DistanceProvider getDistanceProvider() {
+        return distanceProvider;
+    }
+    public void setDistanceProvider(DistanceProvider distanceProvider) {
+        this.distanceProvider = distanceProvider;
+    }
+
+    public Location getDepot() {
+        return warehouseLocation;
+    }
+    // The warehouse every vehicle leaves from and comes back to, (0, 0) by default. The planned routes get it as their depot.
+    public void setDepot(Location depot) {
+        if (depot == null) {
+            throw new IllegalArgumentException("The depot can not be null");
+        }
+        this.warehouseLocation = depot;
+    }
+
+    public long getImprovementTimeLimit() {
+        return improvementTimeLimit;
+    }
+    // Time limit of the improvement of each vehicle's tour, 0 runs until no move improves it.
+    public void setImprovementTimeLimit(long improvementTimeLimit) {
+        this.improvementTimeLimit = improvementTimeLimit;
+    }
+
+    public FleetPlan plan(Route route) {
+        List<Location> stops = new ArrayList<>(route.getSize());
+        Node current = route.getHead();
+        while (current != null) {
+            stops.add(current.getCurrentLocation());
+            current = current.getNext();
+        }
+        return plan(stops);
+    }
+
+    public FleetPlan plan(List<Location> stops) {
+        List<Location> unassigned = new ArrayList<>();
+        List<String> violations = new ArrayList<>();
+        List<Vehicle> fleet = sweep(stops, unassigned, violations);
+
+        Route[] routes = new Route[fleet.size()];
+        int[] loads = new int[fleet.size()];
+        double[] lengths = new double[fleet.size()];
+        try {
+            pool.submit(() -> IntStream.range(0, routes.length).parallel().forEach(vehicle -> {
+                routes[vehicle] = buildRoute(fleet.get(vehicle).stops);
+                loads[vehicle] = fleet.get(vehicle).load;
+                lengths[vehicle] = routes[vehicle].totalDistance();
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Fleet planning was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Fleet planning failed", e.getCause());
+        }
+
+        for (int vehicle = 0; vehicle < routes.length; vehicle++) {
+            if (maxRouteLength > 0 && lengths[vehicle] > maxRouteLength + 1e-7) {
+                violations.add("Vehicle " + (vehicle + 1) + " drives " + String.format("%.2f", lengths[vehicle])
+                        + ", more than the limit of " + String.format("%.2f", maxRouteLength) + ".");
+            }
+        }
+        return new FleetPlan(Arrays.asList(routes), loads, lengths, unassigned, violations);
+    }
+
+    private List<Vehicle> sweep(List<Location> stops, List<Location> unassigned, List<String> violations) {
+        List<Location> sweepStops = new ArrayList<>(stops.size());
+        for (Location stop : stops) {
+            if (stop.getDemand() > capacity) {
+                unassigned.add(stop);
+                violations.add("Package " + stop.getTrackingNumber() + " needs " + stop.getDemand()
+                        + " units but a vehicle only carries " + capacity + ".");
+            } else if (maxRouteLength > 0 && 2 * distanceProvider.distance(warehouseLocation, stop) > maxRouteLength) {
+                unassigned.add(stop);
+                violations.add("Package " + stop.getTrackingNumber() + " is too far from the warehouse for the route length limit.");
+            } else {
+                sweepStops.add(stop);
+            }
+        }
+
+        int count = sweepStops.size();
+        double[] angles = new double[count];
+        Integer[] byAngle = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            Location stop = sweepStops.get(i);
+            angles[i] = Math.atan2(stop.getY() - warehouseLocation.getY(), stop.getX() - warehouseLocation.getX());
+            byAngle[i] = i;
+        }
+        Arrays.sort(byAngle, Comparator.comparingDouble(i -> angles[i]));
+
+        // Start right after the widest empty angle, so no vehicle has to cover both sides of it.
+        int first = 0;
+        double widestGap = -1;
+        for (int k = 0; k < count; k++) {
+            double gap = k == 0
+                    ? angles[byAngle[0]] + 2 * Math.PI - angles[byAngle[count - 1]]
+                    : angles[byAngle[k]] - angles[byAngle[k - 1]];
+            if (gap > widestGap) {
+                widestGap = gap;
+                first = k;
+            }
+        }
+
+        List<Vehicle> fleet = new ArrayList<>();
+        Vehicle current = null;
+        for (int k = 0; k < count; k++) {
+            Location stop = sweepStops.get(byAngle[(first + k) % count]);
+            if (current != null && current.tryAdd(stop)) {
+                continue;
+            }
+            if (fleet.size() < vehicles) {
+                current = new Vehicle();
+                fleet.add(current);
+                current.tryAdd(stop);
+                continue;
+            }
+            boolean placed = false;
+            for (Vehicle vehicle : fleet) {
+                if (vehicle.tryAdd(stop)) {
+                    placed = true;
+                    break;
+                }
+            }
+            if (!placed) {
+                unassigned.add(stop);
+                violations.add("Package " + stop.getTrackingNumber() + " does not fit on any of the " + vehicles + " vehicles.");
+            }
+        }
+        return fleet;
+    }
+
+    private Route buildRoute(List<Location> stops) {
+        Route route = new Route();
+        route.setDistanceProvider(distanceProvider);
+        route.setDepot(warehouseLocation);
+        route.setTourMode(TourMode.CLOSED);
+        for (int index : savingsOrder(stops)) {
+            route.addLocation(stops.get(index));
+        }
+        // The route is a closed tour, so the improvement only keeps moves that make the round trip shorter.
+        route.improveRoute(improvementTimeLimit);
+        return route;
+    }
+
+    /*
+    Clarke-Wright savings: every stop starts as its own warehouse round trip, and joining the trips that end in i and j
+    saves d(warehouse, i) + d(warehouse, j) - d(i, j). Pairs are joined from the biggest saving down, as long as i and j
+    are still the two ends of different trips. Only pairs of nearby stops are tried, so a few trips can be left over;
+    they are chained starting near the warehouse, each time with the trip whose end is closest to the current end.
+    */
+    private int[] savingsOrder(List<Location> stops) {
+        int count = stops.size();
+        int[] order = new int[count];
+        if (count <= 2) {
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            return order;
+        }
+        int[] xs = new int[count];
+        int[] ys = new int[count];
+        double[] toWarehouse = new double[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = stops.get(i).getX();
+            ys[i] = stops.get(i).getY();
+            toWarehouse[i] = distanceProvider.distance(warehouseLocation, stops.get(i));
+        }
+        DistanceTable distances = distanceProvider.table(xs, ys, count);
+        int k = Math.min(count - 1, SAVINGS_NEIGHBORS);
+        int[] neighbors = TourImprover.buildNeighbors(xs, ys, count, k, distanceProvider, distances);
+
+        int pairCount = 0;
+        int[] pairFrom = new int[count * k];
+        int[] pairTo = new int[count * k];
+        double[] savings = new double[count * k];
+        for (int i = 0; i < count; i++) {
+            for (int slot = 0; slot < k; slot++) {
+                int j = neighbors[i * k + slot];
+                if (j != -1) {
+                    pairFrom[pairCount] = i;
+                    pairTo[pairCount] = j;
+                    savings[pairCount] = toWarehouse[i] + toWarehouse[j] - distances.distance(i, j);
+                    pairCount++;
+                }
+            }
+        }
+        Integer[] bySaving = new Integer[pairCount];
+        for (int p = 0; p < pairCount; p++) {
+            bySaving[p] = p;
+        }
+        Arrays.sort(bySaving, (a, b) -> Double.compare(savings[b], savings[a]));
+
+        // otherEnd[i] is the other end of i's trip (i itself for a single stop), or -1 once i is inside a trip.
+        int[] otherEnd = new int[count];
+        int[] linkA = new int[count];
+        int[] linkB = new int[count];
+        for (int i = 0; i < count; i++) {
+            otherEnd[i] = i;
+        }
+        Arrays.fill(linkA, -1);
+        Arrays.fill(linkB, -1);
+        for (int p : bySaving) {
+            int i = pairFrom[p];
+            int j = pairTo[p];
+            int endI = otherEnd[i];
+            int endJ = otherEnd[j];
+            if (endI == -1 || endJ == -1 || endI == j) {
+                continue;
+            }
+            link(linkA, linkB, i, j);
+            link(linkA, linkB, j, i);
+            if (endI != i) {
+                otherEnd[i] = -1;
+            }
+            if (endJ != j) {
+                otherEnd[j] = -1;
+            }
+            otherEnd[endI] = endJ;
+            otherEnd[endJ] = endI;
+        }
+
+        boolean[] used = new boolean[count];
+        int position = 0;
+        int currentX = warehouseLocation.getX();
+        int currentY = warehouseLocation.getY();
+        while (position < count) {
+            int start = -1;
+            double bestDistance = Double.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                if (otherEnd[i] != -1 && !used[i]) {
+                    double distance = distanceProvider.distance(currentX, currentY, xs[i], ys[i]);
+                    if (distance < bestDistance) {
+                        bestDistance = distance;
+                        start = i;
+                    }
+                }
+            }
+            int previous = -1;
+            int node = start;
+            while (node != -1) {
+                order[position++] = node;
+                used[node] = true;
+                int next = linkA[node] != previous ? linkA[node] : linkB[node];
+                previous = node;
+                node = next;
+            }
+            currentX = xs[previous];
+            currentY = ys[previous];
+        }
+        return order;
+    }
+
+    private static void link(int[] linkA, int[] linkB, int from, int to) {
+        if (linkA[from] == -1) {
+            linkA[from] = to;
+        } else {
+            linkB[from] = to;
+        }
+    }
+
+    // A vehicle during the sweep: its stops in cheapest insertion order, its load and the length of that round trip.
+    private class Vehicle {
+        private final List<Location> stops = new ArrayList<>();
+        private int load;
+        private double length;
+
+        boolean tryAdd(Location stop) {
+            if (load + stop.getDemand() > capacity) {
+                return false;
+            }
+            int bestPosition = 0;
+            double bestCost = Double.MAX_VALUE;
+            for (int position = 0; position <= stops.size(); position++) {
+                Location previous = position == 0 ? warehouseLocation : stops.get(position - 1);
+                Location next = position == stops.size() ? warehouseLocation : stops.get(position);
+                double cost = distanceProvider.distance(previous, stop) + distanceProvider.distance(stop, next)
+                        - distanceProvider.distance(previous, next);
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestPosition = position;
+                }
+            }
+            if (maxRouteLength > 0 && length + bestCost > maxRouteLength) {
+                return false;
+            }
+            stops.add(bestPosition, stop);
+            load += stop.getDemand();
+            length += bestCost;
+            return true;
+        }
+    }
+}
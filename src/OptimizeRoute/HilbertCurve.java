@@ -0,0 +1,175 @@
+package OptimizeRoute;
+
+import java.util.Arrays;
+
+/*
+An instant route: visit the stops in the order of a Hilbert curve over the map.
+The curve fills the square around all stops cell by cell without ever jumping, so stops that are close on the curve
+are close on the map. The route is about 10% longer than the greedy one on evenly spread stops, but it takes O(n) work:
+
+1. Every stop gets its position on the curve (its Hilbert index) on a square grid over the bounding box, with about
+   16 cells per stop (at most 65536 x 65536). A finer grid would not change the order, only make the keys longer.
+2. The indexes are sorted by an LSD radix sort on longs holding the index and the stop number, in as few passes of
+   up to 12 bits as the key needs (two for a million stops). No objects and no comparisons.
+
+A million stops are put in order in a few tens of milliseconds, so it is good for a first draft while the real
+optimizer runs, or as a starting route for Route.improveRoute().
+*/
+public class HilbertCurve {
+
+    // At most 2^16 cells per side, so one index fits in 32 bits.
+    private static final int MAX_BITS = 16;
+    private static final int MAX_RADIX_BITS = 12;
+
+    private HilbertCurve() {
+    }
+
+    /*
+    Returns the visiting order (indexes into xs/ys) along the curve. The curve runs from one corner of the box to the
+    next one, and it is walked from the end whose first stop is closer to (startX, startY).
+    */
+    public static int[] order(int[] xs, int[] ys, int count, int startX, int startY) {
+        int[] order = order(xs, ys, count);
+        if (count > 1) {
+            int first = order[0];
+            int last = order[count - 1];
+            if (EuclideanDistance.INSTANCE.distance(startX, startY, xs[last], ys[last])
+                    < EuclideanDistance.INSTANCE.distance(startX, startY, xs[first], ys[first])) {
+                for (int i = 0, j = count - 1; i < j; i++, j--) {
+                    int swap = order[i];
+                    order[i] = order[j];
+                    order[j] = swap;
+                }
+            }
+        }
+        return order;
+    }
+
+    // Returns the visiting order (indexes into xs/ys) along the curve, from its first corner.
+    public static int[] order(int[] xs, int[] ys, int count) {
+        int minX = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, xs[i]);
+            maxX = Math.max(maxX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        // The same scale on both sides, so the curve does not stretch a long and narrow map.
+        // About 16 cells per stop: 2^bits cells per side, with bits = log4(count) + 2.
+        int bits = Math.min(MAX_BITS, (32 - Integer.numberOfLeadingZeros(count)) / 2 + 2);
+        double scale = ((1 << bits) - 1) / (double) Math.max(1, Math.max((long) maxX - minX, (long) maxY - minY));
+
+        // Index in the upper 32 bits, stop number in the lower ones.
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            int gridX = (int) ((xs[i] - (long) minX) * scale);
+            int gridY = (int) ((ys[i] - (long) minY) * scale);
+            keys[i] = index(gridX, gridY) << 32 | i;
+        }
+        // The cells of the smaller grid are the first 4^bits cells of the curve, so the index has 2 * bits bits.
+        radixSort(keys, 32, 32 + 2 * bits);
+
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+
+    /*
+    Position of the grid cell (x, y) on the curve, 0 .. 2^32 - 1, for x and y in 0 .. 2^16 - 1.
+    The usual way walks down the 16 levels of the curve, turning the quadrant at every level, which costs a badly
+    predicted branch per level. This does the same turns for all 16 levels at once: the turn at every level is one of
+    four states (two bits, in a and b per bit position), and the states are combined with a prefix scan over the bits
+    in four rounds of shifts, with no branches at all (the method of "Hilbert curves in O(log(n)) time").
+    */
+    static long index(int x, int y) {
+        int a = x ^ y;
+        int b = 0xFFFF ^ a;
+        int c = 0xFFFF ^ (x | y);
+        int d = x & (y ^ 0xFFFF);
+        int stateA = a | (b >>> 1);
+        int stateB = (a >>> 1) ^ a;
+        int stateC = ((c >>> 1) ^ (b & (d >>> 1))) ^ c;
+        int stateD = ((a & (c >>> 1)) ^ (d >>> 1)) ^ d;
+
+        for (int shift = 2; shift <= 4; shift <<= 1) {
+            a = stateA;
+            b = stateB;
+            c = stateC;
+            d = stateD;
+            stateA = (a & (a >>> shift)) ^ (b & (b >>> shift));
+            stateB = (a & (b >>> shift)) ^ (b & ((a ^ b) >>> shift));
+            stateC ^= (a & (c >>> shift)) ^ (b & (d >>> shift));
+            stateD ^= (b & (c >>> shift)) ^ ((a ^ b) & (d >>> shift));
+        }
+        a = stateA;
+        b = stateB;
+        c = stateC;
+        d = stateD;
+        stateC ^= (a & (c >>> 8)) ^ (b & (d >>> 8));
+        stateD ^= (b & (c >>> 8)) ^ ((a ^ b) & (d >>> 8));
+
+        a = stateC ^ (stateC >>> 1);
+        b = stateD ^ (stateD >>> 1);
+        int low = x ^ y;
+        int high = b | (0xFFFF ^ (low | a));
+        return ((long) spread(high) << 1 | spread(low)) & 0xFFFFFFFFL;
+    }
+
+    // Moves the 16 low bits apart to the even bit positions: 0b1011 becomes 0b1000101.
+    private static int spread(int bits) {
+        bits = (bits | (bits << 8)) & 0x00FF00FF;
+        bits = (bits | (bits << 4)) & 0x0F0F0F0F;
+        bits = (bits | (bits << 2)) & 0x33333333;
+        return (bits | (bits << 1)) & 0x55555555;
+    }
+
+    /*
+    Sorts the keys by their bits fromBit .. toBit - 1 (unsigned), keeping the order of equal keys.
+    The counts for every pass are taken in one read over the keys, then each pass only moves them.
+    */
+    static void radixSort(long[] keys, int fromBit, int toBit) {
+        int count = keys.length;
+        int passes = (toBit - fromBit + MAX_RADIX_BITS - 1) / MAX_RADIX_BITS;
+        int digitBits = (toBit - fromBit + passes - 1) / passes;
+        int buckets = 1 << digitBits;
+        int mask = buckets - 1;
+        int[][] counts = new int[passes][buckets];
+        for (int i = 0; i < count; i++) {
+            long key = keys[i] >>> fromBit;
+            for (int pass = 0; pass < passes; pass++) {
+                counts[pass][(int) (key >>> pass * digitBits) & mask]++;
+            }
+        }
+        long[] from = keys;
+        long[] to = new long[count];
+        for (int pass = 0; pass < passes; pass++) {
+            int shift = fromBit + pass * digitBits;
+            int[] starts = counts[pass];
+            // All keys have the same digit here, nothing to move.
+            if (count == 0 || starts[(int) (from[0] >>> shift) & mask] == count) {
+                continue;
+            }
+            int sum = 0;
+            for (int d = 0; d < buckets; d++) {
+                int digitCount = starts[d];
+                starts[d] = sum;
+                sum += digitCount;
+            }
+            for (int i = 0; i < count; i++) {
+                long key = from[i];
+                to[starts[(int) (key >>> shift) & mask]++] = key;
+            }
+            long[] swap = from;
+            from = to;
+            to = swap;
+        }
+        if (from != keys) {
+            System.arraycopy(from, 0, keys, 0, count);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package OptimizeRoute;
+
+/*
+Which local search improves the greedy route, see Route.setImprovementEngine().
+TWO_OPT is the default and the fastest. LIN_KERNIGHAN finds routes a few percent shorter, but needs more time
+to do it: about a second for the first local optimum on 10,000 stops, and it keeps kicking until the time limit.
+*/
+public enum ImprovementEngine {
+
+    // 2-opt and Or-opt moves on the nearest stops, see TourImprover.
+    TWO_OPT,
+    // Lin-Kernighan moves on quadrant neighbors, then kicks, see LinKernighanImprover.
+    LIN_KERNIGHAN;
+
+    /*
+    Candidate lists for the search, closest first: by straight-line distance on a grid when the provider measures
+    straight lines, otherwise by the rows of the table the search runs on.
+    */
+    int[] buildNeighbors(int[] xs, int[] ys, int count, DistanceProvider distanceProvider, DistanceTable distances) {
+        if (this == LIN_KERNIGHAN) {
+            return LinKernighanImprover.buildNeighbors(xs, ys, count, LinKernighanImprover.DEFAULT_NEIGHBORS,
+                    distanceProvider, distances);
+        }
+        return TourImprover.buildNeighbors(xs, ys, count, TourImprover.DEFAULT_NEIGHBORS, distanceProvider, distances);
+    }
+
+    TourSearch create(int count, int[] neighbors, DistanceTable distances, RouteEnds ends) {
+        if (this == LIN_KERNIGHAN) {
+            return new LinKernighanImprover(count, neighbors, LinKernighanImprover.DEFAULT_NEIGHBORS, distances, ends);
+        }
+        return new TourImprover(count, neighbors, TourImprover.DEFAULT_NEIGHBORS, distances, ends);
+    }
+}
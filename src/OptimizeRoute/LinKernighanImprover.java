@@ -0,0 +1,626 @@
+package OptimizeRoute;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/*
+Lin-Kernighan local search, the stronger alternative to TourImprover (see Route.setImprovementEngine()).
+
+Where TourImprover tries one 2-opt or Or-opt move at a time, a Lin-Kernighan move is a chain of up to MAX_DEPTH
+2-opt flips: starting from an edge (t1, t2) it breaks, every step adds an edge from the loose end to one of its
+candidates and breaks the edge next to that candidate, as long as the running gain stays positive. After every step
+the chain could be closed back to t1, and the best closing point along the chain is kept; the flips after it are
+undone. The first two steps try the BREADTH best candidates each (by added minus broken length) and back up if
+nothing comes of them, deeper steps only follow the best one. An edge added by the chain is never broken again.
+This finds the 3-opt and deeper moves that neither 2-opt nor Or-opt can reach in one step.
+
+The candidates of every stop are its nearest stops in each of the four quadrants around it, filled up with the
+nearest stops overall (quadrant neighbors). On clustered maps they still reach over to the next cluster, which
+plain nearest neighbor lists do not.
+
+The route is stored the same way as in TourImprover: an array (tour/position) holding a cycle with two sentinel
+nodes around the stops whose edges cost the legs from the depot and to the end. A flip reverses the shorter side of the cycle,
+so it moves at most half of the stops.
+
+After the first local optimum, improve() keeps going with kicks (the same double bridge as TourImprover) followed
+by Lin-Kernighan around the kicked edges, until the time limit or maxKicks. A kick that does not make the route
+shorter is undone by replaying its flips backwards from a journal, so a rejected kick only costs the flips it made.
+*/
+public class LinKernighanImprover implements TourSearch {
+
+    public static final int DEFAULT_NEIGHBORS = 10;
+    private static final double EPSILON = 1e-7;
+    private static final int MAX_DEPTH = 50;
+    private static final int[] BREADTH = {5, 3};
+    private static final int KICK_SEGMENT = 50;
+    // Nearest stops looked at when picking the quadrant neighbors of a stop.
+    private static final int NEIGHBOR_POOL = 40;
+    private static final long SEED = 20240101L;
+
+    private final DistanceTable distances;
+    private final RouteEnds ends;
+    private final int stopCount;
+    private final int nodeCount;
+    private final int start;
+    private final int end;
+    private final int[] neighbors;
+    private final int neighborCount;
+
+    private final int[] tour;
+    private final int[] position;
+    private final int[] queue;
+    private final boolean[] queued;
+    private int queueHead;
+    private int queueSize;
+    private double tourLength;
+    private int maxKicks = -1;
+
+    // Every flip since the journal was last cleared, four nodes each (see flip()), to undo them in reverse order.
+    private int[] journal = new int[4 * 64];
+    private int journalSize;
+    // Set while kick() runs: the journal keeps every flip, and the moves count towards the kick instead.
+    private boolean kicking;
+
+    // State of the current chain: the edges it added, and the best closing found so far.
+    private final int[] addedFrom = new int[MAX_DEPTH + 1];
+    private final int[] addedTo = new int[MAX_DEPTH + 1];
+    private int addedCount;
+    private int chainStart;
+    private double bestGain;
+    private int bestJournalSize;
+    // Candidate buffers for the levels that back up.
+    private final int[][] candidates = new int[BREADTH.length][];
+    private final double[][] candidateValues = new double[BREADTH.length][];
+
+    // What the last improve() call did, for OptimizationMetrics.
+    private int moves;
+    private double moveGain;
+    private int kicksTried;
+    private int kicksKept;
+    private double kickGain;
+
+    // An open route leaving from (0, 0), with straight-line distances.
+    public LinKernighanImprover(int[] xs, int[] ys, int count) {
+        this(count, buildNeighbors(xs, ys, count, DEFAULT_NEIGHBORS), DEFAULT_NEIGHBORS,
+                EuclideanDistance.INSTANCE.table(xs, ys, count), RouteEnds.open(xs, ys, count, EuclideanDistance.INSTANCE, 0, 0));
+    }
+
+    public LinKernighanImprover(int count, int[] neighbors, int neighborCount, DistanceTable distances, RouteEnds ends) {
+        this.distances = distances;
+        this.ends = ends;
+        this.stopCount = count;
+        this.nodeCount = count + 2;
+        this.start = count;
+        this.end = count + 1;
+        this.neighbors = neighbors;
+        this.neighborCount = neighborCount;
+        this.tour = new int[nodeCount];
+        this.position = new int[nodeCount];
+        this.queue = new int[nodeCount];
+        this.queued = new boolean[nodeCount];
+        for (int level = 0; level < BREADTH.length; level++) {
+            candidates[level] = new int[BREADTH[level]];
+            candidateValues[level] = new double[BREADTH[level]];
+        }
+    }
+
+    /*
+    Quadrant neighbors: for every stop, the k / 4 nearest stops in each quadrant around it, then the nearest other
+    stops until there are k, closest first, in the flat layout of TourImprover.buildNeighbors().
+    The quadrants are only searched among the NEIGHBOR_POOL nearest stops, which keeps this O(n) on a grid.
+    */
+    public static int[] buildNeighbors(int[] xs, int[] ys, int count, int k) {
+        int[] neighbors = new int[count * k];
+        SpatialGrid grid = SpatialGrid.of(xs, ys, count);
+        int poolSize = Math.max(k, NEIGHBOR_POOL);
+        int[] pool = new int[poolSize];
+        boolean[] taken = new boolean[poolSize];
+        int[] perQuadrant = new int[4];
+        for (int i = 0; i < count; i++) {
+            int found = grid.nearest(xs[i], ys[i], poolSize, i, pool);
+            pickQuadrants(xs, ys, i, pool, found, k, taken, perQuadrant, neighbors);
+        }
+        return neighbors;
+    }
+
+    /*
+    The same quadrant neighbors out of the NEIGHBOR_POOL stops closest by a DistanceTable instead of straight lines,
+    for providers like RoadDistance. Like TourImprover.buildNeighbors(DistanceTable, int, int) it scans every row.
+    */
+    public static int[] buildNeighbors(int[] xs, int[] ys, DistanceTable distances, int count, int k) {
+        int[] neighbors = new int[count * k];
+        int poolSize = Math.max(k, NEIGHBOR_POOL);
+        ThreadLocal<DistanceTable> tables = ThreadLocal.withInitial(distances::forThread);
+        ThreadLocal<int[]> pools = ThreadLocal.withInitial(() -> new int[poolSize]);
+        ThreadLocal<double[]> poolDistances = ThreadLocal.withInitial(() -> new double[poolSize]);
+        ThreadLocal<boolean[]> takens = ThreadLocal.withInitial(() -> new boolean[poolSize]);
+        ThreadLocal<int[]> quadrantCounts = ThreadLocal.withInitial(() -> new int[4]);
+        IntStream.range(0, count).parallel().forEach(i -> {
+            int[] pool = pools.get();
+            int found = TourImprover.nearestInRow(tables.get(), count, i, poolSize, poolDistances.get(), pool, 0);
+            pickQuadrants(xs, ys, i, pool, found, k, takens.get(), quadrantCounts.get(), neighbors);
+        });
+        return neighbors;
+    }
+
+    // Neighbor lists for a search measured by the given provider and table: on a grid or from the table, see above.
+    public static int[] buildNeighbors(int[] xs, int[] ys, int count, int k, DistanceProvider distanceProvider,
+                                       DistanceTable distances) {
+        return distanceProvider.isStraightLine()
+                ? buildNeighbors(xs, ys, count, k) : buildNeighbors(xs, ys, distances, count, k);
+    }
+
+    // Fills the row of stop i with its quadrant neighbors out of pool[0 .. found - 1], which is sorted closest first.
+    private static void pickQuadrants(int[] xs, int[] ys, int i, int[] pool, int found, int k, boolean[] taken,
+                                      int[] perQuadrant, int[] neighbors) {
+        Arrays.fill(taken, 0, found, false);
+        Arrays.fill(perQuadrant, 0);
+        int size = 0;
+        for (int j = 0; j < found && size < k; j++) {
+            int quadrant = quadrant(xs[pool[j]] - xs[i], ys[pool[j]] - ys[i]);
+            if (perQuadrant[quadrant] < k / 4) {
+                perQuadrant[quadrant]++;
+                taken[j] = true;
+                size++;
+            }
+        }
+        for (int j = 0; j < found && size < k; j++) {
+            if (!taken[j]) {
+                taken[j] = true;
+                size++;
+            }
+        }
+        // Closest first again, as the search stops at the first candidate that is too far away.
+        int slot = i * k;
+        for (int j = 0; j < found; j++) {
+            if (taken[j]) {
+                neighbors[slot++] = pool[j];
+            }
+        }
+        Arrays.fill(neighbors, slot, i * k + k, -1);
+    }
+
+    private static int quadrant(int dx, int dy) {
+        return (dx >= 0 ? 0 : 1) + (dy >= 0 ? 0 : 2);
+    }
+
+    /*
+    Improves the given visiting order (stop ids, first stop first) in place: Lin-Kernighan to a local optimum,
+    then kicks until the time limit or maxKicks runs out. timeLimitMillis <= 0 means no time limit.
+    Returns true if it got to the end of the kicks (or to the local optimum, without kicks) in time.
+    */
+    @Override
+    public boolean improve(int[] order, long timeLimitMillis) {
+        if (stopCount < 3) {
+            return true;
+        }
+        long deadline = timeLimitMillis > 0 ? System.nanoTime() + timeLimitMillis * 1_000_000L : Long.MAX_VALUE;
+        start(order);
+        boolean finished = runQueue(deadline);
+        int kicks = getMaxKicks();
+        SplittableRandom random = new SplittableRandom(SEED);
+        for (int k = 0; finished && k < kicks; k++) {
+            if (System.nanoTime() > deadline) {
+                finished = false;
+            } else {
+                kick(random);
+            }
+        }
+        readOrder(order);
+        return finished;
+    }
+
+    /*
+    The same search in slices, like TourImprover: start() loads an order, every resume() continues the local search
+    where the last one stopped, kick() tries one kick on a local optimum and copyOrder() reads the route out.
+    */
+    @Override
+    public void start(int[] order) {
+        load(order);
+    }
+
+    // Returns true once no improving move is left. A time limit <= 0 runs until then.
+    @Override
+    public boolean resume(long timeLimitMillis) {
+        if (stopCount < 3) {
+            return true;
+        }
+        long deadline = timeLimitMillis > 0 ? System.nanoTime() + timeLimitMillis * 1_000_000L : Long.MAX_VALUE;
+        return runQueue(deadline);
+    }
+
+    @Override
+    public void copyOrder(int[] order) {
+        readOrder(order);
+    }
+
+    // Length of the current route, including the legs from the depot and to the end.
+    @Override
+    public double getTourLength() {
+        return tourLength;
+    }
+
+    // One double bridge kick and Lin-Kernighan around it; kept only if the route got shorter. Returns true if it was.
+    @Override
+    public boolean kick(SplittableRandom random) {
+        if (stopCount < 8) {
+            return false;
+        }
+        double lengthBefore = tourLength;
+        journalSize = 0;
+        if (!doubleBridge(random)) {
+            return false;
+        }
+        kicksTried++;
+        kicking = true;
+        runQueue(Long.MAX_VALUE);
+        kicking = false;
+        if (tourLength < lengthBefore - EPSILON) {
+            kicksKept++;
+            kickGain += lengthBefore - tourLength;
+            journalSize = 0;
+            return true;
+        }
+        undoTo(0);
+        tourLength = lengthBefore;
+        return false;
+    }
+
+    @Override
+    public void reportPasses(OptimizationMetrics metrics) {
+        metrics.improvementPass("lin-kernighan", moves, moveGain);
+        metrics.improvementPass("kicks", kicksKept, kickGain);
+    }
+
+    // Kicks improve() tries after the local optimum; the default is one per stop.
+    public int getMaxKicks() {
+        return maxKicks >= 0 ? maxKicks : stopCount;
+    }
+    public void setMaxKicks(int maxKicks) {
+        this.maxKicks = maxKicks;
+    }
+
+    // Lin-Kernighan moves outside of kicks and their total gain; what the kicks gained is in getKickGain().
+    public int getMoves() {
+        return moves;
+    }
+    public double getMoveGain() {
+        return moveGain;
+    }
+    public int getKicksTried() {
+        return kicksTried;
+    }
+    public int getKicksKept() {
+        return kicksKept;
+    }
+    public double getKickGain() {
+        return kickGain;
+    }
+
+    private void load(int[] order) {
+        tour[0] = start;
+        for (int i = 0; i < stopCount; i++) {
+            tour[i + 1] = order[i];
+        }
+        tour[nodeCount - 1] = end;
+        for (int i = 0; i < nodeCount; i++) {
+            position[tour[i]] = i;
+        }
+        journalSize = 0;
+        moves = 0;
+        moveGain = 0;
+        kicksTried = 0;
+        kicksKept = 0;
+        kickGain = 0;
+        tourLength = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            tourLength += cost(tour[i], next(tour[i]));
+        }
+
+        queueHead = 0;
+        queueSize = 0;
+        for (int i = 0; i < stopCount; i++) {
+            push(order[i]);
+        }
+    }
+
+    private boolean runQueue(long deadline) {
+        int steps = 0;
+        while (queueSize > 0) {
+            if ((++steps & 15) == 0 && System.nanoTime() > deadline) {
+                return false;
+            }
+            int node = poll();
+            if (improveFrom(node)) {
+                push(node);
+            }
+            // Outside of a kick nothing will be undone, so the journal does not need to keep the flips.
+            if (!kicking) {
+                journalSize = 0;
+            }
+        }
+        return true;
+    }
+
+    // Tries a Lin-Kernighan move that breaks one of the two edges of t1.
+    private boolean improveFrom(int t1) {
+        for (int direction = 0; direction < 2; direction++) {
+            int t2 = step(t1, direction == 0);
+            if (isFixed(t1, t2)) {
+                continue;
+            }
+            chainStart = journalSize;
+            addedCount = 0;
+            bestGain = EPSILON;
+            bestJournalSize = chainStart;
+            deepen(t1, t2, cost(t1, t2), 0);
+            undoTo(bestJournalSize);
+            if (bestJournalSize > chainStart) {
+                tourLength -= bestGain;
+                if (!kicking) {
+                    moves++;
+                    moveGain += bestGain;
+                }
+                for (int i = chainStart; i < bestJournalSize; i++) {
+                    push(journal[i]);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+    One step of the chain. The route currently runs t1, last, ... with the edge (t1, last) being the one to break,
+    and gain is the length broken minus the length added so far, including (t1, last).
+    Returns true once the chain has found an improvement; otherwise all its flips have been undone.
+    */
+    private boolean deepen(int t1, int last, double gain, int level) {
+        if (level >= MAX_DEPTH || last >= stopCount) {
+            return false;
+        }
+        boolean forward = next(t1) == last;
+        int breadth = level < BREADTH.length ? BREADTH[level] : 1;
+        int[] levelCandidates = level < BREADTH.length ? candidates[level] : null;
+        double[] levelValues = level < BREADTH.length ? candidateValues[level] : null;
+        int found = 0;
+        int bestCandidate = -1;
+        double bestValue = Double.NEGATIVE_INFINITY;
+
+        for (int k = 0; k < neighborCount; k++) {
+            int c = neighbors[last * neighborCount + k];
+            if (c < 0) {
+                break;
+            }
+            double addedLength = cost(last, c);
+            if (gain - addedLength <= EPSILON) {
+                break;
+            }
+            if (c == t1 || c == step(last, forward)) {
+                continue;
+            }
+            int d = step(c, !forward);
+            if (isFixed(c, d) || isAdded(c, d)) {
+                continue;
+            }
+            double value = cost(c, d) - addedLength;
+            if (levelCandidates == null) {
+                if (value > bestValue) {
+                    bestValue = value;
+                    bestCandidate = c;
+                }
+                continue;
+            }
+            // Keep the breadth best, highest value first.
+            int slot = Math.min(found, breadth - 1);
+            if (found == breadth && value <= levelValues[slot]) {
+                continue;
+            }
+            while (slot > 0 && levelValues[slot - 1] < value) {
+                levelValues[slot] = levelValues[slot - 1];
+                levelCandidates[slot] = levelCandidates[slot - 1];
+                slot--;
+            }
+            levelValues[slot] = value;
+            levelCandidates[slot] = c;
+            found = Math.min(found + 1, breadth);
+        }
+        if (levelCandidates == null) {
+            if (bestCandidate == -1) {
+                return false;
+            }
+            return tryStep(t1, last, bestCandidate, gain, level, forward);
+        }
+        for (int i = 0; i < found; i++) {
+            if (tryStep(t1, last, levelCandidates[i], gain, level, forward)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Adds (last, c), breaks (c, d) and goes one level deeper; undoes the step if nothing better came of it.
+    private boolean tryStep(int t1, int last, int c, double gain, int level, boolean forward) {
+        int d = step(c, !forward);
+        double newGain = gain - cost(last, c) + cost(c, d);
+        flip(t1, last, d, c);
+        addedFrom[addedCount] = last;
+        addedTo[addedCount] = c;
+        addedCount++;
+        double closedGain = newGain - cost(d, t1);
+        if (closedGain > bestGain) {
+            bestGain = closedGain;
+            bestJournalSize = journalSize;
+        }
+        // Once the chain has an improvement, the flips after the best closing are undone by improveFrom().
+        if (deepen(t1, d, newGain, level + 1) || bestJournalSize > chainStart) {
+            return true;
+        }
+        addedCount--;
+        undoTo(journalSize - 4);
+        return false;
+    }
+
+    private boolean isAdded(int a, int b) {
+        for (int i = 0; i < addedCount; i++) {
+            if ((addedFrom[i] == a && addedTo[i] == b) || (addedFrom[i] == b && addedTo[i] == a)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Turns A B C D into A C B D with three flips, where B and C are short pieces that follow each other.
+    private boolean doubleBridge(SplittableRandom random) {
+        int firstLength = 1 + random.nextInt(KICK_SEGMENT);
+        int secondLength = 1 + random.nextInt(KICK_SEGMENT);
+        if (firstLength + secondLength + 2 > nodeCount) {
+            return false;
+        }
+        int p1 = random.nextInt(nodeCount - firstLength - secondLength - 1);
+        int p2 = p1 + firstLength;
+        int p3 = p2 + secondLength;
+        int a = tour[p1];
+        int b1 = tour[p1 + 1];
+        int bEnd = tour[p2];
+        int c1 = tour[p2 + 1];
+        int cEnd = tour[p3];
+        int d = tour[p3 + 1];
+        if (isFixed(a, b1) || isFixed(bEnd, c1) || isFixed(cEnd, d)) {
+            return false;
+        }
+        tourLength += cost(a, c1) + cost(cEnd, b1) + cost(bEnd, d) - cost(a, b1) - cost(bEnd, c1) - cost(cEnd, d);
+        // A B C D -> A B' C D -> A B' C' D -> A C B D
+        flip(a, b1, bEnd, c1);
+        flip(b1, c1, cEnd, d);
+        flip(a, bEnd, c1, d);
+        push(a);
+        push(b1);
+        push(bEnd);
+        push(c1);
+        push(cEnd);
+        push(d);
+        return true;
+    }
+
+    /*
+    Replaces edges (a,b) and (c,d) with (a,c) and (b,d), where b follows a and d follows c in the same direction,
+    and writes the four nodes to the journal.
+    */
+    private void flip(int a, int b, int c, int d) {
+        if (next(a) == b) {
+            reverse(b, c);
+        } else {
+            reverse(c, b);
+        }
+        if (journalSize == journal.length) {
+            journal = Arrays.copyOf(journal, journal.length * 2);
+        }
+        journal[journalSize++] = a;
+        journal[journalSize++] = b;
+        journal[journalSize++] = c;
+        journal[journalSize++] = d;
+    }
+
+    // Undoes the flips in the journal after the given size, newest first.
+    private void undoTo(int size) {
+        while (journalSize > size) {
+            int d = journal[--journalSize];
+            int c = journal[--journalSize];
+            int b = journal[--journalSize];
+            int a = journal[--journalSize];
+            // After the flip c follows a and d follows b, so flipping (a,c),(b,d) brings back (a,b),(c,d).
+            if (next(a) == c) {
+                reverse(c, b);
+            } else {
+                reverse(b, c);
+            }
+        }
+    }
+
+    // Reverses the path from node first to node last (walking forward), or the rest of the cycle if that is shorter.
+    private void reverse(int first, int last) {
+        int i = position[first];
+        int j = position[last];
+        int length = (j - i + nodeCount) % nodeCount + 1;
+        if (length * 2 > nodeCount) {
+            int newFirst = next(last);
+            int newLast = previous(first);
+            i = position[newFirst];
+            j = position[newLast];
+            length = nodeCount - length;
+        }
+        for (int swaps = length / 2; swaps > 0; swaps--) {
+            int nodeI = tour[i];
+            int nodeJ = tour[j];
+            tour[i] = nodeJ;
+            position[nodeJ] = i;
+            tour[j] = nodeI;
+            position[nodeI] = j;
+            i = i + 1 == nodeCount ? 0 : i + 1;
+            j = j == 0 ? nodeCount - 1 : j - 1;
+        }
+    }
+
+    private void readOrder(int[] order) {
+        boolean forward = next(start) != end;
+        int node = step(start, forward);
+        for (int i = 0; i < stopCount; i++) {
+            order[i] = node;
+            node = step(node, forward);
+        }
+    }
+
+    private boolean isFixed(int a, int b) {
+        return (a == start && b == end) || (a == end && b == start);
+    }
+
+    private double cost(int a, int b) {
+        if (a < stopCount && b < stopCount) {
+            return distances.distance(a, b);
+        }
+        return endCost(a, b);
+    }
+
+    // An edge with a sentinel in it, costed like in TourImprover.
+    private double endCost(int a, int b) {
+        int stop = a < stopCount ? a : b;
+        int sentinel = a < stopCount ? b : a;
+        if (stop >= stopCount) {
+            return 0;
+        }
+        return sentinel == start ? ends.startCost(stop) : ends.endCost(stop);
+    }
+
+    private int step(int node, boolean forward) {
+        return forward ? next(node) : previous(node);
+    }
+
+    private int next(int node) {
+        int i = position[node] + 1;
+        return tour[i == nodeCount ? 0 : i];
+    }
+
+    private int previous(int node) {
+        int i = position[node];
+        return tour[i == 0 ? nodeCount - 1 : i - 1];
+    }
+
+    private void push(int node) {
+        if (node >= stopCount || queued[node]) {
+            return;
+        }
+        queued[node] = true;
+        queue[(queueHead + queueSize) % nodeCount] = node;
+        queueSize++;
+    }
+
+    private int poll() {
+        int node = queue[queueHead];
+        queueHead = (queueHead + 1) % nodeCount;
+        queueSize--;
+        queued[node] = false;
+        return node;
+    }
+}
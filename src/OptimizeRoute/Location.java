@@ -6,6 +6,13 @@ public class Location {
     final int x;
     final int y;
     private int serialNumber;
+    // How much of a vehicle's capacity this package uses, see FleetPlanner. One unit unless set otherwise.
+    private int demand = 1;
+    // Promised delivery window and time spent at the stop, in minutes after the start of the shift (see TravelModel).
+    // No window by default: from 0 to infinity, with no service time.
+    private double earliestTime = 0;
+    private double latestTime = Double.POSITIVE_INFINITY;
+    private double serviceTime = 0;
 
     public Location(String trackingNumber, int x, int y, int serialNumber) {
         this.trackingNumber = trackingNumber;
@@ -14,10 +21,14 @@ public class Location {
         this.serialNumber = serialNumber;
     }
 
+    // Straight-line distance. Route itself goes through its DistanceProvider, which may measure differently.
     public double distanceTo(Location comparedLocation){
-        int xDistance = x - comparedLocation.x;
-        int yDistance = y - comparedLocation.y;
-        return Math.sqrt(xDistance * xDistance + yDistance * yDistance);
+        return EuclideanDistance.INSTANCE.distance(x, y, comparedLocation.x, comparedLocation.y);
+    }
+
+    // Squared straight-line distance in exact integer math, enough for "which one is closer" comparisons.
+    public long squaredDistanceTo(Location comparedLocation){
+        return EuclideanDistance.squaredDistance(x, y, comparedLocation.x, comparedLocation.y);
     }
 
     @Override
@@ -32,6 +43,51 @@ public class Location {
         this.serialNumber = serialNumber;
     }
 
+    public int getDemand() {
+        return demand;
+    }
+    public void setDemand(int demand) {
+        this.demand = demand;
+    }
+
+    public double getEarliestTime() {
+        return earliestTime;
+    }
+    public double getLatestTime() {
+        return latestTime;
+    }
+    // The van may arrive early and wait until earliestTime, but it must arrive by latestTime.
+    public void setTimeWindow(double earliestTime, double latestTime) {
+        if (!(earliestTime >= 0) || !(latestTime >= earliestTime)) {
+            throw new IllegalArgumentException("Invalid time window " + earliestTime + " - " + latestTime);
+        }
+        this.earliestTime = earliestTime;
+        this.latestTime = latestTime;
+    }
+    public boolean hasTimeWindow() {
+        return earliestTime > 0 || latestTime != Double.POSITIVE_INFINITY;
+    }
+
+    public double getServiceTime() {
+        return serviceTime;
+    }
+    public void setServiceTime(double serviceTime) {
+        if (!(serviceTime >= 0) || serviceTime == Double.POSITIVE_INFINITY) {
+            throw new IllegalArgumentException("Invalid service time " + serviceTime);
+        }
+        this.serviceTime = serviceTime;
+    }
+
+    // The same package at another address: a copy with everything but x and y kept.
+    public Location movedTo(int newX, int newY){
+        Location moved = new Location(trackingNumber, newX, newY, serialNumber);
+        moved.demand = demand;
+        moved.earliestTime = earliestTime;
+        moved.latestTime = latestTime;
+        moved.serviceTime = serviceTime;
+        return moved;
+    }
+
     public int getX() {
         return x;
     }
@@ -0,0 +1,170 @@
+package OptimizeRoute;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/*
+OptimizationMetrics that keeps running totals and a latency histogram per phase, for every route it is set on.
+register() publishes it as a JMX MBean, so the numbers can be watched in JConsole or VisualVM while the app runs,
+and setLog() also writes one line per phase and per run as they happen (AppDemo sends them to its System Log).
+Several routes may share one recorder and optimize at the same time; all counters are thread safe.
+*/
+public class MetricsRecorder implements OptimizationMetrics, MetricsRecorderMBean {
+
+    public static final String OBJECT_NAME = "OptimizeRoute:type=Metrics";
+
+    private final LatencyHistogram optimizeLatency = new LatencyHistogram();
+    private final Map<String, LatencyHistogram> phases = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> passMoves = new ConcurrentHashMap<>();
+    private final Map<String, DoubleAdder> passGain = new ConcurrentHashMap<>();
+    private final LongAdder optimizeCount = new LongAdder();
+    private final LongAdder stopsOptimized = new LongAdder();
+    private final LongAdder distanceEvaluations = new LongAdder();
+    private final LongAdder nodesAllocated = new LongAdder();
+    private volatile long lastOptimizeNanos;
+    private volatile double lastDistanceBefore;
+    private volatile double lastDistanceAfter;
+    private volatile Consumer<String> log;
+
+    // Registers this recorder with the platform MBean server under OBJECT_NAME.
+    public void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+
+    // Receives a readable line for every reported phase, pass and run; null turns the lines off.
+    public void setLog(Consumer<String> log) {
+        this.log = log;
+    }
+
+    @Override
+    public void phase(String name, long nanos) {
+        phases.computeIfAbsent(name, key -> new LatencyHistogram()).record(nanos);
+        log(String.format(Locale.ROOT, "  %s: %.2f ms", name, nanos / 1e6));
+    }
+
+    @Override
+    public void improvementPass(String name, int moves, double gain) {
+        passMoves.computeIfAbsent(name, key -> new LongAdder()).add(moves);
+        passGain.computeIfAbsent(name, key -> new DoubleAdder()).add(gain);
+        log(String.format(Locale.ROOT, "  %s: %d moves, %.2f shorter", name, moves, gain));
+    }
+
+    @Override
+    public void distanceEvaluations(long count) {
+        distanceEvaluations.add(count);
+        log("  distance lookups: " + count);
+    }
+
+    @Override
+    public void nodesAllocated(long count) {
+        nodesAllocated.add(count);
+    }
+
+    @Override
+    public void optimizeFinished(int stops, long nanos, double distanceBefore, double distanceAfter) {
+        optimizeLatency.record(nanos);
+        optimizeCount.increment();
+        stopsOptimized.add(stops);
+        lastOptimizeNanos = nanos;
+        lastDistanceBefore = distanceBefore;
+        lastDistanceAfter = distanceAfter;
+        log(String.format(Locale.ROOT, "Optimized %d stops in %.2f ms (p50 %.2f ms, p99 %.2f ms over %d runs)",
+                stops, nanos / 1e6, getOptimizeP50Millis(), getOptimizeP99Millis(), getOptimizeCount()));
+    }
+
+    @Override
+    public long getOptimizeCount() {
+        return optimizeCount.sum();
+    }
+    @Override
+    public long getStopsOptimized() {
+        return stopsOptimized.sum();
+    }
+    @Override
+    public double getLastOptimizeMillis() {
+        return lastOptimizeNanos / 1e6;
+    }
+    @Override
+    public double getOptimizeP50Millis() {
+        return optimizeLatency.percentileMillis(0.5);
+    }
+    @Override
+    public double getOptimizeP99Millis() {
+        return optimizeLatency.percentileMillis(0.99);
+    }
+    @Override
+    public double getLastDistanceBefore() {
+        return lastDistanceBefore;
+    }
+    @Override
+    public double getLastDistanceAfter() {
+        return lastDistanceAfter;
+    }
+    @Override
+    public long getDistanceEvaluations() {
+        return distanceEvaluations.sum();
+    }
+    @Override
+    public long getNodesAllocated() {
+        return nodesAllocated.sum();
+    }
+
+    // Latency histogram of one phase, or null if it was never reported.
+    public LatencyHistogram getPhase(String name) {
+        return phases.get(name);
+    }
+
+    @Override
+    public String[] getPhases() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(phases).entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            lines.add(String.format(Locale.ROOT, "%s: %d times, p50 %.2f ms, p99 %.2f ms", entry.getKey(),
+                    histogram.getCount(), histogram.percentileMillis(0.5), histogram.percentileMillis(0.99)));
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    @Override
+    public String[] getImprovementPasses() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(passMoves).entrySet()) {
+            DoubleAdder gain = passGain.get(entry.getKey());
+            lines.add(String.format(Locale.ROOT, "%s: %d moves, %.2f shorter", entry.getKey(), entry.getValue().sum(),
+                    gain == null ? 0 : gain.sum()));
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    @Override
+    public void reset() {
+        optimizeLatency.reset();
+        phases.clear();
+        passMoves.clear();
+        passGain.clear();
+        optimizeCount.reset();
+        stopsOptimized.reset();
+        distanceEvaluations.reset();
+        nodesAllocated.reset();
+        lastOptimizeNanos = 0;
+        lastDistanceBefore = 0;
+        lastDistanceAfter = 0;
+    }
+
+    private void log(String line) {
+        Consumer<String> target = log;
+        if (target != null) {
+            target.accept(line);
+        }
+    }
+}
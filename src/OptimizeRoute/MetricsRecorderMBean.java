@@ -0,0 +1,31 @@
+package OptimizeRoute;
+
+// What MetricsRecorder shows in JConsole / VisualVM under OptimizeRoute:type=Metrics.
+public interface MetricsRecorderMBean {
+
+    long getOptimizeCount();
+
+    long getStopsOptimized();
+
+    double getLastOptimizeMillis();
+
+    double getOptimizeP50Millis();
+
+    double getOptimizeP99Millis();
+
+    double getLastDistanceBefore();
+
+    double getLastDistanceAfter();
+
+    long getDistanceEvaluations();
+
+    long getNodesAllocated();
+
+    // One line per phase: count, p50 and p99.
+    String[] getPhases();
+
+    // One line per improvement pass: moves and total gain.
+    String[] getImprovementPasses();
+
+    void reset();
+}
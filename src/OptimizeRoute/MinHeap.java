@@ -0,0 +1,74 @@
+package OptimizeRoute;
+
+import java.util.Arrays;
+
+/*
+Binary min-heap of (key, value) pairs over two primitive arrays, for the shortest path searches on the RoadGraph.
+There is no decrease-key: a search pushes a node again when it finds a shorter way to it and skips the stale
+entries when they come out, which is simpler and in practice as fast on road networks.
+*/
+class MinHeap {
+
+    private double[] keys = new double[64];
+    private int[] values = new int[64];
+    private int size;
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    void push(double key, int value) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[parent] <= key) {
+                break;
+            }
+            keys[i] = keys[parent];
+            values[i] = values[parent];
+            i = parent;
+        }
+        keys[i] = key;
+        values[i] = value;
+    }
+
+    // Key of the smallest entry; only valid while the heap is not empty.
+    double peekKey() {
+        return keys[0];
+    }
+
+    // Removes the smallest entry and returns its value. peekKey() just before gives its key.
+    int pop() {
+        int top = values[0];
+        size--;
+        double key = keys[size];
+        int value = values[size];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && keys[child + 1] < keys[child]) {
+                child++;
+            }
+            if (key <= keys[child]) {
+                break;
+            }
+            keys[i] = keys[child];
+            values[i] = values[child];
+            i = child;
+        }
+        keys[i] = key;
+        values[i] = value;
+        return top;
+    }
+}
@@ -0,0 +1,140 @@
+package OptimizeRoute;
+
+import java.util.SplittableRandom;
+
+/*
+The nearest neighbor greedy construction on plain coordinate arrays, shared by Route and the parallel optimizer.
+Start at the stop closest to (startX, startY), then always drive to the closest stop that has not been visited yet.
+The unvisited stops live in a SpatialGrid, so each "closest stop" lookup only looks at the cells around
+the current position. Ties go to the smaller index, which matches a linear scan over the stops in index order.
+
+For providers that do not measure straight lines (see DistanceProvider.isStraightLine()) the grid would pick the
+wrong stops, so there is a second construction by the distances of a DistanceTable. It walks the candidate neighbor
+lists of the local search instead of a grid (see TourImprover.buildNeighbors()), and only searches a whole row of
+the table when every candidate of the current stop has been visited already.
+*/
+public class NearestNeighborTour {
+
+    // Chance of taking the closest, second closest and third closest stop in a randomized construction.
+    private static final double[] RANDOM_PICK = {0.85, 0.97, 1.0};
+
+    private NearestNeighborTour() {
+    }
+
+    public static int[] build(int[] xs, int[] ys, int count, int startX, int startY) {
+        return build(xs, ys, count, startX, startY, null);
+    }
+
+    /*
+    With a random source the first stop stays the one closest to (startX, startY), but every following step
+    sometimes takes the second or third closest stop instead, which gives a different but still reasonable route.
+    */
+    public static int[] build(int[] xs, int[] ys, int count, int startX, int startY, SplittableRandom random) {
+        return build(xs, ys, count, startX, startY, random, OptimizationMetrics.NONE);
+    }
+
+    // Also reports the time spent finding the first stop and the rest of the construction to the metrics.
+    public static int[] build(int[] xs, int[] ys, int count, int startX, int startY, SplittableRandom random,
+                              OptimizationMetrics metrics) {
+        int[] order = new int[count];
+        if (count == 0) {
+            return order;
+        }
+        long gridStart = metrics.isEnabled() ? System.nanoTime() : 0;
+        SpatialGrid unvisited = SpatialGrid.of(xs, ys, count);
+        int[] candidates = new int[RANDOM_PICK.length];
+        int visited = 0;
+        long firstStopStart = metrics.isEnabled() ? System.nanoTime() : 0;
+        int nextStop = unvisited.nearest(startX, startY);
+        long walkStart = 0;
+        if (metrics.isEnabled()) {
+            walkStart = System.nanoTime();
+            metrics.phase(OptimizationMetrics.FIRST_STOP, walkStart - firstStopStart);
+        }
+
+        while (nextStop != -1) {
+            order[visited++] = nextStop;
+            unvisited.remove(nextStop);
+            if (random == null) {
+                nextStop = unvisited.nearest(xs[nextStop], ys[nextStop]);
+            } else {
+                int found = unvisited.nearest(xs[nextStop], ys[nextStop], candidates.length, -1, candidates);
+                nextStop = found == 0 ? -1 : candidates[pick(random, found)];
+            }
+        }
+        if (metrics.isEnabled()) {
+            // Building the grid counts as construction too.
+            metrics.phase(OptimizationMetrics.CONSTRUCTION, System.nanoTime() - walkStart + firstStopStart - gridStart);
+        }
+        return order;
+    }
+
+    /*
+    The construction by a table: start at the stop with the smallest startDistances entry, then go to the closest
+    unvisited stop in the current stop's neighbor list (closest first, neighbors.length / count per stop), or the
+    closest unvisited stop in its table row when the list has none left. With a random source it sometimes takes the
+    second or third unvisited candidate instead, like the grid construction.
+    */
+    public static int[] build(DistanceTable distances, int count, int[] neighbors, double[] startDistances,
+                              SplittableRandom random) {
+        int[] order = new int[count];
+        if (count == 0) {
+            return order;
+        }
+        int k = neighbors.length / count;
+        boolean[] visited = new boolean[count];
+        int[] candidates = new int[random == null ? 1 : RANDOM_PICK.length];
+        int nextStop = 0;
+        for (int i = 1; i < count; i++) {
+            if (startDistances[i] < startDistances[nextStop]) {
+                nextStop = i;
+            }
+        }
+        for (int step = 0; step < count; step++) {
+            order[step] = nextStop;
+            visited[nextStop] = true;
+            if (step == count - 1) {
+                break;
+            }
+            int current = nextStop;
+            int found = 0;
+            for (int j = 0; j < k && found < candidates.length; j++) {
+                int candidate = neighbors[current * k + j];
+                if (candidate != -1 && !visited[candidate]) {
+                    candidates[found++] = candidate;
+                }
+            }
+            if (found == 0) {
+                nextStop = closestUnvisited(distances, count, current, visited);
+            } else {
+                nextStop = candidates[random == null ? 0 : pick(random, found)];
+            }
+        }
+        return order;
+    }
+
+    private static int closestUnvisited(DistanceTable distances, int count, int from, boolean[] visited) {
+        int best = -1;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            if (!visited[i]) {
+                double distance = distances.distance(from, i);
+                if (best == -1 || distance < bestDistance) {
+                    best = i;
+                    bestDistance = distance;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static int pick(SplittableRandom random, int found) {
+        double roll = random.nextDouble();
+        for (int i = 0; i < found - 1; i++) {
+            if (roll < RANDOM_PICK[i]) {
+                return i;
+            }
+        }
+        return found - 1;
+    }
+}
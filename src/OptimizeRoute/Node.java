@@ -5,6 +5,7 @@ public class Node {
     private Location currentLocation;
     private Node previous;
     private Node next;
+    private int spatialId = -1;
 
     public Node(Location currentLocation) {
         this.currentLocation = currentLocation;
@@ -33,4 +34,12 @@ public class Node {
     public void setPrevious(Node previous) {
         this.previous = previous;
     }
+
+    // Id of this node in the route's SpatialGrid, -1 while it is not in one.
+    int getSpatialId() {
+        return spatialId;
+    }
+    void setSpatialId(int spatialId) {
+        this.spatialId = spatialId;
+    }
 }
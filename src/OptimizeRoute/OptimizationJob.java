@@ -0,0 +1,324 @@
+package OptimizeRoute;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+
+/*
+An optimization running on background threads, started by Route.optimizeAsync(). It can be stopped at any time
+and always has a best route so far.
+
+The first worker builds the greedy route and improves it with the route's TourSearch in short slices; between slices it hands
+the best route so far to the listener as an immutable TourSnapshot, at most every PUBLISH_INTERVAL_MILLIS. Once the
+route is at a local optimum, that worker and the helpers (one per core, leaving one core for the user interface)
+keep trying double bridge kicks from the shared best route, and every kick that makes it shorter becomes the new best.
+This goes on until the time limit runs out or cancel() is called. Then the Route is reordered to the best route
+and a last snapshot with isFinished() set is published.
+
+Routes with time windows are built and improved by TimeWindowOptimizer on one worker instead; their snapshots come
+after the construction and at the end.
+
+The listener is called on the optimizer threads and should return quickly (AppDemo hands the snapshot to the Swing
+thread). Until the job is done the Route must not be read or changed by anyone else.
+*/
+public class OptimizationJob {
+
+    public static final long PUBLISH_INTERVAL_MILLIS = 100;
+    // Local search runs this long between two looks at the cancel flag and the publish interval.
+    private static final long SLICE_MILLIS = 20;
+    private static final int KICKS_PER_ROUND = 100;
+    private static final long SEED = 20240101L;
+    private static final double EPSILON = 1e-7;
+
+    private final Route route;
+    private final long timeLimitMillis;
+    private final int workers;
+    private final Consumer<TourSnapshot> listener;
+    private final long startNanos;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile boolean cancelled;
+    private volatile TimeWindowOptimizer timeWindowOptimizer;
+    private volatile TourSnapshot latest;
+    private volatile Throwable error;
+
+    // Written by the first worker before any helper starts.
+    private int[] xs;
+    private int[] ys;
+    private int[] serialNumbers;
+    private RouteEnds ends;
+    private double initialDistance;
+
+    // The best route so far, guarded by this.
+    private int[] bestOrder;
+    private double bestLength;
+    private boolean bestChanged;
+    // Goes up with every new best route, so a worker can tell whether its own route is still the best one.
+    private long bestVersion;
+    private volatile long lastPublishNanos;
+
+    OptimizationJob(Route route, long timeLimitMillis, int workers, Consumer<TourSnapshot> listener) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("At least one worker is needed, got " + workers);
+        }
+        this.route = route;
+        this.timeLimitMillis = timeLimitMillis;
+        this.workers = workers;
+        this.listener = listener;
+        this.startNanos = System.nanoTime();
+    }
+
+    void start() {
+        Thread worker = new Thread(this::run, "route-optimizer-0");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    // Stops the search soon; the Route still gets the best route found so far. Can be called from any thread.
+    public void cancel() {
+        cancelled = true;
+        TimeWindowOptimizer optimizer = timeWindowOptimizer;
+        if (optimizer != null) {
+            optimizer.stop();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    // Waits until the Route has been reordered and returns the final snapshot.
+    public TourSnapshot await() throws InterruptedException {
+        done.await();
+        if (error != null) {
+            throw new IllegalStateException("Route optimization failed", error);
+        }
+        return latest;
+    }
+
+    // The last published snapshot, null before the first one.
+    public TourSnapshot getLatest() {
+        return latest;
+    }
+
+    private void run() {
+        Node[] nodes = null;
+        try {
+            nodes = route.toArray();
+            int count = nodes.length;
+            xs = new int[count];
+            ys = new int[count];
+            serialNumbers = new int[count];
+            int[] order = new int[count];
+            for (int i = 0; i < count; i++) {
+                xs[i] = nodes[i].getCurrentLocation().getX();
+                ys[i] = nodes[i].getCurrentLocation().getY();
+                serialNumbers[i] = nodes[i].getCurrentLocation().getSerialNumber();
+                order[i] = i;
+            }
+            DistanceTable distances = route.getDistanceProvider().table(xs, ys, count);
+            ends = route.routeEnds(xs, ys);
+            initialDistance = ends.length(distances, order);
+            replaceBest(order, initialDistance);
+            if (route.hasTimeWindows()) {
+                runTimeWindows(nodes, distances);
+            } else if (count > 0) {
+                runTour(distances);
+            }
+        } catch (InterruptedException e) {
+            cancelled = true;
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException | Error e) {
+            error = e;
+        } finally {
+            finish(nodes);
+        }
+    }
+
+    private void runTour(DistanceTable distances) throws InterruptedException {
+        int count = xs.length;
+        Location depot = route.getDepot();
+        DistanceProvider distanceProvider = route.getDistanceProvider();
+        ImprovementEngine engine = route.getImprovementEngine();
+        // Without straight lines the greedy pass needs the neighbor lists first, see NearestNeighborTour.
+        int[] tableNeighbors = null;
+        int[] order;
+        if (distanceProvider.isStraightLine()) {
+            order = NearestNeighborTour.build(xs, ys, count, depot.getX(), depot.getY());
+        } else {
+            tableNeighbors = engine.buildNeighbors(xs, ys, count, distanceProvider, distances);
+            order = NearestNeighborTour.build(distances, count, tableNeighbors,
+                    distanceProvider.distancesFrom(depot.getX(), depot.getY(), xs, ys, count), null);
+        }
+        double greedyLength = ends.length(distances, order);
+        route.setGreedyDistance(greedyLength);
+        replaceBest(order, greedyLength);
+        publish(false);
+        if (count < 3) {
+            return;
+        }
+
+        int[] neighbors = tableNeighbors != null
+                ? tableNeighbors : engine.buildNeighbors(xs, ys, count, distanceProvider, distances);
+        TourSearch improver = engine.create(count, neighbors, distances, ends);
+        improver.start(order);
+        boolean converged = false;
+        while (!converged && !isStopping()) {
+            converged = improver.resume(SLICE_MILLIS);
+            if (converged || isPublishDue()) {
+                improver.copyOrder(order);
+                offer(order, improver.getTourLength(), -1);
+            }
+        }
+        if (!converged) {
+            improver.copyOrder(order);
+            offer(order, improver.getTourLength(), -1);
+            return;
+        }
+
+        Thread[] helpers = new Thread[workers - 1];
+        for (int i = 0; i < helpers.length; i++) {
+            long seed = SEED + i + 1;
+            helpers[i] = new Thread(() -> kickLoop(engine.create(count, neighbors, distances.forThread(), ends), seed),
+                    "route-optimizer-" + (i + 1));
+            helpers[i].setDaemon(true);
+            helpers[i].start();
+        }
+        kickLoop(improver, SEED);
+        for (Thread helper : helpers) {
+            helper.join();
+        }
+    }
+
+    /*
+    Kicks from the shared best route, in rounds, until the job stops. The improver only loads the best route again
+    (and runs the local search over all of it) when another worker found a better one.
+    */
+    private void kickLoop(TourSearch improver, long seed) {
+        try {
+            SplittableRandom random = new SplittableRandom(seed);
+            int[] order = new int[xs.length];
+            long loadedVersion = -1;
+            while (!isStopping()) {
+                boolean reload = false;
+                synchronized (this) {
+                    if (loadedVersion != bestVersion) {
+                        System.arraycopy(bestOrder, 0, order, 0, order.length);
+                        loadedVersion = bestVersion;
+                        reload = true;
+                    }
+                }
+                if (reload) {
+                    improver.start(order);
+                    while (!improver.resume(SLICE_MILLIS)) {
+                        if (isStopping()) {
+                            return;
+                        }
+                    }
+                }
+                for (int k = 0; k < KICKS_PER_ROUND && !isStopping(); k++) {
+                    improver.kick(random);
+                }
+                improver.copyOrder(order);
+                loadedVersion = offer(order, improver.getTourLength(), loadedVersion);
+            }
+        } catch (RuntimeException | Error e) {
+            error = e;
+            cancelled = true;
+        }
+    }
+
+    private void runTimeWindows(Node[] nodes, DistanceTable distances) {
+        TimeWindowOptimizer optimizer = route.newTimeWindowOptimizer(nodes, distances);
+        timeWindowOptimizer = optimizer;
+        if (cancelled) {
+            optimizer.stop();
+        }
+        int[] order = optimizer.build();
+        double greedyLength = ends.length(distances, order);
+        route.setGreedyDistance(greedyLength);
+        // Lateness comes before distance here, so the newest route replaces the best one even if it is longer.
+        replaceBest(order, greedyLength);
+        publish(false);
+        if (cancelled) {
+            return;
+        }
+        long remaining = 0;
+        if (timeLimitMillis > 0) {
+            remaining = Math.max(1, timeLimitMillis - (System.nanoTime() - startNanos) / 1_000_000);
+        }
+        optimizer.improve(order, remaining);
+        replaceBest(order, ends.length(distances, order));
+    }
+
+    private void finish(Node[] nodes) {
+        synchronized (this) {
+            if (error == null && nodes != null && nodes.length > 0) {
+                route.relink(nodes, bestOrder);
+            }
+            if (bestOrder == null) {
+                xs = new int[0];
+                ys = new int[0];
+                serialNumbers = new int[0];
+                bestOrder = new int[0];
+            }
+            if (error == null && route.getMetrics().isEnabled()) {
+                route.getMetrics().optimizeFinished(bestOrder.length, System.nanoTime() - startNanos, initialDistance, bestLength);
+            }
+            publish(true);
+        }
+        done.countDown();
+    }
+
+    /*
+    Keeps the order if it is shorter than the best one so far, and publishes when it is time to.
+    The order was improved from the best route of loadedVersion; returns the version of the best route if the order
+    is that route now, -1 if it is not.
+    */
+    private synchronized long offer(int[] order, double length, long loadedVersion) {
+        long version = -1;
+        if (length < bestLength - EPSILON) {
+            replaceBest(order, length);
+            version = bestVersion;
+        } else if (loadedVersion == bestVersion) {
+            // Kicks only keep shorter routes, so an order that is not shorter is still the one it started from.
+            version = bestVersion;
+        }
+        if (bestChanged && isPublishDue()) {
+            publish(false);
+        }
+        return version;
+    }
+
+    private synchronized void replaceBest(int[] order, double length) {
+        if (bestOrder == null) {
+            bestOrder = new int[order.length];
+        }
+        System.arraycopy(order, 0, bestOrder, 0, order.length);
+        bestLength = length;
+        bestChanged = true;
+        bestVersion++;
+    }
+
+    private synchronized void publish(boolean finished) {
+        TourSnapshot snapshot = TourSnapshot.of(xs, ys, serialNumbers, bestOrder, bestLength,
+                (System.nanoTime() - startNanos) / 1_000_000, finished);
+        latest = snapshot;
+        lastPublishNanos = System.nanoTime();
+        bestChanged = false;
+        if (listener != null) {
+            listener.accept(snapshot);
+        }
+    }
+
+    private boolean isPublishDue() {
+        return System.nanoTime() - lastPublishNanos >= PUBLISH_INTERVAL_MILLIS * 1_000_000L;
+    }
+
+    private boolean isStopping() {
+        return cancelled || (timeLimitMillis > 0 && System.nanoTime() - startNanos >= timeLimitMillis * 1_000_000L);
+    }
+}
@@ -0,0 +1,51 @@
+package OptimizeRoute;
+
+/*
+Where Route reports what an optimization run spent its time on. Set one with Route.setMetrics(); MetricsRecorder
+is the implementation that keeps totals and latency histograms and shows them over JMX.
+
+Every method has an empty default, so a sink only overrides what it cares about. When isEnabled() returns false,
+as it does for NONE (the default of every Route), Route does not read the clock, count distance lookups or
+compute the distance before and after, so a run without metrics costs the same as before they existed.
+*/
+public interface OptimizationMetrics {
+
+    // Phase names passed to phase().
+    String COPY_OUT = "copy-out";
+    String FIRST_STOP = "first stop";
+    String CONSTRUCTION = "construction";
+    String NEIGHBOR_LISTS = "neighbor lists";
+    String IMPROVEMENT = "improvement";
+    String RELINK = "relink";
+
+    OptimizationMetrics NONE = new OptimizationMetrics() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+    };
+
+    default boolean isEnabled() {
+        return true;
+    }
+
+    // One phase of a run took this long.
+    default void phase(String name, long nanos) {
+    }
+
+    // An improvement pass (for example "2-opt" or "or-opt") made this many moves that shortened the route by gain in total.
+    default void improvementPass(String name, int moves, double gain) {
+    }
+
+    // Distance lookups made by the improvement phase of one run.
+    default void distanceEvaluations(long count) {
+    }
+
+    // Route nodes created since the previous run, by addLocation() and insertLocation(). Optimizing itself creates none.
+    default void nodesAllocated(long count) {
+    }
+
+    // A whole optimizeRoute() call finished.
+    default void optimizeFinished(int stops, long nanos, double distanceBefore, double distanceAfter) {
+    }
+}
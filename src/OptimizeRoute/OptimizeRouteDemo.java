@@ -1,7 +1,7 @@
 package OptimizeRoute;
 
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.HashSet;
 import java.util.Random;
 import java.util.Scanner;
@@ -64,6 +64,9 @@ public class OptimizeRouteDemo {
                     }
                 break;
 
+                case 8:importFromCSV();
+                break;
+
                 case 7:System.exit(0);
             }
 
@@ -79,6 +82,7 @@ public class OptimizeRouteDemo {
         System.out.println("press [5] to add more delivery stop.");
         System.out.println("press [6] to search & delete package.");
         System.out.println("press [7] to exit system.");
+        System.out.println("press [8] to import delivery order from CSV.");
         System.out.println("Please enter your option:");
     }
 
@@ -118,35 +122,50 @@ public class OptimizeRouteDemo {
         System.out.println("Order under optimization...");
         double initialTotalDistance = deliveryRoute.totalDistance();
         System.out.printf("The total mileage before optimize is %.2f miles.\n", initialTotalDistance / 100);
+        // The Hilbert curve route is only measured to compare, the route itself is not reordered.
+        double hilbertDistance = 0;
+        long hilbertStart = System.nanoTime();
+        if (!deliveryRoute.hasTimeWindows()) {
+            hilbertDistance = deliveryRoute.hilbertDraft().getDistance();
+        }
+        long hilbertNanos = System.nanoTime() - hilbertStart;
         deliveryRoute.optimizeRoute();
-        System.out.printf("The total mileage after optimize is %.2f miles.\n", deliveryRoute.totalDistance() / 100);
-        System.out.printf("Your route has been saved %.2f miles!\n", (initialTotalDistance - deliveryRoute.totalDistance()) / 100);
+        double greedyDistance = deliveryRoute.getGreedyDistance();
+        double finalDistance = deliveryRoute.totalDistance();
+        System.out.printf("The greedy route saved %.2f miles.\n", (initialTotalDistance - greedyDistance) / 100);
+        if (hilbertDistance > 0) {
+            System.out.printf("The greedy route is %.2f miles, the instant Hilbert curve route %.2f miles (%.1f ms).\n",
+                    greedyDistance / 100, hilbertDistance / 100, hilbertNanos / 1e6);
+        }
+        System.out.printf("The improvement pass saved another %.2f miles.\n", (greedyDistance - finalDistance) / 100);
+        System.out.printf("The total mileage after optimize is %.2f miles.\n", finalDistance / 100);
+        System.out.printf("Your route has been saved %.2f miles!\n", (initialTotalDistance - finalDistance) / 100);
     }
 
     public static void exportToCSV(){
         String fileName = "delivery_route.csv";
-        try(FileWriter writer = new FileWriter(fileName)){
-
-            writer.write("Order,Tracking Number,X,Y,SerialNumber\n");
-
-            Node current = deliveryRoute.getHead();
-            int index =1;
-
-            while(current!=null){
-                Location locating = current.getCurrentLocation();
-                String line = String.format("%d,%s,%d,%d,%d\n", index,locating.getTrackingNumber(),
-                        locating.getX(),locating.getY(),locating.getSerialNumber());
-                writer.write(line);
-
-                current = current.getNext();
-                index++;
-            }
+        try{
+            RouteCsv.write(deliveryRoute, Paths.get(fileName));
         } catch (IOException e) {
             System.out.println("Export to CSV failed!" + e.getMessage());
+            return;
         }
         System.out.println("Export successful!");
     }
 
+    // Loads a route from a CSV file in the same layout as the export, replacing the current route.
+    public static void importFromCSV(){
+        System.out.println("Please enter the CSV file name (for example delivery_route.csv):");
+        String fileName = sc.next().trim();
+        try{
+            deliveryRoute = RouteCsv.readRoute(Paths.get(fileName));
+        } catch (IOException e) {
+            System.out.println("Import from CSV failed! " + e.getMessage());
+            return;
+        }
+        System.out.println("Imported " + deliveryRoute.getSize() + " delivery stops! Press 2 to view full delivery list.");
+    }
+
 
     public static void addMoreLocation(){
         String newTrackingNumber;
@@ -167,11 +186,10 @@ public class OptimizeRouteDemo {
         int newSerialNumber = deliveryRoute.getSize() + 1;
 
         Location newAddedLocation = new Location(newTrackingNumber, newX, newY, newSerialNumber);
-        deliveryRoute.addLocation(newAddedLocation);
+        deliveryRoute.insertLocation(newAddedLocation);
 
         System.out.println("Your location has been added!");
-        deliveryRoute.optimizeRoute();
-        System.out.println("Your route has been updated!");
+        System.out.println("Your route has been updated! Press 3 for a full re-optimization.");
     }
 
     public static void searchAndDeleteLocation(){
@@ -197,9 +215,7 @@ public class OptimizeRouteDemo {
             while(true) {
                 String confirm = sc.next();
                 if (confirm.equalsIgnoreCase("y")) {
-                    if (deliveryRoute.deleteLocation(newTrackingNumber)) {
-                        deliveryRoute.deleteLocation(newTrackingNumber);
-                        deliveryRoute.optimizeRoute();
+                    if (deliveryRoute.removeLocation(newTrackingNumber)) {
                         System.out.println("Your package has been deleted and your route has been updated!");
                     }else {
                         System.out.println("Error: Couldn't delete the package. Please contact customer service!");
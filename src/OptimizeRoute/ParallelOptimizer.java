@@ -0,0 +1,197 @@
+package OptimizeRoute;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/*
+Multi-start optimizer: builds many different greedy routes at the same time on a ForkJoinPool,
+improves each one with the route's ImprovementEngine (local search plus a fixed number of double bridge kicks)
+and keeps the shortest.
+
+Start 0 is the plain greedy route, so the result is never worse than the single-threaded optimizeRoute(), and
+optimize(Route) reports its length as the route's greedy distance.
+Every other start uses a randomized greedy construction seeded from (seed, start number).
+A kick costs about one pass over the route, so the kicks per start shrink with the size of the route
+(KICK_WORK / stops, at most getKicks()): about 1000 on 10,000 stops but 10 on a million.
+Workers share only the read-only coordinate and neighbor arrays and the distance table (or get their own copy of it,
+see DistanceTable.forThread()); each one has its own grid, order array and TourSearch, and never touches Route or Node objects.
+Ties are broken by the lower start number, and every start is bounded by work (its local search and kick budget),
+not by the clock, so the same seed always gives the same route. The route's improvement time limit is not used.
+A wall-clock limit can be set with setTimeLimit(), for callers that would rather stop in time than get the same
+route every run: starts that reach it stop searching and keep what they have, which depends on timing.
+*/
+public class ParallelOptimizer {
+
+    public static final int DEFAULT_STARTS = 32;
+    public static final long DEFAULT_SEED = 20240101L;
+    public static final int DEFAULT_KICKS = 1000;
+    // Stops moved by the kicks of one start, about: the kick budget is KICK_WORK / stops, at most kicks.
+    private static final long KICK_WORK = 10_000_000L;
+
+    private final int starts;
+    private final long seed;
+    private final ForkJoinPool pool;
+    private int kicks = DEFAULT_KICKS;
+    private long timeLimitMillis;
+
+    public ParallelOptimizer() {
+        this(DEFAULT_STARTS, DEFAULT_SEED);
+    }
+
+    public ParallelOptimizer(int starts, long seed) {
+        this(starts, seed, ForkJoinPool.commonPool());
+    }
+
+    public ParallelOptimizer(int starts, long seed, ForkJoinPool pool) {
+        if (starts < 1) {
+            throw new IllegalArgumentException("At least one start is needed, got " + starts);
+        }
+        this.starts = starts;
+        this.seed = seed;
+        this.pool = pool;
+    }
+
+    public int getStarts() {
+        return starts;
+    }
+    public long getSeed() {
+        return seed;
+    }
+    public int getKicks() {
+        return kicks;
+    }
+    // Most double bridge kicks a start spends after its first local optimum; big routes get fewer, see kicksFor().
+    public void setKicks(int kicks) {
+        this.kicks = kicks;
+    }
+
+    public long getTimeLimit() {
+        return timeLimitMillis;
+    }
+    // Deadline for a whole run in milliseconds, 0 for none (the default). Any limit makes results depend on timing.
+    public void setTimeLimit(long timeLimitMillis) {
+        this.timeLimitMillis = timeLimitMillis;
+    }
+
+    // Kicks every start gets on a route with this many stops. Only depends on the size, so runs stay repeatable.
+    public int kicksFor(int count) {
+        return (int) Math.min(kicks, Math.max(1, KICK_WORK / Math.max(1, count)));
+    }
+
+    /*
+    Reorders the route to the best route found over all starts, with the route's distance provider and engine.
+    Sets the route's greedy distance to the length of start 0, so the route does not need its own greedy pass first.
+    */
+    public void optimize(Route route) {
+        if (route.getSize() < 3) {
+            route.buildGreedyRoute();
+            route.setGreedyDistance(route.totalDistance());
+            return;
+        }
+        Node[] nodes = route.toArray();
+        int count = nodes.length;
+        int[] xs = new int[count];
+        int[] ys = new int[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = nodes[i].getCurrentLocation().getX();
+            ys[i] = nodes[i].getCurrentLocation().getY();
+        }
+        Location depot = route.getDepot();
+        double[] greedyLength = new double[1];
+        int[] order = optimize(xs, ys, count, depot.getX(), depot.getY(), route.getDistanceProvider(),
+                route.routeEnds(xs, ys), route.getImprovementEngine(), timeLimitMillis, greedyLength);
+        route.relink(nodes, order);
+        route.setGreedyDistance(greedyLength[0]);
+    }
+
+    // Returns the best visiting order (indexes into xs/ys) found over all starts, for an open route leaving from (startX, startY).
+    public int[] optimize(int[] xs, int[] ys, int count, int startX, int startY) {
+        return optimize(xs, ys, count, startX, startY, EuclideanDistance.INSTANCE);
+    }
+
+    // Same, with route lengths measured by the given provider.
+    public int[] optimize(int[] xs, int[] ys, int count, int startX, int startY, DistanceProvider distanceProvider) {
+        return optimize(xs, ys, count, startX, startY, distanceProvider,
+                RouteEnds.open(xs, ys, count, distanceProvider, startX, startY));
+    }
+
+    // Same, with the legs at both ends of the route given by ends (which should leave from (startX, startY)).
+    public int[] optimize(int[] xs, int[] ys, int count, int startX, int startY, DistanceProvider distanceProvider,
+                          RouteEnds ends) {
+        return optimize(xs, ys, count, startX, startY, distanceProvider, ends, ImprovementEngine.TWO_OPT);
+    }
+
+    // Same, with every start improved by the given engine.
+    public int[] optimize(int[] xs, int[] ys, int count, int startX, int startY, DistanceProvider distanceProvider,
+                          RouteEnds ends, ImprovementEngine engine) {
+        return optimize(xs, ys, count, startX, startY, distanceProvider, ends, engine, timeLimitMillis, new double[1]);
+    }
+
+    // The length of the plain greedy route (start 0) goes to greedyLength[0]. A time limit <= 0 means no limit.
+    private int[] optimize(int[] xs, int[] ys, int count, int startX, int startY, DistanceProvider distanceProvider,
+                           RouteEnds ends, ImprovementEngine engine, long timeLimitMillis, double[] greedyLength) {
+        long deadline = timeLimitMillis > 0 ? System.nanoTime() + timeLimitMillis * 1_000_000L : Long.MAX_VALUE;
+        int kickBudget = kicksFor(count);
+        DistanceTable distances = distanceProvider.table(xs, ys, count);
+        int[] neighbors = engine.buildNeighbors(xs, ys, count, distanceProvider, distances);
+        // Without straight lines the greedy routes are built on the table, from the distances to the start point.
+        double[] startDistances = distanceProvider.isStraightLine()
+                ? null : distanceProvider.distancesFrom(startX, startY, xs, ys, count);
+
+        int[][] orders = new int[starts][];
+        double[] lengths = new double[starts];
+        try {
+            pool.submit(() -> IntStream.range(0, starts).parallel().forEach(start -> {
+                SplittableRandom random = start == 0 ? null : new SplittableRandom(mix(seed, start));
+                DistanceTable workerDistances = distances.forThread();
+                int[] order = startDistances == null
+                        ? NearestNeighborTour.build(xs, ys, count, startX, startY, random)
+                        : NearestNeighborTour.build(workerDistances, count, neighbors, startDistances, random);
+                if (start == 0) {
+                    greedyLength[0] = ends.length(workerDistances, order);
+                }
+                TourSearch search = engine.create(count, neighbors, workerDistances, ends);
+                search.start(order);
+                if (deadline == Long.MAX_VALUE) {
+                    search.resume(0);
+                } else {
+                    // A start that only gets its turn after the deadline keeps its greedy route.
+                    long left = (deadline - System.nanoTime()) / 1_000_000L;
+                    if (left > 0) {
+                        search.resume(left);
+                    }
+                }
+                SplittableRandom kickRandom = new SplittableRandom(mix(seed, -start - 1));
+                for (int k = 0; k < kickBudget && System.nanoTime() < deadline; k++) {
+                    search.kick(kickRandom);
+                }
+                search.copyOrder(order);
+                orders[start] = order;
+                lengths[start] = ends.length(workerDistances, order);
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Parallel optimization was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Parallel optimization failed", e.getCause());
+        }
+
+        int best = 0;
+        for (int start = 1; start < starts; start++) {
+            if (lengths[start] < lengths[best]) {
+                best = start;
+            }
+        }
+        return orders[best];
+    }
+
+    // SplitMix64 finalizer, so neighboring start numbers get unrelated seeds.
+    private static long mix(long seed, int start) {
+        long z = seed + start * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,349 @@
+package OptimizeRoute;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/*
+Divide and conquer for routes far too big to improve as one tour (a whole metro area, millions of stops).
+
+1. The stops are split into cells of at most cellSize stops by recursive bisection: a box of stops is cut in half
+   at the median of its wider side until every piece is small enough. Only an index array is reordered in place.
+2. The cells are put in order by a small tour over their centers, from the depot.
+3. Every cell is optimized on its own, in parallel on a ForkJoinPool: a greedy route plus the route's
+   ImprovementEngine, as a path that comes from the point halfway to the previous cell's center and goes on to
+   the point halfway to the next one (RouteEnds.between()). So each sub-tour already starts on the side of the
+   previous cell and ends on the side of the next one. The first cell comes from the depot and the last one ends
+   the way the route does (open, back at the depot or at the fixed end).
+4. The sub-tours are joined in cell order, and a second parallel pass improves a window of seamWindow stops on
+   each side of every seam, again as a path between the fixed stops just outside the window.
+
+The route's improvement time limit covers the whole run: the cells get three quarters of it and the seams the rest
+(all of it for the cells when the seam pass is off). Within a pass every cell or seam gets its share of the threads'
+time, so the pass as a whole ends in time, and no task runs past the end of its pass.
+
+A worker only ever holds one cell: its coordinates, neighbor lists, distance table and improver, so the memory on
+top of the coordinates and the order (a few ints per stop) is bounded by the cell size times the number of threads.
+*/
+public class PartitionedOptimizer {
+
+    public static final int DEFAULT_CELL_SIZE = 10_000;
+    public static final int DEFAULT_SEAM_WINDOW = 200;
+    // Smallest cell size that still makes sense; smaller cells give bad sub-tours for little gain in speed.
+    private static final int MIN_CELL_SIZE = 16;
+
+    private final int cellSize;
+    private final ForkJoinPool pool;
+    private int seamWindow = DEFAULT_SEAM_WINDOW;
+
+    public PartitionedOptimizer() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    public PartitionedOptimizer(int cellSize) {
+        this(cellSize, ForkJoinPool.commonPool());
+    }
+
+    public PartitionedOptimizer(int cellSize, ForkJoinPool pool) {
+        if (cellSize < MIN_CELL_SIZE) {
+            throw new IllegalArgumentException("Cells need at least " + MIN_CELL_SIZE + " stops, got " + cellSize);
+        }
+        this.cellSize = cellSize;
+        this.pool = pool;
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+    public int getSeamWindow() {
+        return seamWindow;
+    }
+    // Stops on each side of a seam that the seam pass may reorder; 0 turns the seam pass off.
+    public void setSeamWindow(int seamWindow) {
+        if (seamWindow < 0) {
+            throw new IllegalArgumentException("Invalid seam window " + seamWindow);
+        }
+        this.seamWindow = seamWindow;
+    }
+
+    /*
+    Reorders the route, with its distance provider, improvement engine, time limit, depot and tour mode.
+    Sets the route's greedy distance to the length of the cells' greedy paths, so the route does not need a greedy
+    pass of its own first.
+    */
+    public void optimize(Route route) {
+        if (route.getSize() == 0) {
+            route.setGreedyDistance(0);
+            return;
+        }
+        Node[] nodes = route.toArray();
+        int count = nodes.length;
+        int[] xs = new int[count];
+        int[] ys = new int[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = nodes[i].getCurrentLocation().getX();
+            ys[i] = nodes[i].getCurrentLocation().getY();
+        }
+        double[] greedyLength = new double[1];
+        route.relink(nodes, optimize(xs, ys, count, route.getDistanceProvider(), route.getImprovementEngine(),
+                route.getImprovementTimeLimit(), route.getDepot(), route.getEndLocation(), greedyLength));
+        route.setGreedyDistance(greedyLength[0]);
+    }
+
+    /*
+    Returns a visiting order (indexes into xs/ys) for a route leaving from the depot and ending at end,
+    or anywhere when end is null. timeLimitMillis <= 0 means no time limit.
+    */
+    public int[] optimize(int[] xs, int[] ys, int count, DistanceProvider distanceProvider, ImprovementEngine engine,
+                          long timeLimitMillis, Location depot, Location end) {
+        return optimize(xs, ys, count, distanceProvider, engine, timeLimitMillis, depot, end, null);
+    }
+
+    /*
+    Same, and when greedyLength is not null it gets the summed length of the cells' greedy paths in greedyLength[0].
+    Each path is measured from its start point to its end point, so between two cells it goes through the point
+    halfway between their centers instead of straight from one cell's last stop to the next cell's first stop.
+    */
+    int[] optimize(int[] xs, int[] ys, int count, DistanceProvider distanceProvider, ImprovementEngine engine,
+                   long timeLimitMillis, Location depot, Location end, double[] greedyLength) {
+        long start = System.nanoTime();
+        boolean seams = seamWindow > 0;
+        long cellMillis = seams ? timeLimitMillis * 3 / 4 : timeLimitMillis;
+        long cellDeadline = timeLimitMillis > 0 ? start + cellMillis * 1_000_000L : Long.MAX_VALUE;
+        long deadline = timeLimitMillis > 0 ? start + timeLimitMillis * 1_000_000L : Long.MAX_VALUE;
+
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = i;
+        }
+        List<int[]> cells = new ArrayList<>();
+        bisect(xs, ys, ids, 0, count, cells);
+        int cellCount = cells.size();
+
+        // Order the cells by a tour over their centers.
+        int[] centerXs = new int[cellCount];
+        int[] centerYs = new int[cellCount];
+        for (int c = 0; c < cellCount; c++) {
+            int[] cell = cells.get(c);
+            long sumX = 0;
+            long sumY = 0;
+            for (int i = cell[0]; i < cell[1]; i++) {
+                sumX += xs[ids[i]];
+                sumY += ys[ids[i]];
+            }
+            centerXs[c] = (int) (sumX / (cell[1] - cell[0]));
+            centerYs[c] = (int) (sumY / (cell[1] - cell[0]));
+        }
+        int[] cellOrder = NearestNeighborTour.build(centerXs, centerYs, cellCount, depot.getX(), depot.getY());
+        if (cellCount >= 3) {
+            RouteEnds cellEnds = end == null
+                    ? RouteEnds.open(centerXs, centerYs, cellCount, EuclideanDistance.INSTANCE, depot.getX(), depot.getY())
+                    : RouteEnds.between(centerXs, centerYs, cellCount, EuclideanDistance.INSTANCE,
+                            depot.getX(), depot.getY(), end.getX(), end.getY());
+            new TourImprover(cellCount, TourImprover.buildNeighbors(centerXs, centerYs, cellCount, TourImprover.DEFAULT_NEIGHBORS),
+                    TourImprover.DEFAULT_NEIGHBORS, EuclideanDistance.INSTANCE.table(centerXs, centerYs, cellCount), cellEnds)
+                    .improve(cellOrder, taskLimit(cellDeadline, cellMillis));
+        }
+
+        // Where every cell starts in the final order.
+        int[] cellStart = new int[cellCount + 1];
+        for (int k = 0; k < cellCount; k++) {
+            int[] cell = cells.get(cellOrder[k]);
+            cellStart[k + 1] = cellStart[k] + cell[1] - cell[0];
+        }
+        int[] order = new int[count];
+        double[] greedyLengths = new double[cellCount];
+        long cellShare = share(cellMillis, cellCount);
+        run(() -> IntStream.range(0, cellCount).parallel().forEach(k -> {
+            int[] cell = cells.get(cellOrder[k]);
+            int from = k == 0 ? -1 : cellOrder[k - 1];
+            int to = k == cellCount - 1 ? -1 : cellOrder[k + 1];
+            int c = cellOrder[k];
+            int startX = from == -1 ? depot.getX() : (centerXs[from] + centerXs[c]) / 2;
+            int startY = from == -1 ? depot.getY() : (centerYs[from] + centerYs[c]) / 2;
+            boolean hasEnd = to != -1 || end != null;
+            int endX = to == -1 ? (end == null ? 0 : end.getX()) : (centerXs[to] + centerXs[c]) / 2;
+            int endY = to == -1 ? (end == null ? 0 : end.getY()) : (centerYs[to] + centerYs[c]) / 2;
+            int[] path = optimizePath(xs, ys, ids, cell[0], cell[1] - cell[0], distanceProvider, engine,
+                    taskLimit(cellDeadline, cellShare), startX, startY, hasEnd, endX, endY, greedyLengths, k);
+            System.arraycopy(path, 0, order, cellStart[k], path.length);
+        }));
+        if (greedyLength != null) {
+            greedyLength[0] = 0;
+            for (double length : greedyLengths) {
+                greedyLength[0] += length;
+            }
+        }
+
+        if (seams && cellCount > 1) {
+            improveSeams(xs, ys, order, cellStart, distanceProvider, engine,
+                    deadline, share(timeLimitMillis - cellMillis, cellCount - 1));
+        }
+        return order;
+    }
+
+    // The time one of tasks tasks gets out of passMillis, with the pool's threads running them side by side.
+    private long share(long passMillis, int tasks) {
+        if (passMillis <= 0) {
+            return 0;
+        }
+        return Math.max(1, passMillis * Math.min(tasks, pool.getParallelism()) / tasks);
+    }
+
+    // A task's time limit: its share, but never past the deadline. 0 (no limit) when there is no deadline.
+    private static long taskLimit(long deadline, long share) {
+        if (deadline == Long.MAX_VALUE) {
+            return 0;
+        }
+        long left = (deadline - System.nanoTime()) / 1_000_000L;
+        return Math.max(1, Math.min(share, left));
+    }
+
+    /*
+    Reoptimizes up to seamWindow stops on both sides of every seam. The windows stay within half of each cell,
+    so no two of them overlap and they can all run at the same time. They also never reach the first or the last
+    stop of the route, so every window is a path between two fixed stops.
+    */
+    private void improveSeams(int[] xs, int[] ys, int[] order, int[] cellStart, DistanceProvider distanceProvider,
+                              ImprovementEngine engine, long deadline, long seamShare) {
+        int cellCount = cellStart.length - 1;
+        run(() -> IntStream.range(1, cellCount).parallel().forEach(k -> {
+            int seam = cellStart[k];
+            // (length - 1) / 2 leaves at least one stop of every cell between two windows, as their fixed end.
+            int before = Math.min(seamWindow, (cellStart[k] - cellStart[k - 1] - 1) / 2);
+            int after = Math.min(seamWindow, (cellStart[k + 1] - cellStart[k] - 1) / 2);
+            int from = seam - before;
+            int length = before + after;
+            if (length < 3) {
+                return;
+            }
+            int end = from + length;
+            int[] path = optimizePath(xs, ys, order, from, length, distanceProvider, engine, taskLimit(deadline, seamShare),
+                    xs[order[from - 1]], ys[order[from - 1]], true, xs[order[end]], ys[order[end]], null, 0);
+            System.arraycopy(path, 0, order, from, length);
+        }));
+    }
+
+    /*
+    Optimizes the stops ids[from .. from + length - 1] as a path from (startX, startY) to (endX, endY), or ending
+    anywhere without hasEnd, and returns them in the new order. Without greedyLengths the current order is improved,
+    otherwise a greedy route is built first and its length is stored in greedyLengths[cell].
+    timeLimitMillis <= 0 means no time limit.
+    */
+    private static int[] optimizePath(int[] xs, int[] ys, int[] ids, int from, int length, DistanceProvider distanceProvider,
+                                      ImprovementEngine engine, long timeLimitMillis, int startX, int startY,
+                                      boolean hasEnd, int endX, int endY, double[] greedyLengths, int cell) {
+        int[] stops = new int[length];
+        int[] pathXs = new int[length];
+        int[] pathYs = new int[length];
+        for (int i = 0; i < length; i++) {
+            stops[i] = ids[from + i];
+            pathXs[i] = xs[stops[i]];
+            pathYs[i] = ys[stops[i]];
+        }
+        boolean greedyFirst = greedyLengths != null && distanceProvider.isStraightLine();
+        if (greedyFirst) {
+            // Number the stops in the order of the greedy path, so stops that are close on the path are also close
+            // in memory while the improvement runs.
+            int[] greedy = NearestNeighborTour.build(pathXs, pathYs, length, startX, startY);
+            for (int i = 0; i < length; i++) {
+                stops[i] = ids[from + greedy[i]];
+                pathXs[i] = xs[stops[i]];
+                pathYs[i] = ys[stops[i]];
+            }
+        }
+        DistanceTable distances = distanceProvider.table(pathXs, pathYs, length);
+        int[] neighbors = engine.buildNeighbors(pathXs, pathYs, length, distanceProvider, distances);
+        int[] pathOrder;
+        if (greedyLengths == null || greedyFirst) {
+            pathOrder = new int[length];
+            for (int i = 0; i < length; i++) {
+                pathOrder[i] = i;
+            }
+        } else {
+            pathOrder = NearestNeighborTour.build(distances, length, neighbors,
+                    distanceProvider.distancesFrom(startX, startY, pathXs, pathYs, length), null);
+        }
+        RouteEnds ends = hasEnd
+                ? RouteEnds.between(pathXs, pathYs, length, distanceProvider, startX, startY, endX, endY)
+                : RouteEnds.open(pathXs, pathYs, length, distanceProvider, startX, startY);
+        if (greedyLengths != null) {
+            greedyLengths[cell] = ends.length(distances, pathOrder);
+        }
+        if (length >= 3) {
+            engine.create(length, neighbors, distances, ends).improve(pathOrder, timeLimitMillis);
+        }
+        int[] path = new int[length];
+        for (int i = 0; i < length; i++) {
+            path[i] = stops[pathOrder[i]];
+        }
+        return path;
+    }
+
+    // Splits ids[from .. to - 1] in half at the median of its wider side until the pieces fit in a cell.
+    private void bisect(int[] xs, int[] ys, int[] ids, int from, int to, List<int[]> cells) {
+        if (to - from <= cellSize) {
+            cells.add(new int[]{from, to});
+            return;
+        }
+        int minX = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (int i = from; i < to; i++) {
+            minX = Math.min(minX, xs[ids[i]]);
+            maxX = Math.max(maxX, xs[ids[i]]);
+            minY = Math.min(minY, ys[ids[i]]);
+            maxY = Math.max(maxY, ys[ids[i]]);
+        }
+        int[] keys = (long) maxX - minX >= (long) maxY - minY ? xs : ys;
+        int middle = (from + to) >>> 1;
+        select(keys, ids, from, to - 1, middle);
+        bisect(xs, ys, ids, from, middle, cells);
+        bisect(xs, ys, ids, middle, to, cells);
+    }
+
+    // Quickselect: reorders ids[left .. right] so that ids[k] has the k-th smallest key, smaller keys before it and larger after.
+    private static void select(int[] keys, int[] ids, int left, int right, int k) {
+        while (left < right) {
+            int pivot = keys[ids[(left + right) >>> 1]];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (keys[ids[i]] < pivot) {
+                    i++;
+                }
+                while (keys[ids[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = ids[i];
+                    ids[i] = ids[j];
+                    ids[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void run(Runnable task) {
+        try {
+            pool.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Partitioned optimization was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Partitioned optimization failed", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package OptimizeRoute;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/*
+Distances along a street network instead of straight lines, for Route.setDistanceProvider().
+
+Every point is snapped to the closest crossing of the network (only the biggest connected part of it, so every
+two points can reach each other) and drives there in a straight line. The distance between two points is
+the straight line to their crossings plus the shortest road distance between those, from a ContractionHierarchy
+built when the provider is made. Two points at the same crossing are the straight line apart.
+
+table() does not look distances up pair by pair: it runs the many-to-many bucket search of the hierarchy, one
+small search per stop, and fills whole rows in parallel. Up to MATRIX_LIMIT stops the full matrix is computed
+at once (4 * n * n bytes, 400 MB at 10,000 stops); above that rows are computed on demand into a DistanceRowCache.
+So there is no need to wrap this provider in CachedDistance.
+*/
+public class RoadDistance implements DistanceProvider {
+
+    public static final int MATRIX_LIMIT = 10_000;
+
+    private final RoadGraph graph;
+    private final ContractionHierarchy hierarchy;
+    // The crossings of the biggest connected part, for snapping; snapNode maps a grid id back to its graph node.
+    private final SpatialGrid snapGrid;
+    private final int[] snapNode;
+
+    public RoadDistance(RoadGraph graph) {
+        this.graph = graph;
+        this.hierarchy = new ContractionHierarchy(graph);
+        boolean[] reachable = graph.largestComponent();
+        int count = 0;
+        int[] xs = new int[graph.getNodeCount()];
+        int[] ys = new int[graph.getNodeCount()];
+        int[] nodes = new int[graph.getNodeCount()];
+        for (int v = 0; v < graph.getNodeCount(); v++) {
+            if (reachable[v]) {
+                xs[count] = graph.getX(v);
+                ys[count] = graph.getY(v);
+                nodes[count++] = v;
+            }
+        }
+        if (count == 0) {
+            throw new IllegalArgumentException("The road network has no crossings");
+        }
+        this.snapGrid = SpatialGrid.of(xs, ys, count);
+        this.snapNode = Arrays.copyOf(nodes, count);
+    }
+
+    // Loads an edge-list file (see RoadGraph) and builds the hierarchy.
+    public static RoadDistance load(Path path) throws IOException {
+        return new RoadDistance(RoadGraph.load(path));
+    }
+
+    public RoadGraph getGraph() {
+        return graph;
+    }
+    public ContractionHierarchy getHierarchy() {
+        return hierarchy;
+    }
+
+    // The crossing a point drives to first.
+    public int snap(int x, int y) {
+        return snapNode[snapGrid.nearest(x, y)];
+    }
+
+    @Override
+    public double distance(int fromX, int fromY, int toX, int toY) {
+        int from = snap(fromX, fromY);
+        int to = snap(toX, toY);
+        if (from == to) {
+            return EuclideanDistance.INSTANCE.distance(fromX, fromY, toX, toY);
+        }
+        return connector(fromX, fromY, from) + hierarchy.distance(from, to) + connector(toX, toY, to);
+    }
+
+    // One Dijkstra over the network from the point's crossing serves all the stops.
+    @Override
+    public double[] distancesFrom(int x, int y, int[] xs, int[] ys, int count) {
+        int from = snap(x, y);
+        double[] road = graph.shortestDistances(from);
+        double start = connector(x, y, from);
+        double[] distances = new double[count];
+        for (int i = 0; i < count; i++) {
+            int to = snap(xs[i], ys[i]);
+            distances[i] = from == to
+                    ? EuclideanDistance.INSTANCE.distance(x, y, xs[i], ys[i])
+                    : start + road[to] + connector(xs[i], ys[i], to);
+        }
+        return distances;
+    }
+
+    @Override
+    public DistanceTable table(int[] xs, int[] ys, int count) {
+        int[] nodes = new int[count];
+        double[] connectors = new double[count];
+        IntStream.range(0, count).parallel().forEach(i -> {
+            nodes[i] = snap(xs[i], ys[i]);
+            connectors[i] = connector(xs[i], ys[i], nodes[i]);
+        });
+        ContractionHierarchy.Buckets buckets = hierarchy.buckets(nodes, count);
+        ThreadLocal<double[]> roadRows = ThreadLocal.withInitial(() -> new double[count]);
+        DistanceRowCache.RowSource rows = (from, row) -> {
+            double[] road = roadRows.get();
+            hierarchy.row(nodes[from], buckets, road);
+            for (int to = 0; to < count; to++) {
+                row[to] = (float) (nodes[from] == nodes[to]
+                        ? EuclideanDistance.INSTANCE.distance(xs[from], ys[from], xs[to], ys[to])
+                        : connectors[from] + road[to] + connectors[to]);
+            }
+        };
+        if (count <= MATRIX_LIMIT) {
+            return new DistanceMatrix(count, rows);
+        }
+        int maxRows = (int) Math.max(1, CachedDistance.ROW_CACHE_BYTES / (4L * count));
+        return new DistanceRowCache(rows, count, maxRows);
+    }
+
+    private double connector(int x, int y, int node) {
+        return EuclideanDistance.INSTANCE.distance(x, y, graph.getX(node), graph.getY(node));
+    }
+}
@@ -0,0 +1,311 @@
+package OptimizeRoute;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/*
+A street network as a compact undirected graph in CSR form (compressed sparse rows): the edges of node v are
+edgeTarget[firstEdge[v] .. firstEdge[v + 1] - 1] with the lengths in edgeLength at the same places. Every street is
+stored once in each direction, so a node with d streets costs 2 ints and d ints and doubles, and no objects.
+
+The edge-list file has one record per line, fields separated by spaces or tabs:
+
+    # a comment
+    v <node id> <x> <y>           a crossing at map coordinates x, y
+    e <from id> <to id> [length]  a street between two crossings; without a length it is the straight-line distance
+
+Node ids are whole numbers of 0 or more and do not have to be dense. Streets can be driven both ways.
+*/
+public class RoadGraph {
+
+    private final int[] xs;
+    private final int[] ys;
+    private final int[] firstEdge;
+    private final int[] edgeTarget;
+    private final double[] edgeLength;
+
+    private RoadGraph(int[] xs, int[] ys, int[] firstEdge, int[] edgeTarget, double[] edgeLength) {
+        this.xs = xs;
+        this.ys = ys;
+        this.firstEdge = firstEdge;
+        this.edgeTarget = edgeTarget;
+        this.edgeLength = edgeLength;
+    }
+
+    public static RoadGraph load(Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return read(reader);
+        }
+    }
+
+    // Same for any other source. The reader is read to the end but not closed.
+    public static RoadGraph read(BufferedReader reader) throws IOException {
+        // File id -> node index, grown as ids come in.
+        int[] nodeOfId = new int[1024];
+        Arrays.fill(nodeOfId, -1);
+        int nodeCount = 0;
+        int[] xs = new int[1024];
+        int[] ys = new int[1024];
+        int edgeCount = 0;
+        int[] from = new int[1024];
+        int[] to = new int[1024];
+        double[] lengths = new double[1024];
+        int[] fieldStart = new int[4];
+        int[] fieldEnd = new int[4];
+
+        int lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            int fields = split(line, fieldStart, fieldEnd, lineNumber);
+            if (fields == 0 || line.charAt(fieldStart[0]) == '#') {
+                continue;
+            }
+            String kind = line.substring(fieldStart[0], fieldEnd[0]);
+            if (kind.equals("v")) {
+                if (fields != 4) {
+                    throw new IOException("Line " + lineNumber + ": a node needs an id, x and y");
+                }
+                int id = parseWhole(line, fieldStart[1], fieldEnd[1], lineNumber);
+                if (id < 0) {
+                    throw new IOException("Line " + lineNumber + ": invalid node id " + id);
+                }
+                if (id >= nodeOfId.length) {
+                    int oldLength = nodeOfId.length;
+                    nodeOfId = Arrays.copyOf(nodeOfId, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(oldLength * 2L, id + 1L)));
+                    Arrays.fill(nodeOfId, oldLength, nodeOfId.length, -1);
+                }
+                if (nodeOfId[id] != -1) {
+                    throw new IOException("Line " + lineNumber + ": node " + id + " is defined twice");
+                }
+                if (nodeCount == xs.length) {
+                    xs = Arrays.copyOf(xs, nodeCount * 2);
+                    ys = Arrays.copyOf(ys, nodeCount * 2);
+                }
+                nodeOfId[id] = nodeCount;
+                xs[nodeCount] = parseWhole(line, fieldStart[2], fieldEnd[2], lineNumber);
+                ys[nodeCount] = parseWhole(line, fieldStart[3], fieldEnd[3], lineNumber);
+                nodeCount++;
+            } else if (kind.equals("e")) {
+                if (fields != 3 && fields != 4) {
+                    throw new IOException("Line " + lineNumber + ": a street needs two node ids and an optional length");
+                }
+                if (edgeCount == from.length) {
+                    from = Arrays.copyOf(from, edgeCount * 2);
+                    to = Arrays.copyOf(to, edgeCount * 2);
+                    lengths = Arrays.copyOf(lengths, edgeCount * 2);
+                }
+                from[edgeCount] = parseWhole(line, fieldStart[1], fieldEnd[1], lineNumber);
+                to[edgeCount] = parseWhole(line, fieldStart[2], fieldEnd[2], lineNumber);
+                lengths[edgeCount] = fields == 4 ? parseLength(line, fieldStart[3], fieldEnd[3], lineNumber) : Double.NaN;
+                edgeCount++;
+            } else {
+                throw new IOException("Line " + lineNumber + ": expected a 'v' or 'e' record");
+            }
+        }
+
+        // Map the file ids of the edges to node indexes, and fill in the missing lengths.
+        for (int i = 0; i < edgeCount; i++) {
+            from[i] = nodeIndex(nodeOfId, from[i], i);
+            to[i] = nodeIndex(nodeOfId, to[i], i);
+            if (Double.isNaN(lengths[i])) {
+                lengths[i] = EuclideanDistance.INSTANCE.distance(xs[from[i]], ys[from[i]], xs[to[i]], ys[to[i]]);
+            }
+        }
+        return of(Arrays.copyOf(xs, nodeCount), Arrays.copyOf(ys, nodeCount), nodeCount, from, to, lengths, edgeCount);
+    }
+
+    /*
+    A graph over nodes 0..nodeCount-1 at xs/ys, with street i between from[i] and to[i] of lengths[i].
+    Streets from a node to itself are dropped.
+    */
+    public static RoadGraph of(int[] xs, int[] ys, int nodeCount, int[] from, int[] to, double[] lengths, int edgeCount) {
+        int[] firstEdge = new int[nodeCount + 1];
+        for (int i = 0; i < edgeCount; i++) {
+            if (lengths[i] < 0 || Double.isNaN(lengths[i]) || Double.isInfinite(lengths[i])) {
+                throw new IllegalArgumentException("Street " + i + " has an invalid length " + lengths[i]);
+            }
+            if (from[i] != to[i]) {
+                firstEdge[from[i] + 1]++;
+                firstEdge[to[i] + 1]++;
+            }
+        }
+        for (int v = 0; v < nodeCount; v++) {
+            firstEdge[v + 1] += firstEdge[v];
+        }
+        int[] fill = Arrays.copyOf(firstEdge, nodeCount);
+        int[] edgeTarget = new int[firstEdge[nodeCount]];
+        double[] edgeLength = new double[firstEdge[nodeCount]];
+        for (int i = 0; i < edgeCount; i++) {
+            if (from[i] == to[i]) {
+                continue;
+            }
+            edgeTarget[fill[from[i]]] = to[i];
+            edgeLength[fill[from[i]]++] = lengths[i];
+            edgeTarget[fill[to[i]]] = from[i];
+            edgeLength[fill[to[i]]++] = lengths[i];
+        }
+        return new RoadGraph(Arrays.copyOf(xs, nodeCount), Arrays.copyOf(ys, nodeCount), firstEdge, edgeTarget, edgeLength);
+    }
+
+    public int getNodeCount() {
+        return xs.length;
+    }
+    // Number of streets; every one is stored in both directions.
+    public int getEdgeCount() {
+        return edgeTarget.length / 2;
+    }
+    public int getX(int node) {
+        return xs[node];
+    }
+    public int getY(int node) {
+        return ys[node];
+    }
+
+    int firstEdge(int node) {
+        return firstEdge[node];
+    }
+    int edgeTarget(int edge) {
+        return edgeTarget[edge];
+    }
+    double edgeLength(int edge) {
+        return edgeLength[edge];
+    }
+
+    // Plain Dijkstra: the shortest distance from source to every node, infinity for the ones it can not reach.
+    public double[] shortestDistances(int source) {
+        double[] distance = new double[getNodeCount()];
+        Arrays.fill(distance, Double.POSITIVE_INFINITY);
+        MinHeap heap = new MinHeap();
+        distance[source] = 0;
+        heap.push(0, source);
+        while (!heap.isEmpty()) {
+            double d = heap.peekKey();
+            int node = heap.pop();
+            if (d > distance[node]) {
+                continue;
+            }
+            for (int e = firstEdge[node]; e < firstEdge[node + 1]; e++) {
+                int next = edgeTarget[e];
+                double through = d + edgeLength[e];
+                if (through < distance[next]) {
+                    distance[next] = through;
+                    heap.push(through, next);
+                }
+            }
+        }
+        return distance;
+    }
+
+    /*
+    Marks the nodes of the biggest connected part of the network. Stops are only snapped to those,
+    so every two stops can reach each other even when the file has a few streets that lead nowhere.
+    */
+    boolean[] largestComponent() {
+        int nodeCount = getNodeCount();
+        int[] component = new int[nodeCount];
+        Arrays.fill(component, -1);
+        int[] stack = new int[nodeCount];
+        int largest = -1;
+        int largestSize = 0;
+        int components = 0;
+        for (int root = 0; root < nodeCount; root++) {
+            if (component[root] != -1) {
+                continue;
+            }
+            int size = 0;
+            int top = 0;
+            stack[top++] = root;
+            component[root] = components;
+            while (top > 0) {
+                int node = stack[--top];
+                size++;
+                for (int e = firstEdge[node]; e < firstEdge[node + 1]; e++) {
+                    int next = edgeTarget[e];
+                    if (component[next] == -1) {
+                        component[next] = components;
+                        stack[top++] = next;
+                    }
+                }
+            }
+            if (size > largestSize) {
+                largestSize = size;
+                largest = components;
+            }
+            components++;
+        }
+        boolean[] inLargest = new boolean[nodeCount];
+        for (int v = 0; v < nodeCount; v++) {
+            inLargest[v] = component[v] == largest;
+        }
+        return inLargest;
+    }
+
+    private static int nodeIndex(int[] nodeOfId, int id, int edge) throws IOException {
+        if (id < 0 || id >= nodeOfId.length || nodeOfId[id] == -1) {
+            throw new IOException("Street " + (edge + 1) + " uses node " + id + ", which has no 'v' record");
+        }
+        return nodeOfId[id];
+    }
+
+    // Finds the fields of a line. Returns how many there are; more than the arrays hold is an error.
+    private static int split(String line, int[] fieldStart, int[] fieldEnd, int lineNumber) throws IOException {
+        int count = 0;
+        int position = 0;
+        while (true) {
+            while (position < line.length() && isSpace(line.charAt(position))) {
+                position++;
+            }
+            if (position == line.length()) {
+                return count;
+            }
+            if (count == fieldStart.length) {
+                if (line.charAt(fieldStart[0]) == '#') {
+                    return count;
+                }
+                throw new IOException("Line " + lineNumber + ": too many fields");
+            }
+            fieldStart[count] = position;
+            while (position < line.length() && !isSpace(line.charAt(position))) {
+                position++;
+            }
+            fieldEnd[count++] = position;
+        }
+    }
+
+    private static int parseWhole(String line, int start, int end, int lineNumber) throws IOException {
+        boolean negative = line.charAt(start) == '-';
+        int position = negative ? start + 1 : start;
+        if (position == end) {
+            throw new IOException("Line " + lineNumber + ": expected a whole number");
+        }
+        long value = 0;
+        for (; position < end; position++) {
+            char c = line.charAt(position);
+            if (c < '0' || c > '9') {
+                throw new IOException("Line " + lineNumber + ": expected a whole number, got " + line.substring(start, end));
+            }
+            value = value * 10 + (c - '0');
+            if (value > Integer.MAX_VALUE) {
+                throw new IOException("Line " + lineNumber + ": number too big");
+            }
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    private static double parseLength(String line, int start, int end, int lineNumber) throws IOException {
+        try {
+            return Double.parseDouble(line.substring(start, end));
+        } catch (NumberFormatException e) {
+            throw new IOException("Line " + lineNumber + ": invalid length " + line.substring(start, end));
+        }
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\r';
+    }
+}
@@ -1,12 +1,47 @@
 package OptimizeRoute;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
 
 public class Route {
 
+    // Default time budget for the improvement stage of optimizeRoute(), in milliseconds.
+    public static final long DEFAULT_IMPROVEMENT_TIME_LIMIT = 2000;
+    // applyChanges() optimizes the whole route instead of repairing it once a batch changes more than this share of the stops.
+    private static final double BATCH_OPTIMIZE_SHARE = 0.25;
+    // How many nearby stops insertLocation() and the local repair look at.
+    private static final int REPAIR_CANDIDATES = 8;
+    // Upper bound on the moves tried by one local repair, so a single edit stays cheap on any route size.
+    private static final int REPAIR_BUDGET = 64;
+    // Longest piece of route the local repair will reverse.
+    private static final int REPAIR_WINDOW = 50;
+
     private Node head;
     private Node tail;
     private int size;
+    private long improvementTimeLimit = DEFAULT_IMPROVEMENT_TIME_LIMIT;
+    private double greedyDistance;
+    private ParallelOptimizer parallelOptimizer;
+    private PartitionedOptimizer partitionedOptimizer;
+    private ImprovementEngine improvementEngine = ImprovementEngine.TWO_OPT;
+    private DistanceProvider distanceProvider = EuclideanDistance.INSTANCE;
+    private OptimizationMetrics metrics = OptimizationMetrics.NONE;
+    private TravelModel travelModel = TravelModel.DEFAULT;
+    private Location depot = new Location("Warehouse",0,0,0);
+    private TourMode tourMode = TourMode.OPEN;
+    private Location fixedEnd;
+    private long nodesCreated;
+    private long nodesReported;
+    private long modificationCount;
+    private final TrackingIndex trackingIndex = new TrackingIndex();
+    private int duplicateTrackingNumbers;
+    private SpatialGrid stopGrid;
+    private Node[] gridNodes;
+    private int gridNodeCount;
 
     public Route() {
         this.head = null;
@@ -23,9 +58,14 @@ public class Route {
     public Node getTail() {
         return tail;
     }
+    // Goes up on every change to the stops or their order, so views can tell when to redraw the route.
+    public long getModificationCount() {
+        return modificationCount;
+    }
 
     public void addLocation(Location newLocation){
         Node newNode = new Node(newLocation);
+        nodesCreated++;
 
         if(head == null){
             head = newNode;
@@ -37,6 +77,9 @@ public class Route {
         }
 
         size++;
+        modificationCount++;
+        indexNode(newNode);
+        addToGrid(newNode);
     }
 
     public void printRoute(){
@@ -48,70 +91,479 @@ public class Route {
         System.out.println("This route have total " + getSize() + " delivery locations.");
     }
 
+    // Driving distance of the route: from the depot to the first stop, along the stops, and on to the end for a closed route or one with a fixed end.
     public double totalDistance(){
-        double totalDistance = 0;
+        if(head == null){
+            return 0;
+        }
+        double totalDistance = distance(depot, head.getCurrentLocation());
         Node eachNode = head;
-        while(eachNode != null && eachNode.getNext() != null){
-            totalDistance += eachNode.getCurrentLocation().distanceTo(eachNode.getNext().getCurrentLocation());
+        while(eachNode.getNext() != null){
+            totalDistance += distance(eachNode.getCurrentLocation(), eachNode.getNext().getCurrentLocation());
             eachNode = eachNode.getNext();
         }
+        Location end = getEndLocation();
+        if(end != null){
+            totalDistance += distance(tail.getCurrentLocation(), end);
+        }
         return totalDistance;
     }
 
-    private Location findNearestLocation(Location currentLocation, ArrayList<Location> locationList){
-        Location nearestLocation = null;
-        double minDistance = Double.MAX_VALUE;
-
-        for(Location location : locationList){
-            double distance = currentLocation.distanceTo(location);
-            if(distance < minDistance){
-                minDistance = distance;
-                nearestLocation = location;
+    /*
+    Route optimization runs in two stages. First the nearest neighbor greedy pass builds a route,
+    then TourImprover removes most of its backtracking with 2-opt and Or-opt moves
+    (or LinKernighanImprover does, with ImprovementEngine.LIN_KERNIGHAN set).
+    With a ParallelOptimizer set, both stages are replaced by its multi-start search, whose first start is the same
+    greedy route. With a PartitionedOptimizer
+    set, routes bigger than one of its cells are optimized cell by cell by it instead, with a greedy pass per cell
+    (getGreedyDistance() is then the length of those cell paths).
+    Both stages only relink the existing nodes, no node is created or thrown away.
+    With metrics set, every phase of both stages is timed and reported, see OptimizationMetrics.
+    When any stop has a time window, both stages are done by TimeWindowOptimizer instead, which keeps the windows.
+    */
+    public void optimizeRoute(){
+        if(head == null){
+            return;
+        }
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
+        double distanceBefore = metrics.isEnabled() ? totalDistance() : 0;
+        if(hasTimeWindows()){
+            optimizeWithTimeWindows();
+        }else {
+            if(partitionedOptimizer != null && size > partitionedOptimizer.getCellSize()){
+                // It builds a greedy route per cell and sets greedyDistance from their lengths.
+                long time = metrics.isEnabled() ? System.nanoTime() : 0;
+                partitionedOptimizer.optimize(this);
+                phase(OptimizationMetrics.IMPROVEMENT, time);
+            }else if(parallelOptimizer != null){
+                // Its start 0 is the greedy route, and it sets greedyDistance from that.
+                long time = metrics.isEnabled() ? System.nanoTime() : 0;
+                parallelOptimizer.optimize(this);
+                phase(OptimizationMetrics.IMPROVEMENT, time);
+            }else if(!distanceProvider.isStraightLine()){
+                optimizeOnTable();
+            }else {
+                buildGreedyRoute();
+                greedyDistance = totalDistance();
+                improveRoute(improvementTimeLimit);
             }
         }
-        return nearestLocation;
+        if(metrics.isEnabled()){
+            metrics.nodesAllocated(nodesCreated - nodesReported);
+            nodesReported = nodesCreated;
+            metrics.optimizeFinished(size, System.nanoTime() - start, distanceBefore, totalDistance());
+        }
     }
 
-    public void optimizeRoute(){
+    /*
+    Nearest neighbor greedy route starting from the stop closest to the depot, see NearestNeighborTour.
+    With a provider that is not a straight line, "closest" is measured by the provider, on its distance table.
+    */
+    public void buildGreedyRoute(){
         if(head == null){
             return;
         }
-        ArrayList<Location> tempList = new ArrayList<>();
-        Node current = head;
-        while(current != null){
-            tempList.add(current.getCurrentLocation());
-            current = current.getNext();
+        long time = metrics.isEnabled() ? System.nanoTime() : 0;
+        Node[] nodes = toArray();
+        int[] xs = new int[size];
+        int[] ys = new int[size];
+        for(int i = 0; i < size; i++){
+            xs[i] = nodes[i].getCurrentLocation().getX();
+            ys[i] = nodes[i].getCurrentLocation().getY();
         }
-        head = null;
-        tail = null;
-        size = 0;
+        time = phase(OptimizationMetrics.COPY_OUT, time);
+        int[] order;
+        if(distanceProvider.isStraightLine()){
+            order = NearestNeighborTour.build(xs, ys, size, depot.getX(), depot.getY(), null, metrics);
+            time = metrics.isEnabled() ? System.nanoTime() : 0;
+        }else {
+            DistanceTable distances = distanceProvider.table(xs, ys, size);
+            int[] neighbors = improvementEngine.buildNeighbors(xs, ys, size, distanceProvider, distances);
+            time = phase(OptimizationMetrics.NEIGHBOR_LISTS, time);
+            order = NearestNeighborTour.build(distances, size, neighbors,
+                    distanceProvider.distancesFrom(depot.getX(), depot.getY(), xs, ys, size), null);
+            time = phase(OptimizationMetrics.CONSTRUCTION, time);
+        }
+        relink(nodes, order);
+        phase(OptimizationMetrics.RELINK, time);
+    }
+
+    /*
+    Instant route along a Hilbert curve, walked from the end closer to the depot, see HilbertCurve.
+    O(n), so it is a quick first draft for routes too big to wait for the greedy pass, or a start for improveRoute().
+    Time windows and the end of the tour are not looked at.
+    */
+    public void buildHilbertRoute(){
+        if(head == null){
+            return;
+        }
+        long time = metrics.isEnabled() ? System.nanoTime() : 0;
+        Node[] nodes = toArray();
+        int[] xs = new int[size];
+        int[] ys = new int[size];
+        for(int i = 0; i < size; i++){
+            xs[i] = nodes[i].getCurrentLocation().getX();
+            ys[i] = nodes[i].getCurrentLocation().getY();
+        }
+        time = phase(OptimizationMetrics.COPY_OUT, time);
+        int[] order = HilbertCurve.order(xs, ys, size, depot.getX(), depot.getY());
+        time = phase(OptimizationMetrics.CONSTRUCTION, time);
+        relink(nodes, order);
+        phase(OptimizationMetrics.RELINK, time);
+    }
+
+    /*
+    The route buildHilbertRoute() would make, as a TourSnapshot with its length, without changing this route.
+    Used to show or compare a first draft: the greedy pass breaks ties by the current order of the stops,
+    so reordering the route first could change the greedy route.
+    */
+    public TourSnapshot hilbertDraft(){
+        if(head == null){
+            return TourSnapshot.of(this);
+        }
+        Node[] nodes = toArray();
+        int[] xs = new int[size];
+        int[] ys = new int[size];
+        int[] serialNumbers = new int[size];
+        for(int i = 0; i < size; i++){
+            xs[i] = nodes[i].getCurrentLocation().getX();
+            ys[i] = nodes[i].getCurrentLocation().getY();
+            serialNumbers[i] = nodes[i].getCurrentLocation().getSerialNumber();
+        }
+        int[] order = HilbertCurve.order(xs, ys, size, depot.getX(), depot.getY());
+        // Only the legs of the draft are needed, so no full table is built.
+        DistanceTable distances = (from, to) -> distanceProvider.distance(xs[from], ys[from], xs[to], ys[to]);
+        return TourSnapshot.of(xs, ys, serialNumbers, order, routeEnds(xs, ys).length(distances, order), 0, false);
+    }
 
-        Location firstStop = null;
-        double distanceFromWarehouse = Double.MAX_VALUE;
-        Location warehouseLocation = new Location("Warehouse",0,0,0);
-        for(Location location : tempList){
-            double distance = warehouseLocation.distanceTo(location);
-            if(distance < distanceFromWarehouse){
-                distanceFromWarehouse = distance;
-                firstStop = location;
+    /*
+    Runs the local search of the improvement engine on the current route. A time limit of 0 runs until no move
+    improves it (for Lin-Kernighan: to the local optimum and then its fixed number of kicks).
+    */
+    public void improveRoute(long timeLimitMillis){
+        if(size < 3){
+            return;
+        }
+        long time = metrics.isEnabled() ? System.nanoTime() : 0;
+        Node[] nodes = toArray();
+        int[] xs = new int[size];
+        int[] ys = new int[size];
+        int[] order = new int[size];
+        for(int i = 0; i < size; i++){
+            xs[i] = nodes[i].getCurrentLocation().getX();
+            ys[i] = nodes[i].getCurrentLocation().getY();
+            order[i] = i;
+        }
+        time = phase(OptimizationMetrics.COPY_OUT, time);
+        DistanceTable distances = distanceProvider.table(xs, ys, size);
+        int[] neighbors = improvementEngine.buildNeighbors(xs, ys, size, distanceProvider, distances);
+        time = phase(OptimizationMetrics.NEIGHBOR_LISTS, time);
+        time = search(order, neighbors, distances, routeEnds(xs, ys), timeLimitMillis, time);
+        relink(nodes, order);
+        phase(OptimizationMetrics.RELINK, time);
+    }
+
+    /*
+    The greedy pass and improveRoute() on one distance table and one set of neighbor lists, for providers that are
+    not straight lines: the greedy pass needs them there too, and building them is most of the work.
+    */
+    private void optimizeOnTable(){
+        long time = metrics.isEnabled() ? System.nanoTime() : 0;
+        Node[] nodes = toArray();
+        int[] xs = new int[size];
+        int[] ys = new int[size];
+        for(int i = 0; i < size; i++){
+            xs[i] = nodes[i].getCurrentLocation().getX();
+            ys[i] = nodes[i].getCurrentLocation().getY();
+        }
+        time = phase(OptimizationMetrics.COPY_OUT, time);
+        DistanceTable distances = distanceProvider.table(xs, ys, size);
+        int[] neighbors = improvementEngine.buildNeighbors(xs, ys, size, distanceProvider, distances);
+        time = phase(OptimizationMetrics.NEIGHBOR_LISTS, time);
+        int[] order = NearestNeighborTour.build(distances, size, neighbors,
+                distanceProvider.distancesFrom(depot.getX(), depot.getY(), xs, ys, size), null);
+        RouteEnds ends = routeEnds(xs, ys);
+        greedyDistance = ends.length(distances, order);
+        time = phase(OptimizationMetrics.CONSTRUCTION, time);
+        if(size >= 3){
+            time = search(order, neighbors, distances, ends, improvementTimeLimit, time);
+        }
+        relink(nodes, order);
+        phase(OptimizationMetrics.RELINK, time);
+    }
+
+    // Runs the improvement engine on order in place and reports it to the metrics. Returns the time for the next phase.
+    private long search(int[] order, int[] neighbors, DistanceTable distances, RouteEnds ends, long timeLimitMillis,
+                        long time){
+        CountingDistanceTable counted = metrics.isEnabled() ? new CountingDistanceTable(distances) : null;
+        TourSearch improver = improvementEngine.create(size, neighbors, counted != null ? counted : distances, ends);
+        improver.improve(order, timeLimitMillis);
+        time = phase(OptimizationMetrics.IMPROVEMENT, time);
+        if(counted != null){
+            improver.reportPasses(metrics);
+            metrics.distanceEvaluations(counted.getCount());
+        }
+        return time;
+    }
+
+    /*
+    Cheapest insertion that keeps the time windows, then 2-opt / Or-opt moves that never make the route later,
+    see TimeWindowOptimizer. The ParallelOptimizer is not used for routes with time windows.
+    */
+    private void optimizeWithTimeWindows(){
+        long time = metrics.isEnabled() ? System.nanoTime() : 0;
+        Node[] nodes = toArray();
+        int[] xs = new int[size];
+        int[] ys = new int[size];
+        for(int i = 0; i < size; i++){
+            xs[i] = nodes[i].getCurrentLocation().getX();
+            ys[i] = nodes[i].getCurrentLocation().getY();
+        }
+        TimeWindowOptimizer optimizer = newTimeWindowOptimizer(nodes, distanceProvider.table(xs, ys, size));
+        time = phase(OptimizationMetrics.COPY_OUT, time);
+        int[] order = optimizer.build();
+        time = phase(OptimizationMetrics.CONSTRUCTION, time);
+        relink(nodes, order);
+        greedyDistance = totalDistance();
+        time = metrics.isEnabled() ? System.nanoTime() : 0;
+        optimizer.improve(order, improvementTimeLimit);
+        time = phase(OptimizationMetrics.IMPROVEMENT, time);
+        relink(nodes, order);
+        phase(OptimizationMetrics.RELINK, time);
+    }
+
+    // A TimeWindowOptimizer over the given nodes, with distances by node index.
+    TimeWindowOptimizer newTimeWindowOptimizer(Node[] nodes, DistanceTable distances){
+        int count = nodes.length;
+        double[] earliest = new double[count];
+        double[] latest = new double[count];
+        double[] service = new double[count];
+        int[] xs = new int[count];
+        int[] ys = new int[count];
+        for(int i = 0; i < count; i++){
+            Location location = nodes[i].getCurrentLocation();
+            earliest[i] = location.getEarliestTime();
+            latest[i] = location.getLatestTime();
+            service[i] = location.getServiceTime();
+            xs[i] = location.getX();
+            ys[i] = location.getY();
+        }
+        double[] depotDistance = distanceProvider.distancesFrom(depot.getX(), depot.getY(), xs, ys, count);
+        Location end = getEndLocation();
+        double[] endDistance = end == null ? null : distanceProvider.distancesFrom(end.getX(), end.getY(), xs, ys, count);
+        return new TimeWindowOptimizer(count, earliest, latest, service, distances, depotDistance, endDistance, travelModel);
+    }
+
+    // The legs at both ends of the route, for the optimizers working on the stop coordinates xs/ys.
+    RouteEnds routeEnds(int[] xs, int[] ys){
+        return RouteEnds.of(xs, ys, xs.length, distanceProvider, depot, tourMode, fixedEnd);
+    }
+
+    public boolean hasTimeWindows(){
+        for(Node node = head; node != null; node = node.getNext()){
+            if(node.getCurrentLocation().hasTimeWindow()){
+                return true;
             }
         }
+        return false;
+    }
 
-        if(firstStop != null){
-            addLocation(firstStop);
-            tempList.remove(firstStop);
+    /*
+    Drives the route as it is, leaving the depot at the travel model's start time and waiting at stops that are
+    reached too early, and returns every stop that is reached after its latest time, in route order.
+    */
+    public List<TimeWindowViolation> timeWindowViolations(){
+        List<TimeWindowViolation> violations = new ArrayList<>();
+        Location previous = depot;
+        double time = travelModel.getStartTime();
+        int position = 0;
+        for(Node node = head; node != null; node = node.getNext()){
+            Location location = node.getCurrentLocation();
+            double arrival = time + travelModel.travelTime(distance(previous, location));
+            if(arrival > location.getLatestTime()){
+                violations.add(new TimeWindowViolation(position, location, arrival));
+            }
+            time = Math.max(arrival, location.getEarliestTime()) + location.getServiceTime();
+            previous = location;
+            position++;
         }
+        return violations;
+    }
 
-        Location lastAdded = firstStop;
-        while(!tempList.isEmpty()){
-            Location nearest = findNearestLocation(lastAdded, tempList);
-            addLocation(nearest);
-            tempList.remove(nearest);
-            lastAdded = nearest;
+    // Reports the time since start as the named phase and returns the current time, when metrics are on.
+    private long phase(String name, long start){
+        if(!metrics.isEnabled()){
+            return 0;
         }
+        long now = System.nanoTime();
+        metrics.phase(name, now - start);
+        return now;
+    }
+
+    /*
+    Optimizes on background threads and returns at once, see OptimizationJob. The listener gets a TourSnapshot of
+    the best route so far every now and then, and a last one when the route has been reordered.
+    A time limit of 0 keeps searching until the job is cancelled. Leave the route alone until the job is done.
+    */
+    public OptimizationJob optimizeAsync(long timeLimitMillis, Consumer<TourSnapshot> listener){
+        OptimizationJob job = new OptimizationJob(this, timeLimitMillis,
+                Math.max(1, Runtime.getRuntime().availableProcessors() - 1), listener);
+        job.start();
+        return job;
+    }
+
+    // Route distance right after the greedy stage of the last optimizeRoute() call.
+    public double getGreedyDistance() {
+        return greedyDistance;
+    }
+    void setGreedyDistance(double greedyDistance) {
+        this.greedyDistance = greedyDistance;
     }
 
+    public ParallelOptimizer getParallelOptimizer() {
+        return parallelOptimizer;
+    }
+    // Switches optimizeRoute() to the multi-start parallel mode, or back to the single-threaded mode with null.
+    public void setParallelOptimizer(ParallelOptimizer parallelOptimizer) {
+        this.parallelOptimizer = parallelOptimizer;
+    }
+
+    public PartitionedOptimizer getPartitionedOptimizer() {
+        return partitionedOptimizer;
+    }
+    // Switches optimizeRoute() to the divide and conquer mode for routes bigger than one cell, or back with null.
+    public void setPartitionedOptimizer(PartitionedOptimizer partitionedOptimizer) {
+        this.partitionedOptimizer = partitionedOptimizer;
+    }
+
+    public ImprovementEngine getImprovementEngine() {
+        return improvementEngine;
+    }
+
+    // The local search used after the greedy pass, by optimizeRoute(), improveRoute() and optimizeAsync().
+    public void setImprovementEngine(ImprovementEngine improvementEngine) {
+        this.improvementEngine = improvementEngine;
+    }
+
+    public DistanceProvider getDistanceProvider() {
+        return distanceProvider;
+    }
+    // How distances are measured by totalDistance(), the optimizers and the local repair. Straight-line by default.
+    public void setDistanceProvider(DistanceProvider distanceProvider) {
+        this.distanceProvider = distanceProvider;
+    }
+
+    public Location getDepot() {
+        return depot;
+    }
+    // Where the route leaves from, a warehouse at (0, 0) by default. The leg to the first stop counts in totalDistance().
+    public void setDepot(Location depot) {
+        if (depot == null) {
+            throw new IllegalArgumentException("The depot can not be null");
+        }
+        this.depot = depot;
+        modificationCount++;
+    }
+
+    public TourMode getTourMode() {
+        return tourMode;
+    }
+    // Where the route ends after its last stop, see TourMode. FIXED_END needs setFixedEnd() first.
+    public void setTourMode(TourMode tourMode) {
+        if (tourMode == TourMode.FIXED_END && fixedEnd == null) {
+            throw new IllegalArgumentException("Set the end location with setFixedEnd() before using FIXED_END");
+        }
+        this.tourMode = tourMode;
+        modificationCount++;
+    }
+
+    public Location getFixedEnd() {
+        return fixedEnd;
+    }
+    // Makes the route end at the given place after its last stop, and switches the tour mode to FIXED_END.
+    public void setFixedEnd(Location fixedEnd) {
+        if (fixedEnd == null) {
+            throw new IllegalArgumentException("The end location can not be null");
+        }
+        this.fixedEnd = fixedEnd;
+        this.tourMode = TourMode.FIXED_END;
+        modificationCount++;
+    }
+
+    // Where the van goes after the last stop: the depot for CLOSED, the fixed end for FIXED_END, null for OPEN.
+    public Location getEndLocation() {
+        if (tourMode == TourMode.CLOSED) {
+            return depot;
+        }
+        return tourMode == TourMode.FIXED_END ? fixedEnd : null;
+    }
+
+    public TravelModel getTravelModel() {
+        return travelModel;
+    }
+    // Speed and start time used for time windows. 30 mph from minute 0 by default.
+    public void setTravelModel(TravelModel travelModel) {
+        this.travelModel = travelModel;
+    }
+
+    public OptimizationMetrics getMetrics() {
+        return metrics;
+    }
+    // Where optimizeRoute() reports its phase timings and counters. OptimizationMetrics.NONE (the default) turns them off.
+    public void setMetrics(OptimizationMetrics metrics) {
+        this.metrics = metrics == null ? OptimizationMetrics.NONE : metrics;
+    }
+
+    public long getImprovementTimeLimit() {
+        return improvementTimeLimit;
+    }
+    public void setImprovementTimeLimit(long improvementTimeLimit) {
+        this.improvementTimeLimit = improvementTimeLimit;
+    }
+
+    // Copies the nodes into an array in route order.
+    Node[] toArray(){
+        Node[] nodes = new Node[size];
+        Node current = head;
+        for(int i = 0; i < size; i++){
+            nodes[i] = current;
+            current = current.getNext();
+        }
+        return nodes;
+    }
+
+    // Relinks the given nodes so the route visits nodes[order[0]], nodes[order[1]], ...
+    void relink(Node[] nodes, int[] order){
+        Node previous = null;
+        for(int i = 0; i < order.length; i++){
+            Node node = nodes[order[i]];
+            node.setPrevious(previous);
+            if(previous != null){
+                previous.setNext(node);
+            }else {
+                head = node;
+            }
+            previous = node;
+        }
+        previous.setNext(null);
+        tail = previous;
+        modificationCount++;
+    }
+
+    /*
+    Numeric tracking numbers (like the 10010 + 6 digits ones) are looked up in the TrackingIndex in constant time.
+    Anything else is still found by walking the list. While some tracking number is on the route more than once,
+    the list is walked for every tracking number that is on the route, so the first copy in route order is found
+    (and deleted) no matter which copy was added first.
+    */
     public Node findTrackingNumber(String trackingNumber){
+        long key = TrackingIndex.key(trackingNumber);
+        if(key != -1){
+            Node indexed = trackingIndex.get(key);
+            if(indexed == null || duplicateTrackingNumbers == 0){
+                return indexed;
+            }
+        }
         Node currentNode = head;
         while(currentNode != null){
             if(currentNode.getCurrentLocation().getTrackingNumber().equals(trackingNumber)){
@@ -151,6 +603,416 @@ public class Route {
         targetNode.setNext(null);
         targetNode.setPrevious(null);
         size--;
+        modificationCount++;
+        unindexNode(targetNode);
+        removeFromGrid(targetNode);
         return true;
     }
+
+    /*
+    Adds a stop without re-optimizing the whole route: the new stop goes into the cheapest gap next to one of
+    its closest stops on the route, then a local repair tidies up the route around it.
+    The closest stops come from a SpatialGrid over the route, so one insertion only touches a few nodes.
+    The gap and the repair only look at distance; with time windows, run optimizeRoute() again to keep them.
+    */
+    public void insertLocation(Location newLocation){
+        if(size < 2){
+            addLocation(newLocation);
+            return;
+        }
+        Node newNode = placeLocation(newLocation);
+        repairAround(REPAIR_BUDGET, Arrays.asList(newNode, newNode.getPrevious(), newNode.getNext()));
+    }
+
+    // Links a new stop into the cheapest gap next to its closest stops, without any repair. Needs at least two stops.
+    private Node placeLocation(Location newLocation){
+        ensureGrid();
+        int[] candidates = new int[REPAIR_CANDIDATES];
+        int found = stopGrid.nearest(newLocation.getX(), newLocation.getY(), candidates.length, -1, candidates);
+
+        // Appending after the last stop and going in front of the first one are always possible.
+        Node bestPrevious = tail;
+        double bestCost = distance(tail.getCurrentLocation(), newLocation) + endLeg(newLocation) - endLeg(tail.getCurrentLocation());
+        double frontCost = insertionCost(depot, newLocation, head.getCurrentLocation());
+        if(frontCost < bestCost){
+            bestCost = frontCost;
+            bestPrevious = null;
+        }
+        for(int i = 0; i < found; i++){
+            Node candidate = gridNodes[candidates[i]];
+            Node[] gaps = {candidate.getPrevious(), candidate};
+            for(Node previous : gaps){
+                if(previous == null || previous.getNext() == null){
+                    continue;
+                }
+                double cost = insertionCost(previous.getCurrentLocation(), newLocation, previous.getNext().getCurrentLocation());
+                if(cost < bestCost){
+                    bestCost = cost;
+                    bestPrevious = previous;
+                }
+            }
+        }
+
+        Node newNode = new Node(newLocation);
+        nodesCreated++;
+        linkAfter(bestPrevious, newNode);
+        size++;
+        modificationCount++;
+        indexNode(newNode);
+        addToGrid(newNode);
+        return newNode;
+    }
+
+    /*
+    Deletes a stop without re-optimizing the whole route: the node is spliced out and the route is repaired
+    locally around the gap it leaves. Returns false if the tracking number is not on the route.
+    */
+    public boolean removeLocation(String trackingNumber){
+        Node targetNode = findTrackingNumber(trackingNumber);
+        if(targetNode == null){
+            return false;
+        }
+        Node previousNode = targetNode.getPrevious();
+        Node nextNode = targetNode.getNext();
+        deleteLocation(trackingNumber);
+        if(size >= 3){
+            ensureGrid();
+            repairAround(REPAIR_BUDGET, Arrays.asList(previousNode, nextNode));
+        }
+        return true;
+    }
+
+    /*
+    Applies a batch of changes in one go, for StopEventPipeline: the stops with the given tracking numbers come off
+    the route first, then the new stops go into their cheapest gaps, and one local repair runs over all the places
+    that changed, with as much budget as the changes would get one by one. A batch that changes more than
+    BATCH_OPTIMIZE_SHARE of the route is applied as is and followed by a full optimizeRoute() instead, because
+    by then the route has changed too much for a local repair.
+    Returns how many of the removals were on the route.
+    */
+    public int applyChanges(Collection<String> removals, Collection<Location> additions){
+        int changes = removals.size() + additions.size();
+        if(changes > BATCH_OPTIMIZE_SHARE * size){
+            int removed = 0;
+            for(String trackingNumber : removals){
+                if(deleteLocation(trackingNumber)){
+                    removed++;
+                }
+            }
+            for(Location location : additions){
+                addLocation(location);
+            }
+            optimizeRoute();
+            return removed;
+        }
+        List<Node> changed = new ArrayList<>();
+        int removed = 0;
+        for(String trackingNumber : removals){
+            Node targetNode = findTrackingNumber(trackingNumber);
+            if(targetNode == null){
+                continue;
+            }
+            changed.add(targetNode.getPrevious());
+            changed.add(targetNode.getNext());
+            deleteLocation(trackingNumber);
+            removed++;
+        }
+        for(Location location : additions){
+            if(size < 2){
+                addLocation(location);
+                changed.add(tail);
+                continue;
+            }
+            Node newNode = placeLocation(location);
+            changed.add(newNode);
+            changed.add(newNode.getPrevious());
+            changed.add(newNode.getNext());
+        }
+        if(size >= 3){
+            ensureGrid();
+            repairAround(REPAIR_BUDGET * changes, changed);
+        }
+        return removed;
+    }
+
+    private double insertionCost(Location previous, Location middle, Location next){
+        return distance(previous, middle) + distance(middle, next) - distance(previous, next);
+    }
+
+    private double distance(Location from, Location to){
+        return distanceProvider.distance(from, to);
+    }
+
+    // The drive from the given last stop to the end of the route, nothing for an open route.
+    private double endLeg(Location last){
+        Location end = getEndLocation();
+        return end == null ? 0 : distance(last, end);
+    }
+
+    // Links newNode right after previous, or in front of the head when previous is null.
+    private void linkAfter(Node previous, Node newNode){
+        Node next = previous == null ? head : previous.getNext();
+        newNode.setPrevious(previous);
+        newNode.setNext(next);
+        if(previous == null){
+            head = newNode;
+        }else {
+            previous.setNext(newNode);
+        }
+        if(next == null){
+            tail = newNode;
+        }else {
+            next.setPrevious(newNode);
+        }
+    }
+
+    private void unlink(Node node){
+        Node previous = node.getPrevious();
+        Node next = node.getNext();
+        if(previous == null){
+            head = next;
+        }else {
+            previous.setNext(next);
+        }
+        if(next == null){
+            tail = previous;
+        }else {
+            next.setPrevious(previous);
+        }
+        node.setPrevious(null);
+        node.setNext(null);
+    }
+
+    /*
+    Local repair: a small 2-opt / Or-opt search that only starts from the given nodes and the stops whose
+    edges it changes, with at most budget attempts. The legs from the depot and to the end count like any
+    other edge, so the repair may also change which stop comes first or last.
+    */
+    private void repairAround(int budget, Collection<Node> startNodes){
+        ArrayDeque<Node> work = new ArrayDeque<>();
+        for(Node node : startNodes){
+            if(node != null){
+                work.add(node);
+            }
+        }
+        int[] candidates = new int[REPAIR_CANDIDATES];
+        while(!work.isEmpty() && budget-- > 0){
+            Node node = work.poll();
+            if(node.getSpatialId() == -1){
+                continue;
+            }
+            Location location = node.getCurrentLocation();
+            int found = stopGrid.nearest(location.getX(), location.getY(), candidates.length, node.getSpatialId(), candidates);
+            if(tryRelocate(node, candidates, found, work) || tryReverse(node, candidates, found, work)){
+                work.add(node);
+            }
+        }
+    }
+
+    /*
+    Or-opt with one stop: move node into a cheaper gap next to one of its nearby stops.
+    A null gap start is the gap between the depot and the first stop.
+    */
+    private boolean tryRelocate(Node node, int[] candidates, int found, ArrayDeque<Node> work){
+        Node previous = node.getPrevious();
+        Node next = node.getNext();
+        if(previous == null && next == null){
+            return false;
+        }
+        Location location = node.getCurrentLocation();
+        Location previousLocation = previous == null ? depot : previous.getCurrentLocation();
+        double removeGain = distance(previousLocation, location);
+        if(next != null){
+            removeGain += distance(location, next.getCurrentLocation()) - distance(previousLocation, next.getCurrentLocation());
+        }else {
+            removeGain += endLeg(location) - endLeg(previousLocation);
+        }
+        for(int i = 0; i < found; i++){
+            Node candidate = gridNodes[candidates[i]];
+            Node[] gaps = {candidate.getPrevious(), candidate};
+            for(Node gapStart : gaps){
+                if(gapStart == node || gapStart == previous){
+                    continue;
+                }
+                Node gapEnd = gapStart == null ? head : gapStart.getNext();
+                if(gapEnd == node){
+                    continue;
+                }
+                Location gapLocation = gapStart == null ? depot : gapStart.getCurrentLocation();
+                double cost = gapEnd == null
+                        ? distance(gapLocation, location) + endLeg(location) - endLeg(gapLocation)
+                        : insertionCost(gapLocation, location, gapEnd.getCurrentLocation());
+                if(removeGain - cost > 1e-7){
+                    unlink(node);
+                    linkAfter(gapStart, node);
+                    for(Node changed : new Node[]{previous, next, gapStart, gapEnd}){
+                        if(changed != null){
+                            work.add(changed);
+                        }
+                    }
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /*
+    2-opt inside a short window: if a nearby stop lies at most REPAIR_WINDOW stops further down the route,
+    reversing the piece between them may remove a crossing. For the first stop, reversing the start of the
+    route so that a nearby stop comes first is tried too.
+    */
+    private boolean tryReverse(Node node, int[] candidates, int found, ArrayDeque<Node> work){
+        return reverseAfter(node, node.getCurrentLocation(), candidates, found, work)
+                || (node == head && reverseAfter(null, depot, candidates, found, work));
+    }
+
+    // Tries to reverse the piece right after before (null: right after the depot, at location) up to one of the candidates.
+    private boolean reverseAfter(Node before, Location location, int[] candidates, int found, ArrayDeque<Node> work){
+        Node first = before == null ? head : before.getNext();
+        if(first == null){
+            return false;
+        }
+        double removedEdge = distance(location, first.getCurrentLocation());
+        for(int i = 0; i < found; i++){
+            Node candidate = gridNodes[candidates[i]];
+            double addedEdge = distance(location, candidate.getCurrentLocation());
+            if(addedEdge >= removedEdge){
+                continue;
+            }
+            int steps = 0;
+            Node walker = first;
+            while(walker != null && walker != candidate && steps < REPAIR_WINDOW){
+                walker = walker.getNext();
+                steps++;
+            }
+            if(walker != candidate || candidate == first){
+                continue;
+            }
+            Node after = candidate.getNext();
+            double gain = removedEdge - addedEdge;
+            if(after != null){
+                gain += distance(candidate.getCurrentLocation(), after.getCurrentLocation())
+                        - distance(first.getCurrentLocation(), after.getCurrentLocation());
+            }else {
+                gain += endLeg(candidate.getCurrentLocation()) - endLeg(first.getCurrentLocation());
+            }
+            if(gain > 1e-7){
+                reverseBetween(before, first, candidate, after);
+                work.add(first);
+                work.add(candidate);
+                if(after != null){
+                    work.add(after);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Reverses the nodes first..last, which sit between before (null at the head) and after.
+    private void reverseBetween(Node before, Node first, Node last, Node after){
+        Node current = first;
+        while(current != after){
+            Node next = current.getNext();
+            current.setNext(current.getPrevious());
+            current.setPrevious(next);
+            current = next;
+        }
+        if(before == null){
+            head = last;
+        }else {
+            before.setNext(last);
+        }
+        last.setPrevious(before);
+        first.setNext(after);
+        if(after == null){
+            tail = first;
+        }else {
+            after.setPrevious(first);
+        }
+    }
+
+    /*
+    Builds the grid of route stops on first use; after that addLocation() and deleteLocation() keep it in sync.
+    The grid is built in one pass over the coordinates: adding the stops one by one in route order would keep
+    stepping just outside the grid's box and rebuild it over and over.
+    */
+    private void ensureGrid(){
+        if(stopGrid != null && gridNodeCount <= size * 2 + 64){
+            return;
+        }
+        Node[] nodes = toArray();
+        int[] xs = new int[size];
+        int[] ys = new int[size];
+        for(int i = 0; i < size; i++){
+            Location location = nodes[i].getCurrentLocation();
+            xs[i] = location.getX();
+            ys[i] = location.getY();
+            nodes[i].setSpatialId(i);
+        }
+        stopGrid = SpatialGrid.of(xs, ys, size);
+        gridNodes = Arrays.copyOf(nodes, Math.max(size, 16));
+        gridNodeCount = size;
+    }
+
+    private void addToGrid(Node node){
+        if(stopGrid == null){
+            return;
+        }
+        Location location = node.getCurrentLocation();
+        int id = stopGrid.add(location.getX(), location.getY());
+        if(id >= gridNodes.length){
+            gridNodes = Arrays.copyOf(gridNodes, Math.max(gridNodes.length * 2, id + 1));
+        }
+        gridNodes[id] = node;
+        gridNodeCount = id + 1;
+        node.setSpatialId(id);
+    }
+
+    private void removeFromGrid(Node node){
+        if(stopGrid == null || node.getSpatialId() == -1){
+            return;
+        }
+        stopGrid.remove(node.getSpatialId());
+        gridNodes[node.getSpatialId()] = null;
+        node.setSpatialId(-1);
+    }
+
+    private void indexNode(Node node){
+        long key = TrackingIndex.key(node.getCurrentLocation().getTrackingNumber());
+        if(key == -1){
+            return;
+        }
+        if(trackingIndex.get(key) == null){
+            trackingIndex.put(key, node);
+        }else {
+            duplicateTrackingNumbers++;
+        }
+    }
+
+    // If the same tracking number was added more than once, another copy on the route takes over the index entry.
+    private void unindexNode(Node node){
+        long key = TrackingIndex.key(node.getCurrentLocation().getTrackingNumber());
+        if(key == -1 || trackingIndex.get(key) != node){
+            if(key != -1){
+                duplicateTrackingNumbers--;
+            }
+            return;
+        }
+        trackingIndex.remove(key);
+        if(duplicateTrackingNumbers == 0){
+            return;
+        }
+        String trackingNumber = node.getCurrentLocation().getTrackingNumber();
+        Node currentNode = head;
+        while(currentNode != null){
+            if(currentNode.getCurrentLocation().getTrackingNumber().equals(trackingNumber)){
+                trackingIndex.put(key, currentNode);
+                duplicateTrackingNumbers--;
+                return;
+            }
+            currentNode = currentNode.getNext();
+        }
+    }
 }
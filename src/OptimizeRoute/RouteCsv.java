@@ -0,0 +1,406 @@
+package OptimizeRoute;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/*
+CSV import and export of delivery stops, in the "Sequence,Tracking Number,X,Y,SerialNumber" layout that Excel opens.
+
+Both directions stream: the reader parses the bytes of each line straight into a Location and hands it on
+(to Route.addLocation() for example) without building lines, lists or split() arrays first, and the writer encodes
+every row into one reused ByteBuffer that is flushed to a FileChannel when it fills up, without format strings.
+A header line, empty lines and \r\n line ends are accepted on import. The Sequence column is only informational:
+stops are added in the order of the file.
+
+Three optional columns carry the delivery window and the service time of a stop: Earliest, Latest and ServiceTime,
+in minutes (see Location.setTimeWindow()). A row has either 5 or 8 columns; an empty Earliest, Latest or ServiceTime
+means no bound or no service time. Routes are written with the extra columns only if one of their stops uses them.
+*/
+public class RouteCsv {
+
+    public static final String HEADER = "Sequence,Tracking Number,X,Y,SerialNumber\n";
+    public static final String HEADER_WITH_TIMES = "Sequence,Tracking Number,X,Y,SerialNumber,Earliest,Latest,ServiceTime\n";
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int COLUMNS = 5;
+    private static final int COLUMNS_WITH_TIMES = 8;
+
+    private RouteCsv() {
+    }
+
+    public static Route readRoute(Path path) throws IOException {
+        Route route = new Route();
+        read(path, route::addLocation);
+        return route;
+    }
+
+    // RouteStore cannot hold time windows, so a file that has them fails here and has to be read with readRoute().
+    public static RouteStore readStore(Path path) throws IOException {
+        RouteStore store = new RouteStore();
+        read(path, location -> {
+            if (location.hasTimeWindow() || location.getServiceTime() != 0) {
+                throw new IllegalArgumentException("Stop " + location.getTrackingNumber()
+                        + " has a time window, which RouteStore cannot hold; use readRoute()");
+            }
+            store.addLocation(location);
+        });
+        // The number of stops is only known at the end, so give back the room the last growth left over.
+        store.trimToSize();
+        return store;
+    }
+
+    // Parses every stop in the file and passes it to the consumer. Returns the number of stops read.
+    public static int read(Path path, Consumer<Location> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(channel, consumer);
+        }
+    }
+
+    // Same for any other source, for example a request body. The channel is read to the end but not closed.
+    public static int read(ReadableByteChannel channel, Consumer<Location> consumer) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        int[] fieldStart = new int[COLUMNS_WITH_TIMES];
+        int[] fieldEnd = new int[COLUMNS_WITH_TIMES];
+        int lineNumber = 0;
+        int stops = 0;
+        boolean endOfFile = false;
+        while (!endOfFile) {
+            if (!buffer.hasRemaining()) {
+                // A single line fills the whole buffer, make room for the rest of it.
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+            }
+            endOfFile = channel.read(buffer) == -1;
+            byte[] bytes = buffer.array();
+            int limit = buffer.position();
+            int lineStart = 0;
+            while (true) {
+                int lineEnd = indexOf(bytes, (byte) '\n', lineStart, limit);
+                if (lineEnd == -1) {
+                    if (!endOfFile || lineStart == limit) {
+                        break;
+                    }
+                    lineEnd = limit;
+                }
+                lineNumber++;
+                Location location = parseLine(bytes, lineStart, lineEnd, lineNumber, stops == 0, fieldStart, fieldEnd);
+                if (location != null) {
+                    consumer.accept(location);
+                    stops++;
+                }
+                lineStart = Math.min(lineEnd + 1, limit);
+            }
+            // Keep the unfinished last line for the next read.
+            buffer.position(lineStart).limit(limit);
+            buffer.compact();
+        }
+        return stops;
+    }
+
+    public static void write(Route route, Path path) throws IOException {
+        try (FileChannel channel = open(path)) {
+            write(route, channel);
+        }
+    }
+
+    // Writes the route to any channel, for example a response body. The channel is not closed.
+    public static void write(Route route, WritableByteChannel channel) throws IOException {
+        boolean withTimes = false;
+        for (Node current = route.getHead(); current != null && !withTimes; current = current.getNext()) {
+            Location location = current.getCurrentLocation();
+            withTimes = location.hasTimeWindow() || location.getServiceTime() != 0;
+        }
+        try (Encoder encoder = new Encoder(channel)) {
+            encoder.putAscii(withTimes ? HEADER_WITH_TIMES : HEADER);
+            Node current = route.getHead();
+            int sequence = 1;
+            while (current != null) {
+                Location location = current.getCurrentLocation();
+                encoder.putRow(sequence++, location.getTrackingNumber(), location.getX(), location.getY(), location.getSerialNumber());
+                if (withTimes) {
+                    encoder.putTimes(location.getEarliestTime(), location.getLatestTime(), location.getServiceTime());
+                }
+                encoder.putByte('\n');
+                current = current.getNext();
+            }
+        }
+    }
+
+    public static void write(RouteStore store, Path path) throws IOException {
+        try (FileChannel channel = open(path); Encoder encoder = new Encoder(channel)) {
+            encoder.putAscii(HEADER);
+            for (int position = 0; position < store.getSize(); position++) {
+                encoder.putNumber(position + 1);
+                encoder.putByte(',');
+                encoder.putNumber(store.getTrackingNumber(position));
+                encoder.putByte(',');
+                encoder.putNumber(store.getX(position));
+                encoder.putByte(',');
+                encoder.putNumber(store.getY(position));
+                encoder.putByte(',');
+                encoder.putNumber(store.getSerialNumber(position));
+                encoder.putByte('\n');
+            }
+        }
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    // Returns null for the header line and for empty lines.
+    private static Location parseLine(byte[] bytes, int start, int end, int lineNumber, boolean headerAllowed,
+                                      int[] fieldStart, int[] fieldEnd)
+            throws IOException {
+        if (end > start && bytes[end - 1] == '\r') {
+            end--;
+        }
+        if (end == start) {
+            return null;
+        }
+        int field = 0;
+        fieldStart[0] = start;
+        for (int i = start; i < end; i++) {
+            if (bytes[i] == ',') {
+                if (field == COLUMNS_WITH_TIMES - 1) {
+                    throw new IOException("Line " + lineNumber + ": more than " + COLUMNS_WITH_TIMES + " columns");
+                }
+                fieldEnd[field++] = i;
+                fieldStart[field] = i + 1;
+            }
+        }
+        fieldEnd[field] = end;
+        if (field != COLUMNS - 1 && field != COLUMNS_WITH_TIMES - 1) {
+            throw new IOException("Line " + lineNumber + ": expected " + COLUMNS + " or " + COLUMNS_WITH_TIMES
+                    + " columns, found " + (field + 1));
+        }
+        if (headerAllowed && !isNumber(bytes, fieldStart[0], fieldEnd[0])) {
+            return null;
+        }
+
+        int trackingStart = fieldStart[1];
+        int trackingEnd = fieldEnd[1];
+        while (trackingStart < trackingEnd && bytes[trackingStart] == ' ') {
+            trackingStart++;
+        }
+        while (trackingEnd > trackingStart && bytes[trackingEnd - 1] == ' ') {
+            trackingEnd--;
+        }
+        if (trackingEnd - trackingStart >= 2 && bytes[trackingStart] == '"' && bytes[trackingEnd - 1] == '"') {
+            trackingStart++;
+            trackingEnd--;
+        }
+        if (trackingStart == trackingEnd) {
+            throw new IOException("Line " + lineNumber + ": missing tracking number");
+        }
+        String trackingNumber = new String(bytes, trackingStart, trackingEnd - trackingStart, StandardCharsets.UTF_8);
+        int x = parseInt(bytes, fieldStart[2], fieldEnd[2], lineNumber, "X");
+        int y = parseInt(bytes, fieldStart[3], fieldEnd[3], lineNumber, "Y");
+        int serialNumber = parseInt(bytes, fieldStart[4], fieldEnd[4], lineNumber, "SerialNumber");
+        Location location = new Location(trackingNumber, x, y, serialNumber);
+        if (field == COLUMNS_WITH_TIMES - 1) {
+            double earliestTime = parseTime(bytes, fieldStart[5], fieldEnd[5], lineNumber, "Earliest", 0);
+            double latestTime = parseTime(bytes, fieldStart[6], fieldEnd[6], lineNumber, "Latest", Double.POSITIVE_INFINITY);
+            double serviceTime = parseTime(bytes, fieldStart[7], fieldEnd[7], lineNumber, "ServiceTime", 0);
+            try {
+                location.setTimeWindow(earliestTime, latestTime);
+                location.setServiceTime(serviceTime);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Line " + lineNumber + ": " + e.getMessage());
+            }
+        }
+        return location;
+    }
+
+    private static boolean isNumber(byte[] bytes, int start, int end) {
+        while (start < end && bytes[start] == ' ') {
+            start++;
+        }
+        return start < end && (bytes[start] == '-' || (bytes[start] >= '0' && bytes[start] <= '9'));
+    }
+
+    private static int parseInt(byte[] bytes, int start, int end, int lineNumber, String column) throws IOException {
+        while (start < end && bytes[start] == ' ') {
+            start++;
+        }
+        while (end > start && bytes[end - 1] == ' ') {
+            end--;
+        }
+        boolean negative = start < end && bytes[start] == '-';
+        if (negative) {
+            start++;
+        }
+        if (start == end || end - start > 10) {
+            throw new IOException("Line " + lineNumber + ": invalid " + column);
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IOException("Line " + lineNumber + ": invalid " + column);
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IOException("Line " + lineNumber + ": " + column + " is out of range");
+        }
+        return (int) value;
+    }
+
+    // A number of minutes, or the default when the field is empty. Times are rare enough to go through parseDouble().
+    private static double parseTime(byte[] bytes, int start, int end, int lineNumber, String column, double empty)
+            throws IOException {
+        while (start < end && bytes[start] == ' ') {
+            start++;
+        }
+        while (end > start && bytes[end - 1] == ' ') {
+            end--;
+        }
+        if (start == end) {
+            return empty;
+        }
+        try {
+            return Double.parseDouble(new String(bytes, start, end - start, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException e) {
+            throw new IOException("Line " + lineNumber + ": invalid " + column);
+        }
+    }
+
+    private static int indexOf(byte[] bytes, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+    Writes rows into one reused buffer and flushes it to the channel whenever it is nearly full.
+    The bytes are put into the ByteBuffer's backing array directly, which skips the bounds check of every put().
+    */
+    private static class Encoder implements AutoCloseable {
+        // Longest possible number: "-" and 19 digits.
+        private static final int MAX_NUMBER_LENGTH = 20;
+
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final byte[] bytes = buffer.array();
+        private final byte[] digits = new byte[MAX_NUMBER_LENGTH];
+        private int position;
+
+        Encoder(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        void putRow(int sequence, String trackingNumber, int x, int y, int serialNumber) throws IOException {
+            putNumber(sequence);
+            putByte(',');
+            putAscii(trackingNumber);
+            putByte(',');
+            putNumber(x);
+            putByte(',');
+            putNumber(y);
+            putByte(',');
+            putNumber(serialNumber);
+        }
+
+        // The optional time columns; an open end of the window is left empty.
+        void putTimes(double earliestTime, double latestTime, double serviceTime) throws IOException {
+            putByte(',');
+            putTime(earliestTime);
+            putByte(',');
+            if (latestTime != Double.POSITIVE_INFINITY) {
+                putTime(latestTime);
+            }
+            putByte(',');
+            putTime(serviceTime);
+        }
+
+        // Whole minutes go through putNumber(), anything else is written the way Double.toString() does.
+        void putTime(double minutes) throws IOException {
+            if (minutes == (long) minutes) {
+                putNumber((long) minutes);
+            } else {
+                putAscii(Double.toString(minutes));
+            }
+        }
+
+        void putByte(char value) throws IOException {
+            if (position == bytes.length) {
+                flush();
+            }
+            bytes[position++] = (byte) value;
+        }
+
+        // Plain ASCII text goes byte by byte; anything else is encoded as UTF-8.
+        void putAscii(String text) throws IOException {
+            int length = text.length();
+            for (int i = 0; i < length; i++) {
+                if (text.charAt(i) >= 0x80) {
+                    for (byte value : text.getBytes(StandardCharsets.UTF_8)) {
+                        if (position == bytes.length) {
+                            flush();
+                        }
+                        bytes[position++] = value;
+                    }
+                    return;
+                }
+            }
+            if (bytes.length - position < length) {
+                flush();
+            }
+            if (length > bytes.length) {
+                putBytesSlowly(text);
+                return;
+            }
+            for (int i = 0; i < length; i++) {
+                bytes[position++] = (byte) text.charAt(i);
+            }
+        }
+
+        void putNumber(long value) throws IOException {
+            if (bytes.length - position < MAX_NUMBER_LENGTH) {
+                flush();
+            }
+            if (value < 0) {
+                bytes[position++] = '-';
+            }
+            int count = 0;
+            do {
+                // value % 10 keeps the sign of value, so this also works for Long.MIN_VALUE.
+                digits[count++] = (byte) ('0' + Math.abs(value % 10));
+                value /= 10;
+            } while (value != 0);
+            while (count > 0) {
+                bytes[position++] = digits[--count];
+            }
+        }
+
+        private void putBytesSlowly(String text) throws IOException {
+            for (int i = 0; i < text.length(); i++) {
+                putByte(text.charAt(i));
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.clear().limit(position);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            position = 0;
+        }
+
+        // Flushes what is left; closing the channel is up to its owner.
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package OptimizeRoute;
+
+/*
+The legs at both ends of a route, for the optimizers that work on stop ids: startCost(i) is the drive from the depot
+to stop i when i is the first stop, endCost(i) the drive from stop i to wherever the route ends when i is the last one
+(nothing for an open route). Both are looked up once per stop when the optimization starts, so the optimizers can
+treat the two ends like any other edge without asking the DistanceProvider again.
+*/
+public final class RouteEnds {
+
+    // A path with two free ends: no leg costs anything, so any stop can be first or last.
+    public static final RouteEnds NONE = new RouteEnds(null, null);
+
+    private final double[] startCost;
+    private final double[] endCost;
+
+    private RouteEnds(double[] startCost, double[] endCost) {
+        this.startCost = startCost;
+        this.endCost = endCost;
+    }
+
+    // Legs of a route over the first count stops of xs/ys that leaves from depot and ends as the mode says.
+    public static RouteEnds of(int[] xs, int[] ys, int count, DistanceProvider distanceProvider,
+                               Location depot, TourMode mode, Location fixedEnd) {
+        double[] startCost = distanceProvider.distancesFrom(depot.getX(), depot.getY(), xs, ys, count);
+        double[] endCost = null;
+        if (mode == TourMode.CLOSED) {
+            endCost = startCost;
+        } else if (mode == TourMode.FIXED_END) {
+            endCost = distanceProvider.distancesFrom(fixedEnd.getX(), fixedEnd.getY(), xs, ys, count);
+        }
+        return new RouteEnds(startCost, endCost);
+    }
+
+    // An open route leaving from (startX, startY).
+    public static RouteEnds open(int[] xs, int[] ys, int count, DistanceProvider distanceProvider, int startX, int startY) {
+        return new RouteEnds(distanceProvider.distancesFrom(startX, startY, xs, ys, count), null);
+    }
+
+    // A piece of a longer route that comes from (startX, startY) and goes on to (endX, endY).
+    public static RouteEnds between(int[] xs, int[] ys, int count, DistanceProvider distanceProvider,
+                                    int startX, int startY, int endX, int endY) {
+        return new RouteEnds(distanceProvider.distancesFrom(startX, startY, xs, ys, count),
+                distanceProvider.distancesFrom(endX, endY, xs, ys, count));
+    }
+
+    public double startCost(int stop) {
+        return startCost == null ? 0 : startCost[stop];
+    }
+
+    public double endCost(int stop) {
+        return endCost == null ? 0 : endCost[stop];
+    }
+
+    // True when the route goes on somewhere after its last stop.
+    public boolean hasEnd() {
+        return endCost != null;
+    }
+
+    // Length of a visiting order with both legs, measured like Route.totalDistance().
+    public double length(DistanceTable distances, int[] order) {
+        if (order.length == 0) {
+            return 0;
+        }
+        double length = startCost(order[0]) + endCost(order[order.length - 1]);
+        for (int i = 1; i < order.length; i++) {
+            length += distances.distance(order[i - 1], order[i]);
+        }
+        return length;
+    }
+}
@@ -0,0 +1,410 @@
+package OptimizeRoute;
+
+import javax.swing.JComponent;
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.BitSet;
+
+/*
+Draws a route for the RoutePanels, fast enough for routes with hundreds of thousands of stops.
+
+The route lines and stop dots are drawn once into an offscreen image, which is then only copied to the screen.
+The image is drawn again only when the route (a new TourSnapshot), the panel size or the view changes, so repaints
+from Swing (another window moving over the panel, the log growing next to it) cost one image copy.
+When it is drawn, the route is simplified to what the screen can show:
+- the lines go into Path2D batches of PATH_BATCH points, one draw call each (one path for the whole route makes
+  the wide-line rasterizer slow down sharply at 100k points),
+- segments completely outside the panel are left out, and a point closer than one pixel to the last one is skipped,
+- at most one dot is drawn per dot-sized patch of the screen, so a dense city becomes a filled area, not 100k ovals,
+- above DETAIL_LIMIT visible stops the dots become small squares, lines are one pixel wide and antialiasing is
+  turned off,
+- serial numbers are only written when few stops are visible.
+The start marker is drawn over the image on every repaint.
+
+World coordinates go to the screen in two steps: the base transform the panel sets for its size (setBase()), then
+the user's view, a zoom around a point plus a pan. installPanZoom() lets the mouse drag (pan), turn the wheel
+(zoom) and double-click (back to the whole route). While dragging, the old image is just moved; it is drawn again
+once the mouse is released.
+
+stopAt() finds the stop under the mouse from a SpatialGrid over the screen positions of the visible stops. The grid
+is built on the first lookup after the image was drawn, so it follows the route, the panel size and the view, and
+hovering over a 100k-stop map costs a few cell visits per mouse move instead of a pass over every stop.
+*/
+public class RouteRenderer {
+
+    // Above this many visible stops, dots are drawn as small squares without antialiasing.
+    public static final int DETAIL_LIMIT = 20000;
+    // Serial numbers are written next to the dots only when at most this many stops are visible.
+    public static final int LABEL_LIMIT = 300;
+    private static final int PATH_BATCH = 256;
+    private static final BasicStroke THIN_STROKE = new BasicStroke(1);
+    private static final double MIN_ZOOM = 0.5;
+    private static final double MAX_ZOOM = 5000;
+    private static final double ZOOM_STEP = 1.25;
+    private static final Color START_COLOR = new Color(220, 53, 69);
+    private static final Color STOP_COLOR = new Color(0, 123, 255);
+
+    private final Color lineColor;
+    private final BasicStroke lineStroke;
+    private final int dotSize;
+    private final int startSize;
+    private final String startLabel;
+    private final Color startLabelColor;
+    private final boolean serialLabels;
+
+    // Base transform of the panel, then the user's zoom and pan.
+    private double baseScaleX = 1;
+    private double baseScaleY = 1;
+    private double baseOffsetX;
+    private double baseOffsetY;
+    private double zoom = 1;
+    private double panX;
+    private double panY;
+    private boolean dragging;
+
+    // The cached image and what it was drawn from.
+    private BufferedImage layer;
+    private TourSnapshot layerTour;
+    private double layerScaleX;
+    private double layerScaleY;
+    private double layerOffsetX;
+    private double layerOffsetY;
+    private double layerZoom;
+    private double layerPanX;
+    private double layerPanY;
+    private int visibleStops;
+    private long renderCount;
+    // Screen positions of the stops in the image, and the hit-test grid over the visible ones (built when needed).
+    private float[] layerXs = new float[0];
+    private float[] layerYs = new float[0];
+    private SpatialGrid hitGrid;
+    private int[] hitPositions;
+
+    public RouteRenderer(Color lineColor, float lineWidth, int dotSize, int startSize, String startLabel,
+                         Color startLabelColor, boolean serialLabels) {
+        this.lineColor = lineColor;
+        this.lineStroke = new BasicStroke(lineWidth);
+        this.dotSize = dotSize;
+        this.startSize = startSize;
+        this.startLabel = startLabel;
+        this.startLabelColor = startLabelColor;
+        this.serialLabels = serialLabels;
+    }
+
+    // The panel's own fit of the map into its size, before the user's zoom and pan.
+    public void setBase(double scaleX, double scaleY, double offsetX, double offsetY) {
+        baseScaleX = scaleX;
+        baseScaleY = scaleY;
+        baseOffsetX = offsetX;
+        baseOffsetY = offsetY;
+    }
+
+    public double screenX(double worldX) {
+        return (worldX * baseScaleX + baseOffsetX) * zoom + panX;
+    }
+    public double screenY(double worldY) {
+        return (worldY * baseScaleY + baseOffsetY) * zoom + panY;
+    }
+    public double worldX(double screenX) {
+        return ((screenX - panX) / zoom - baseOffsetX) / baseScaleX;
+    }
+    public double worldY(double screenY) {
+        return ((screenY - panY) / zoom - baseOffsetY) / baseScaleY;
+    }
+
+    // Zooms by the factor, keeping the point under (screenX, screenY) where it is.
+    public void zoomAt(double factor, double screenX, double screenY) {
+        double newZoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom * factor));
+        panX = screenX - (screenX - panX) * newZoom / zoom;
+        panY = screenY - (screenY - panY) * newZoom / zoom;
+        zoom = newZoom;
+    }
+
+    public void panBy(double dx, double dy) {
+        panX += dx;
+        panY += dy;
+    }
+
+    public void resetView() {
+        zoom = 1;
+        panX = 0;
+        panY = 0;
+    }
+
+    public double getZoom() {
+        return zoom;
+    }
+    // Stops inside the panel at the last time the image was drawn.
+    public int getVisibleStops() {
+        return visibleStops;
+    }
+    // How many times the image has been drawn, to see that plain repaints do not draw it again.
+    public long getRenderCount() {
+        return renderCount;
+    }
+
+    // Mouse drag pans, the wheel zooms around the pointer and a double-click shows the whole route again.
+    public void installPanZoom(JComponent component) {
+        MouseAdapter adapter = new MouseAdapter() {
+            private int lastX;
+            private int lastY;
+
+            @Override
+            public void mousePressed(MouseEvent e) {
+                lastX = e.getX();
+                lastY = e.getY();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                panBy(e.getX() - lastX, e.getY() - lastY);
+                lastX = e.getX();
+                lastY = e.getY();
+                dragging = true;
+                component.repaint();
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                if (dragging) {
+                    dragging = false;
+                    component.repaint();
+                }
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                zoomAt(Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation()), e.getX(), e.getY());
+                component.repaint();
+            }
+
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    resetView();
+                    component.repaint();
+                }
+            }
+        };
+        component.addMouseListener(adapter);
+        component.addMouseMotionListener(adapter);
+        component.addMouseWheelListener(adapter);
+    }
+
+    // Draws the tour into a width x height area, from the cached image when nothing has changed.
+    public void paint(Graphics2D g2, TourSnapshot tour, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        if (needsRender(tour, width, height)) {
+            render(tour, width, height);
+        }
+        g2.drawImage(layer, (int) Math.round(panX - layerPanX), (int) Math.round(panY - layerPanY), null);
+
+        if (tour.getSize() > 0) {
+            int x = (int) screenX(tour.getX(0));
+            int y = (int) screenY(tour.getY(0));
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2.setColor(START_COLOR);
+            g2.fillOval(x - startSize / 2, y - startSize / 2, startSize, startSize);
+            g2.setColor(startLabelColor);
+            g2.drawString(startLabel, x - 10, y - 10);
+        }
+    }
+
+    /*
+    Position on the tour of the stop drawn closest to (screenX, screenY), if it is at most radius pixels away,
+    otherwise -1. Only stops on the screen count, and only if tour is the one painted last.
+    */
+    public int stopAt(TourSnapshot tour, int screenX, int screenY, int radius) {
+        if (tour == null || tour != layerTour) {
+            return -1;
+        }
+        if (hitGrid == null) {
+            buildHitGrid();
+        }
+        if (hitGrid.isEmpty()) {
+            return -1;
+        }
+        // While dragging, the image is drawn moved by the pan since it was made.
+        int x = screenX - (int) Math.round(panX - layerPanX);
+        int y = screenY - (int) Math.round(panY - layerPanY);
+        int id = hitGrid.nearest(x, y);
+        long dx = hitGrid.getX(id) - x;
+        long dy = hitGrid.getY(id) - y;
+        return dx * dx + dy * dy <= (long) radius * radius ? hitPositions[id] : -1;
+    }
+
+    // Grid over the pixel positions of the stops inside the image; grid id i is the stop at hitPositions[i].
+    private void buildHitGrid() {
+        int width = layer.getWidth();
+        int height = layer.getHeight();
+        int[] xs = new int[visibleStops];
+        int[] ys = new int[visibleStops];
+        int[] positions = new int[visibleStops];
+        int count = 0;
+        for (int i = 0; i < layerXs.length && count < visibleStops; i++) {
+            if (outcode(layerXs[i], layerYs[i], width, height, 0) == 0) {
+                xs[count] = (int) layerXs[i];
+                ys[count] = (int) layerYs[i];
+                positions[count] = i;
+                count++;
+            }
+        }
+        hitGrid = SpatialGrid.of(xs, ys, count);
+        hitPositions = positions;
+    }
+
+    private boolean needsRender(TourSnapshot tour, int width, int height) {
+        return layer == null || layerTour != tour || layer.getWidth() != width || layer.getHeight() != height
+                || layerScaleX != baseScaleX || layerScaleY != baseScaleY
+                || layerOffsetX != baseOffsetX || layerOffsetY != baseOffsetY || layerZoom != zoom
+                || (!dragging && (layerPanX != panX || layerPanY != panY));
+    }
+
+    private void render(TourSnapshot tour, int width, int height) {
+        if (layer == null || layer.getWidth() != width || layer.getHeight() != height) {
+            layer = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        }
+        layerTour = tour;
+        layerScaleX = baseScaleX;
+        layerScaleY = baseScaleY;
+        layerOffsetX = baseOffsetX;
+        layerOffsetY = baseOffsetY;
+        layerZoom = zoom;
+        layerPanX = panX;
+        layerPanY = panY;
+        renderCount++;
+        hitGrid = null;
+        hitPositions = null;
+
+        int size = tour.getSize();
+        int margin = dotSize + (int) Math.ceil(lineStroke.getLineWidth());
+        float[] screenXs = new float[size];
+        float[] screenYs = new float[size];
+        int visible = 0;
+        for (int i = 0; i < size; i++) {
+            screenXs[i] = (float) screenX(tour.getX(i));
+            screenYs[i] = (float) screenY(tour.getY(i));
+            if (outcode(screenXs[i], screenYs[i], width, height, 0) == 0) {
+                visible++;
+            }
+        }
+        visibleStops = visible;
+        layerXs = screenXs;
+        layerYs = screenYs;
+        boolean detailed = visible <= DETAIL_LIMIT;
+
+        Graphics2D g = layer.createGraphics();
+        try {
+            g.setComposite(AlphaComposite.Clear);
+            g.fillRect(0, 0, width, height);
+            g.setComposite(AlphaComposite.SrcOver);
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    detailed ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+
+            g.setColor(lineColor);
+            g.setStroke(detailed ? lineStroke : THIN_STROKE);
+            drawLines(g, screenXs, screenYs, width, height, margin);
+
+            drawDots(g, tour, screenXs, screenYs, width, height, detailed, serialLabels && visible <= LABEL_LIMIT);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    // Draws the route segments that can show up in the panel, in batches; the pen is lifted over the rest.
+    private static void drawLines(Graphics2D g, float[] xs, float[] ys, int width, int height, int margin) {
+        Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO, PATH_BATCH + 1);
+        int points = 0;
+        boolean penDown = false;
+        int lastPixelX = 0;
+        int lastPixelY = 0;
+        for (int i = 1; i < xs.length; i++) {
+            // Both ends beyond the same edge: the segment cannot cross the panel.
+            if ((outcode(xs[i - 1], ys[i - 1], width, height, margin) & outcode(xs[i], ys[i], width, height, margin)) != 0) {
+                penDown = false;
+                continue;
+            }
+            if (!penDown) {
+                path.moveTo(xs[i - 1], ys[i - 1]);
+                lastPixelX = (int) xs[i - 1];
+                lastPixelY = (int) ys[i - 1];
+                penDown = true;
+            }
+            int pixelX = (int) xs[i];
+            int pixelY = (int) ys[i];
+            if (pixelX != lastPixelX || pixelY != lastPixelY || i == xs.length - 1) {
+                path.lineTo(xs[i], ys[i]);
+                lastPixelX = pixelX;
+                lastPixelY = pixelY;
+                if (++points == PATH_BATCH) {
+                    g.draw(path);
+                    path.reset();
+                    path.moveTo(xs[i], ys[i]);
+                    points = 0;
+                }
+            }
+        }
+        g.draw(path);
+    }
+
+    private void drawDots(Graphics2D g, TourSnapshot tour, float[] xs, float[] ys, int width, int height,
+                          boolean detailed, boolean labels) {
+        int cell = Math.max(1, dotSize / 2);
+        int columns = width / cell + 1;
+        int rows = height / cell + 1;
+        BitSet covered = new BitSet(columns * rows);
+        int squareSize = Math.max(2, dotSize / 3);
+        g.setColor(STOP_COLOR);
+        // The start stop gets its own marker on top of the image.
+        for (int i = 1; i < xs.length; i++) {
+            if (outcode(xs[i], ys[i], width, height, dotSize) != 0) {
+                continue;
+            }
+            int x = (int) xs[i];
+            int y = (int) ys[i];
+            int column = Math.max(0, Math.min(columns - 1, x / cell));
+            int row = Math.max(0, Math.min(rows - 1, y / cell));
+            int index = row * columns + column;
+            if (covered.get(index)) {
+                continue;
+            }
+            covered.set(index);
+            if (detailed) {
+                g.fillOval(x - dotSize / 2, y - dotSize / 2, dotSize, dotSize);
+            } else {
+                g.fillRect(x - squareSize / 2, y - squareSize / 2, squareSize, squareSize);
+            }
+            if (labels) {
+                g.setColor(Color.BLACK);
+                g.drawString(String.valueOf(tour.getSerialNumber(i)), x + 8, y + 8);
+                g.setColor(STOP_COLOR);
+            }
+        }
+    }
+
+    // Which edges of the panel (widened by margin) the point lies beyond, one bit per edge.
+    private static int outcode(float x, float y, int width, int height, int margin) {
+        int code = 0;
+        if (x < -margin) {
+            code |= 1;
+        } else if (x > width + margin) {
+            code |= 2;
+        }
+        if (y < -margin) {
+            code |= 4;
+        } else if (y > height + margin) {
+            code |= 8;
+        }
+        return code;
+    }
+}
@@ -0,0 +1,320 @@
+package OptimizeRoute;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/*
+Binary route snapshot, so a planning service can restart from its last routes without parsing CSV.
+
+File layout (little endian):
+  header, 32 bytes: magic "ROUT", version, stop count, reserved int, CRC32 of everything after the header (long), reserved long
+  records, 48 bytes per stop: tracking number (long), x, y, serial number, demand (ints),
+           earliest time, latest time, service time (doubles, see Location.setTimeWindow())
+  order, 4 bytes per stop: the record index visited at each position of the route
+
+The records are sorted by serial number (stops with the same serial number keep their route order), not by route
+position, so the same stops always give the same records and a reoptimized route only changes the order section.
+
+write() streams the file and swaps it in when it is complete. open() maps the file and only checks the header. Nothing is copied or turned into objects until it is asked for:
+the getters read single fields straight from the mapped buffer, and toRoute() / toRouteStore() build the full
+structures in one pass. The checksum is checked by verify(), which toRoute() and toRouteStore() call first.
+Tracking numbers are stored as numbers, so only plain decimal tracking numbers (see TrackingIndex.key()) can be saved.
+Version 1 files have 24-byte records without the times; they can still be opened and read as stops without windows.
+*/
+public class RouteSnapshot {
+
+    public static final int MAGIC = 0x54554F52;
+    public static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 48;
+    private static final int VERSION_1_RECORD_SIZE = 24;
+    private static final int ORDER_SIZE = 4;
+    private static final int CHECKSUM_OFFSET = 16;
+
+    private final MappedByteBuffer buffer;
+    private final int count;
+    private final int recordSize;
+
+    private RouteSnapshot(MappedByteBuffer buffer, int count, int recordSize) {
+        this.buffer = buffer;
+        this.count = count;
+        this.recordSize = recordSize;
+    }
+
+    public static void write(Route route, Path path) throws IOException {
+        Node[] nodes = route.toArray();
+        int count = nodes.length;
+        int[] serialNumbers = new int[count];
+        for (int position = 0; position < count; position++) {
+            serialNumbers[position] = nodes[position].getCurrentLocation().getSerialNumber();
+        }
+        int[] positions = recordPositions(serialNumbers);
+        try (Writer writer = new Writer(path, count)) {
+            for (int record = 0; record < count; record++) {
+                Location location = nodes[positions[record]].getCurrentLocation();
+                writer.putRecord(trackingKey(location.getTrackingNumber()), location.getX(), location.getY(),
+                        location.getSerialNumber(), location.getDemand(), location.getEarliestTime(),
+                        location.getLatestTime(), location.getServiceTime());
+            }
+            writer.putOrder(positions);
+            writer.commit();
+        }
+    }
+
+    // Saves the stops and the current route order; RouteStore has no demand or time columns, so every stop is saved
+    // with a demand of 1 and no time window.
+    public static void write(RouteStore store, Path path) throws IOException {
+        int count = store.getSize();
+        int[] serialNumbers = new int[count];
+        for (int position = 0; position < count; position++) {
+            serialNumbers[position] = store.getSerialNumber(position);
+        }
+        int[] positions = recordPositions(serialNumbers);
+        try (Writer writer = new Writer(path, count)) {
+            for (int record = 0; record < count; record++) {
+                int position = positions[record];
+                writer.putRecord(store.getTrackingNumber(position), store.getX(position), store.getY(position),
+                        store.getSerialNumber(position), 1, 0, Double.POSITIVE_INFINITY, 0);
+            }
+            writer.putOrder(positions);
+            writer.commit();
+        }
+    }
+
+    // The route position of every record: positions sorted by serial number, equal serial numbers by position.
+    private static int[] recordPositions(int[] serialNumbers) {
+        int count = serialNumbers.length;
+        long[] keys = new long[count];
+        for (int position = 0; position < count; position++) {
+            keys[position] = (long) serialNumbers[position] << 32 | position;
+        }
+        Arrays.sort(keys);
+        int[] positions = new int[count];
+        for (int record = 0; record < count; record++) {
+            positions[record] = (int) keys[record];
+        }
+        return positions;
+    }
+
+    public static RouteSnapshot open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a route snapshot: " + path);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a route snapshot: " + path);
+            }
+            int version = buffer.getInt(4);
+            if (version != VERSION && version != 1) {
+                throw new IOException("Unsupported route snapshot version " + version + ": " + path);
+            }
+            int recordSize = version == 1 ? VERSION_1_RECORD_SIZE : RECORD_SIZE;
+            int count = buffer.getInt(8);
+            if (count < 0 || fileSize(count, recordSize) != size) {
+                throw new IOException("Route snapshot is truncated or damaged: " + path);
+            }
+            return new RouteSnapshot(buffer, count, recordSize);
+        }
+    }
+
+    public int getSize() {
+        return count;
+    }
+
+    // Accessors by route position, read straight from the file.
+    public long getTrackingNumber(int position) {
+        return buffer.getLong(recordOffset(record(position)));
+    }
+    public int getX(int position) {
+        return buffer.getInt(recordOffset(record(position)) + 8);
+    }
+    public int getY(int position) {
+        return buffer.getInt(recordOffset(record(position)) + 12);
+    }
+    public int getSerialNumber(int position) {
+        return buffer.getInt(recordOffset(record(position)) + 16);
+    }
+    public int getDemand(int position) {
+        return buffer.getInt(recordOffset(record(position)) + 20);
+    }
+    public double getEarliestTime(int position) {
+        return recordSize == RECORD_SIZE ? buffer.getDouble(recordOffset(record(position)) + 24) : 0;
+    }
+    public double getLatestTime(int position) {
+        return recordSize == RECORD_SIZE ? buffer.getDouble(recordOffset(record(position)) + 32) : Double.POSITIVE_INFINITY;
+    }
+    public double getServiceTime(int position) {
+        return recordSize == RECORD_SIZE ? buffer.getDouble(recordOffset(record(position)) + 40) : 0;
+    }
+
+    // Recomputes the checksum of the records and the order and compares it with the header.
+    public boolean verify() {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(HEADER_SIZE, (int) (fileSize(count, recordSize) - HEADER_SIZE)));
+        return crc.getValue() == buffer.getLong(CHECKSUM_OFFSET);
+    }
+
+    public Route toRoute() throws IOException {
+        checkChecksum();
+        Route route = new Route();
+        for (int position = 0; position < count; position++) {
+            int offset = recordOffset(record(position));
+            Location location = new Location(Long.toString(buffer.getLong(offset)), buffer.getInt(offset + 8),
+                    buffer.getInt(offset + 12), buffer.getInt(offset + 16));
+            location.setDemand(buffer.getInt(offset + 20));
+            if (recordSize == RECORD_SIZE) {
+                double earliestTime = buffer.getDouble(offset + 24);
+                double latestTime = buffer.getDouble(offset + 32);
+                if (earliestTime != 0 || latestTime != Double.POSITIVE_INFINITY) {
+                    location.setTimeWindow(earliestTime, latestTime);
+                }
+                location.setServiceTime(buffer.getDouble(offset + 40));
+            }
+            route.addLocation(location);
+        }
+        return route;
+    }
+
+    // RouteStore cannot hold time windows, so a snapshot with windows or service times has to be loaded with toRoute().
+    public RouteStore toRouteStore() throws IOException {
+        checkChecksum();
+        RouteStore store = new RouteStore(count);
+        for (int position = 0; position < count; position++) {
+            int offset = recordOffset(record(position));
+            if (recordSize == RECORD_SIZE && (buffer.getDouble(offset + 24) != 0
+                    || buffer.getDouble(offset + 32) != Double.POSITIVE_INFINITY || buffer.getDouble(offset + 40) != 0)) {
+                throw new IOException("Route snapshot has time windows, which RouteStore cannot hold; use toRoute()");
+            }
+            store.addLocation(buffer.getLong(offset), buffer.getInt(offset + 8), buffer.getInt(offset + 12),
+                    buffer.getInt(offset + 16));
+        }
+        return store;
+    }
+
+    private void checkChecksum() throws IOException {
+        if (!verify()) {
+            throw new IOException("Route snapshot checksum does not match, the file is damaged");
+        }
+    }
+
+    private int record(int position) {
+        if (position < 0 || position >= count) {
+            throw new IndexOutOfBoundsException("Position " + position + " of " + count);
+        }
+        int record = buffer.getInt(HEADER_SIZE + count * recordSize + position * ORDER_SIZE);
+        if (record < 0 || record >= count) {
+            throw new IllegalStateException("Route snapshot order is damaged at position " + position);
+        }
+        return record;
+    }
+
+    private static long trackingKey(String trackingNumber) {
+        long key = TrackingIndex.key(trackingNumber);
+        if (key == -1) {
+            throw new IllegalArgumentException("Only numeric tracking numbers can be saved in a snapshot: " + trackingNumber);
+        }
+        return key;
+    }
+
+    private int recordOffset(int record) {
+        return HEADER_SIZE + record * recordSize;
+    }
+
+    private static long fileSize(int count, int recordSize) {
+        return HEADER_SIZE + (long) count * (recordSize + ORDER_SIZE);
+    }
+
+    /*
+    Streams a snapshot into "<name>.tmp" next to the target and renames it over the target in commit(),
+    so a failed or interrupted save never leaves a half-written snapshot behind. The header goes in last,
+    once the checksum of everything after it is known.
+    */
+    private static class Writer implements AutoCloseable {
+        private final Path path;
+        private final Path temporaryPath;
+        private final FileChannel channel;
+        private final int count;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32 crc = new CRC32();
+        private boolean committed;
+
+        Writer(Path path, int count) throws IOException {
+            if (fileSize(count, RECORD_SIZE) > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many stops for one snapshot: " + count);
+            }
+            this.path = path;
+            this.temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+            this.count = count;
+            this.channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            channel.position(HEADER_SIZE);
+        }
+
+        void putRecord(long trackingNumber, int x, int y, int serialNumber, int demand,
+                       double earliestTime, double latestTime, double serviceTime) throws IOException {
+            if (buffer.remaining() < RECORD_SIZE) {
+                flush();
+            }
+            buffer.putLong(trackingNumber).putInt(x).putInt(y).putInt(serialNumber).putInt(demand)
+                    .putDouble(earliestTime).putDouble(latestTime).putDouble(serviceTime);
+        }
+
+        // Writes the order section from the route position of every record.
+        void putOrder(int[] positions) throws IOException {
+            int[] records = new int[count];
+            for (int record = 0; record < count; record++) {
+                records[positions[record]] = record;
+            }
+            for (int position = 0; position < count; position++) {
+                if (buffer.remaining() < ORDER_SIZE) {
+                    flush();
+                }
+                buffer.putInt(records[position]);
+            }
+        }
+
+        void commit() throws IOException {
+            flush();
+            if (channel.position() != fileSize(count, RECORD_SIZE)) {
+                throw new IllegalStateException("Route changed while it was being saved");
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(0).putLong(crc.getValue()).putLong(0).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.close();
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+            if (!committed) {
+                Files.deleteIfExists(temporaryPath);
+            }
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package OptimizeRoute;
+
+import java.util.Arrays;
+
+/*
+A compact route for very large stop counts, stored as parallel primitive arrays instead of Location and Node objects.
+
+Every stop lives in a slot: xs[slot], ys[slot], trackingNumbers[slot] and serialNumbers[slot].
+order[position] is the slot visited at that position of the route and positionOf[slot] is the reverse lookup,
+so a stop costs 28 bytes and there is no object per stop. Deleting a stop only marks its entry in order as removed
+(NO_SLOT), so deletes are O(1); the removed entries are squeezed out in one O(n) pass the next time a route position
+is read (getX(), findTrackingNumber(), totalDistance(), ...), so a run of deletes pays for that pass once. Tracking numbers are kept as long values
+parsed from the 10010 + 6 digits format, and every tracking number can only be on the route once.
+
+Stops are found by tracking number through an open-addressing hash table of slots (linear probing like TrackingIndex,
+but it only holds the slot, the key is read from trackingNumbers[slot]), which adds 5 to 11 bytes per stop.
+The arrays grow by half when full; fromRoute(), RouteCsv and RouteSnapshot size them exactly, and trimToSize()
+gives back the spare room after adding stops one by one. A trimmed store with a million stops needs about 37 MB.
+
+It supports the same operations as Route (add, delete by tracking number, total distance, optimize),
+and fromRoute()/toRoute() convert between the two, for example to optimize a Route that has grown too big for
+its linked list and turn the result back into one.
+*/
+public class RouteStore {
+
+    private static final String TRACKING_PREFIX = "10010";
+    private static final int TRACKING_LENGTH = 11;
+    private static final int NO_SLOT = -1;
+
+    private int[] xs;
+    private int[] ys;
+    private long[] trackingNumbers;
+    private int[] serialNumbers;
+    private int[] order;
+    private int[] positionOf;
+    // Entries used in order, including the ones of deleted stops that compact() has not removed yet.
+    private int orderLength;
+    // Slots by hash of their tracking number, NO_SLOT where empty. At most 3/4 full.
+    private int[] index;
+    private int indexMask;
+    private int size;
+    private long improvementTimeLimit = Route.DEFAULT_IMPROVEMENT_TIME_LIMIT;
+    private ImprovementEngine improvementEngine = ImprovementEngine.TWO_OPT;
+    private DistanceProvider distanceProvider = EuclideanDistance.INSTANCE;
+    private Location depot = new Location("Warehouse",0,0,0);
+    private TourMode tourMode = TourMode.OPEN;
+    private Location fixedEnd;
+
+    public RouteStore() {
+        this(16);
+    }
+
+    public RouteStore(int capacity) {
+        capacity = Math.max(capacity, 4);
+        xs = new int[capacity];
+        ys = new int[capacity];
+        trackingNumbers = new long[capacity];
+        serialNumbers = new int[capacity];
+        order = new int[capacity];
+        positionOf = new int[capacity];
+        rebuildIndex(capacity);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getImprovementTimeLimit() {
+        return improvementTimeLimit;
+    }
+    public void setImprovementTimeLimit(long improvementTimeLimit) {
+        this.improvementTimeLimit = improvementTimeLimit;
+    }
+
+    public ImprovementEngine getImprovementEngine() {
+        return improvementEngine;
+    }
+    // Which local search optimizeRoute() uses after the greedy pass, like Route.setImprovementEngine().
+    public void setImprovementEngine(ImprovementEngine improvementEngine) {
+        this.improvementEngine = improvementEngine;
+    }
+
+    public DistanceProvider getDistanceProvider() {
+        return distanceProvider;
+    }
+    public void setDistanceProvider(DistanceProvider distanceProvider) {
+        this.distanceProvider = distanceProvider;
+    }
+
+    // Depot and tour mode work like in Route: the legs from the depot and to the end count in totalDistance().
+    public Location getDepot() {
+        return depot;
+    }
+    public void setDepot(Location depot) {
+        if (depot == null) {
+            throw new IllegalArgumentException("The depot can not be null");
+        }
+        this.depot = depot;
+    }
+
+    public TourMode getTourMode() {
+        return tourMode;
+    }
+    public void setTourMode(TourMode tourMode) {
+        if (tourMode == TourMode.FIXED_END && fixedEnd == null) {
+            throw new IllegalArgumentException("Set the end location with setFixedEnd() before using FIXED_END");
+        }
+        this.tourMode = tourMode;
+    }
+
+    public Location getFixedEnd() {
+        return fixedEnd;
+    }
+    public void setFixedEnd(Location fixedEnd) {
+        if (fixedEnd == null) {
+            throw new IllegalArgumentException("The end location can not be null");
+        }
+        this.fixedEnd = fixedEnd;
+        this.tourMode = TourMode.FIXED_END;
+    }
+
+    // Accessors by route position (0 is the first stop).
+    public int getX(int position) {
+        return xs[slotAt(position)];
+    }
+    public int getY(int position) {
+        return ys[slotAt(position)];
+    }
+    public long getTrackingNumber(int position) {
+        return trackingNumbers[slotAt(position)];
+    }
+    public int getSerialNumber(int position) {
+        return serialNumbers[slotAt(position)];
+    }
+
+    // Appends a stop at the end of the route. A tracking number that is already on the route is rejected.
+    public void addLocation(long trackingNumber, int x, int y, int serialNumber) {
+        if (findSlot(trackingNumber) != NO_SLOT) {
+            throw new IllegalArgumentException("Tracking number " + trackingNumber + " is already on the route");
+        }
+        if (orderLength == order.length) {
+            compact();
+        }
+        if (size == xs.length) {
+            grow();
+        }
+        int slot = size;
+        xs[slot] = x;
+        ys[slot] = y;
+        trackingNumbers[slot] = trackingNumber;
+        serialNumbers[slot] = serialNumber;
+        order[orderLength] = slot;
+        positionOf[slot] = orderLength;
+        orderLength++;
+        size++;
+        if (size * 4L > index.length * 3L) {
+            rebuildIndex(size * 2);
+        } else {
+            indexSlot(slot);
+        }
+    }
+
+    public void addLocation(Location location) {
+        addLocation(parseTrackingNumber(location.getTrackingNumber()), location.getX(), location.getY(),
+                location.getSerialNumber());
+    }
+
+    // Returns the route position of the stop with this tracking number, or -1 if it is not on the route.
+    public int findTrackingNumber(long trackingNumber) {
+        int slot = findSlot(trackingNumber);
+        if (slot == NO_SLOT) {
+            return -1;
+        }
+        compact();
+        return positionOf[slot];
+    }
+
+    public boolean deleteLocation(long trackingNumber) {
+        int slot = findSlot(trackingNumber);
+        if (slot == NO_SLOT) {
+            return false;
+        }
+        unindex(slot);
+        order[positionOf[slot]] = NO_SLOT;
+
+        // Move the last slot into the freed one so the slots stay packed.
+        int last = size - 1;
+        if (slot != last) {
+            index[indexPosition(last)] = slot;
+            xs[slot] = xs[last];
+            ys[slot] = ys[last];
+            trackingNumbers[slot] = trackingNumbers[last];
+            serialNumbers[slot] = serialNumbers[last];
+            positionOf[slot] = positionOf[last];
+            order[positionOf[slot]] = slot;
+        }
+        size--;
+        return true;
+    }
+
+    public boolean deleteLocation(String trackingNumber) {
+        return deleteLocation(parseTrackingNumber(trackingNumber));
+    }
+
+    public double totalDistance() {
+        if (size == 0) {
+            return 0;
+        }
+        compact();
+        int first = order[0];
+        int last = order[size - 1];
+        double totalDistance = distanceProvider.distance(depot.getX(), depot.getY(), xs[first], ys[first]);
+        for (int i = 1; i < size; i++) {
+            int from = order[i - 1];
+            int to = order[i];
+            totalDistance += distanceProvider.distance(xs[from], ys[from], xs[to], ys[to]);
+        }
+        Location end = endLocation();
+        if (end != null) {
+            totalDistance += distanceProvider.distance(xs[last], ys[last], end.getX(), end.getY());
+        }
+        return totalDistance;
+    }
+
+    /*
+    Same two stages as Route.optimizeRoute(): the nearest neighbor greedy route from the depot,
+    then the improvement engine (2-opt / Or-opt by default). The grid, the neighbor lists and the improver are set up once;
+    the search loops themselves only work on those primitive arrays.
+    */
+    public void optimizeRoute() {
+        if (size == 0) {
+            return;
+        }
+        DistanceTable distances = distanceProvider.table(xs, ys, size);
+        int[] neighbors = improvementEngine.buildNeighbors(xs, ys, size, distanceProvider, distances);
+        int[] newOrder = distanceProvider.isStraightLine()
+                ? NearestNeighborTour.build(xs, ys, size, depot.getX(), depot.getY())
+                : NearestNeighborTour.build(distances, size, neighbors,
+                        distanceProvider.distancesFrom(depot.getX(), depot.getY(), xs, ys, size), null);
+        if (size >= 3) {
+            RouteEnds ends = RouteEnds.of(xs, ys, size, distanceProvider, depot, tourMode, fixedEnd);
+            improvementEngine.create(size, neighbors, distances, ends).improve(newOrder, improvementTimeLimit);
+        }
+        setOrder(newOrder);
+    }
+
+    // Optimizes the route cell by cell with the given PartitionedOptimizer, for stores with millions of stops.
+    // The improvement time limit covers the whole run.
+    public void optimizeRoute(PartitionedOptimizer optimizer) {
+        if (size == 0) {
+            return;
+        }
+        Location end = endLocation();
+        int[] newOrder = optimizer.optimize(xs, ys, size, distanceProvider, improvementEngine, improvementTimeLimit,
+                depot, end);
+        setOrder(newOrder);
+    }
+
+    private void setOrder(int[] newOrder) {
+        System.arraycopy(newOrder, 0, order, 0, size);
+        for (int i = 0; i < size; i++) {
+            positionOf[order[i]] = i;
+        }
+        orderLength = size;
+    }
+
+    private int slotAt(int position) {
+        compact();
+        return order[position];
+    }
+
+    // Removes the entries of deleted stops from order and renumbers the positions after them.
+    private void compact() {
+        if (orderLength == size) {
+            return;
+        }
+        int position = 0;
+        for (int i = 0; i < orderLength; i++) {
+            int slot = order[i];
+            if (slot != NO_SLOT) {
+                order[position] = slot;
+                positionOf[slot] = position++;
+            }
+        }
+        orderLength = size;
+    }
+
+    // Where the route goes after its last stop, null for an open route.
+    private Location endLocation() {
+        return tourMode == TourMode.CLOSED ? depot : tourMode == TourMode.FIXED_END ? fixedEnd : null;
+    }
+
+    // Shrinks the arrays and the index to the current number of stops.
+    public void trimToSize() {
+        compact();
+        resize(Math.max(size, 4));
+        rebuildIndex(size);
+    }
+
+    private int findSlot(long trackingNumber) {
+        for (int i = home(trackingNumber); index[i] != NO_SLOT; i = (i + 1) & indexMask) {
+            if (trackingNumbers[index[i]] == trackingNumber) {
+                return index[i];
+            }
+        }
+        return NO_SLOT;
+    }
+
+    // Where the slot is in the index. The slot has to be indexed.
+    private int indexPosition(int slot) {
+        int i = home(trackingNumbers[slot]);
+        while (index[i] != slot) {
+            i = (i + 1) & indexMask;
+        }
+        return i;
+    }
+
+    private void indexSlot(int slot) {
+        int i = home(trackingNumbers[slot]);
+        while (index[i] != NO_SLOT) {
+            i = (i + 1) & indexMask;
+        }
+        index[i] = slot;
+    }
+
+    // Removes the slot from the index and moves later entries of its probe chain back, like TrackingIndex.shiftBack().
+    private void unindex(int slot) {
+        int freed = indexPosition(slot);
+        int i = freed;
+        while (true) {
+            i = (i + 1) & indexMask;
+            if (index[i] == NO_SLOT) {
+                break;
+            }
+            int home = home(trackingNumbers[index[i]]);
+            boolean canMove = freed <= i ? (home <= freed || home > i) : (home <= freed && home > i);
+            if (canMove) {
+                index[freed] = index[i];
+                freed = i;
+            }
+        }
+        index[freed] = NO_SLOT;
+    }
+
+    // A new index with room for at least expectedSize stops, filled with the current ones.
+    private void rebuildIndex(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(8, expectedSize + expectedSize / 3) - 1) << 1;
+        index = new int[capacity];
+        Arrays.fill(index, NO_SLOT);
+        indexMask = capacity - 1;
+        for (int slot = 0; slot < size; slot++) {
+            indexSlot(slot);
+        }
+    }
+
+    private int home(long trackingNumber) {
+        long hash = trackingNumber * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & indexMask;
+    }
+
+    // Grows by half, so a store that grew to its size has at most a third of its room spare.
+    private void grow() {
+        resize(xs.length + (xs.length >> 1));
+    }
+
+    private void resize(int capacity) {
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        trackingNumbers = Arrays.copyOf(trackingNumbers, capacity);
+        serialNumbers = Arrays.copyOf(serialNumbers, capacity);
+        order = Arrays.copyOf(order, capacity);
+        positionOf = Arrays.copyOf(positionOf, capacity);
+    }
+
+    // Parses a tracking number in the 10010 + 6 digits format without going through a regular expression.
+    public static long parseTrackingNumber(String trackingNumber) {
+        if (trackingNumber == null || trackingNumber.length() != TRACKING_LENGTH || !trackingNumber.startsWith(TRACKING_PREFIX)) {
+            throw new IllegalArgumentException("Invalid tracking number: " + trackingNumber);
+        }
+        long value = 0;
+        for (int i = 0; i < TRACKING_LENGTH; i++) {
+            char c = trackingNumber.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("Invalid tracking number: " + trackingNumber);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    public static String formatTrackingNumber(long trackingNumber) {
+        return Long.toString(trackingNumber);
+    }
+
+    // Adapter from the linked list Route, keeping its current order. The route must not have a tracking number twice.
+    public static RouteStore fromRoute(Route route) {
+        RouteStore store = new RouteStore(route.getSize());
+        store.setDistanceProvider(route.getDistanceProvider());
+        store.setImprovementEngine(route.getImprovementEngine());
+        store.setImprovementTimeLimit(route.getImprovementTimeLimit());
+        store.setDepot(route.getDepot());
+        if (route.getFixedEnd() != null) {
+            store.setFixedEnd(route.getFixedEnd());
+        }
+        store.setTourMode(route.getTourMode());
+        Node current = route.getHead();
+        while (current != null) {
+            store.addLocation(current.getCurrentLocation());
+            current = current.getNext();
+        }
+        return store;
+    }
+
+    // Adapter back to a linked list Route in the current order of this store.
+    public Route toRoute() {
+        Route route = new Route();
+        route.setDistanceProvider(distanceProvider);
+        route.setImprovementEngine(improvementEngine);
+        route.setImprovementTimeLimit(improvementTimeLimit);
+        route.setDepot(depot);
+        if (fixedEnd != null) {
+            route.setFixedEnd(fixedEnd);
+        }
+        route.setTourMode(tourMode);
+        compact();
+        for (int position = 0; position < size; position++) {
+            int slot = order[position];
+            route.addLocation(new Location(formatTrackingNumber(trackingNumbers[slot]), xs[slot], ys[slot], serialNumbers[slot]));
+        }
+        return route;
+    }
+}
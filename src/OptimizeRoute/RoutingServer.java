@@ -0,0 +1,397 @@
+package OptimizeRoute;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/*
+Small HTTP service so a dispatch system can call the optimizer, built on the JDK's own HttpServer.
+
+    POST /optimize[?timeLimitMillis=200]   body: stops as JSON or as CSV in the RouteCsv layout
+    GET  /health
+
+JSON requests look like {"stops": [{"trackingNumber": "10010000001", "x": 10, "y": 20, "serialNumber": 1}, ...]}
+(or just the array); serialNumber, demand and the time window fields earliest, latest and serviceTime (minutes,
+see TravelModel) are optional. The object may also set the depot, {"x": 0, "y": 0} by default, and where the route
+ends: "mode" is "open" (the default) or "closed", and an "end" place like {"x": 500, "y": 500} makes it a fixed end. The answer is JSON with the distance before and after, the optimized order as
+indexes into the request's stops, the tracking numbers in that order and the stops that miss their time window.
+CSV requests get the optimized route back as CSV, with the distances in the X-Initial-Distance and X-Total-Distance headers.
+
+Every request builds its own Route, so requests never share state. Bodies over maxBodyBytes are refused with 413.
+At most maxConcurrent requests are read, parsed and optimized at the same time; a request that cannot start within
+a second gets 503,
+and the improvement time of every request is capped, so a burst of requests cannot push latency up without bound.
+Each connection is handled on a virtual thread when the JDK has them (21+), otherwise on a fixed pool of threads.
+The server only listens on the loopback address.
+*/
+public class RoutingServer {
+
+    public static final int DEFAULT_PORT = 8080;
+    public static final int DEFAULT_MAX_BODY_BYTES = 1 << 20;
+    public static final long DEFAULT_TIME_LIMIT = 200;
+    private static final long ACQUIRE_TIMEOUT_MILLIS = 1000;
+    private static final String TEXT_TYPE = "text/plain; charset=utf-8";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final int maxBodyBytes;
+    private final long maxTimeLimit;
+
+    public RoutingServer(int port) throws IOException {
+        this(port, Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_BODY_BYTES, DEFAULT_TIME_LIMIT);
+    }
+
+    // Port 0 picks a free port, see getPort().
+    public RoutingServer(int port, int maxConcurrent, int maxBodyBytes, long maxTimeLimit) throws IOException {
+        if (maxConcurrent < 1 || maxBodyBytes < 1 || maxTimeLimit < 1) {
+            throw new IllegalArgumentException("Invalid server limits: " + maxConcurrent + " concurrent, "
+                    + maxBodyBytes + " bytes, " + maxTimeLimit + " ms");
+        }
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.maxBodyBytes = maxBodyBytes;
+        this.maxTimeLimit = maxTimeLimit;
+        this.executor = newExecutor(Math.max(32, maxConcurrent * 4));
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        server.setExecutor(executor);
+        server.createContext("/optimize", this::handleOptimize);
+        server.createContext("/health", exchange -> respond(exchange, 200, "text/plain", "OK\n".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        RoutingServer routingServer = new RoutingServer(port);
+        routingServer.start();
+        System.out.println("Routing service listening on http://localhost:" + routingServer.getPort() + "/optimize");
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // A virtual thread per task on JDK 21+, looked up by reflection because the project still builds for 17.
+    static ExecutorService newExecutor(int fallbackThreads) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(fallbackThreads);
+        }
+    }
+
+    /*
+    The permit is taken before the body is read, so maxConcurrent also bounds the memory and time spent on reading and
+    parsing bodies, not just on optimizing. The answer is built while the permit is held and sent after it is released.
+    Failures to send (the client went away) are not answered again, the exchange is just closed.
+    */
+    private void handleOptimize(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                respondText(exchange, 405, "Use POST with the stops in the body.");
+                return;
+            }
+            String length = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (declaredLength(length) > maxBodyBytes) {
+                respondText(exchange, 413, "Request body is larger than " + maxBodyBytes + " bytes.");
+                return;
+            }
+            if (!permits.tryAcquire(ACQUIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respondText(exchange, 503, "Too many routes are being optimized, try again shortly.");
+                return;
+            }
+            Reply reply;
+            try {
+                reply = optimize(exchange);
+            } finally {
+                permits.release();
+            }
+            respond(exchange, reply.status, reply.contentType, reply.body);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respondText(exchange, 503, "Server is shutting down.");
+        } catch (IOException e) {
+            // The client closed the connection while its body was read or the answer was sent; nobody is left to answer.
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /*
+    Reads, parses and optimizes one request. Problems with the request become a 400 answer and unexpected failures a
+    500 answer; only an IOException from reading the connection itself is thrown.
+    */
+    private Reply optimize(HttpExchange exchange) throws IOException {
+        byte[] body = readBody(exchange.getRequestBody());
+        if (body == null) {
+            return Reply.text(413, "Request body is larger than " + maxBodyBytes + " bytes.");
+        }
+        try {
+            long timeLimit = Math.min(maxTimeLimit, Math.max(1, parseLong(queryParameter(exchange, "timeLimitMillis"), maxTimeLimit)));
+            boolean json = isJson(exchange, body);
+            Route route = new Route();
+            Map<Location, Integer> requestIndex = null;
+            if (json) {
+                requestIndex = readJsonStops(body, route);
+            } else {
+                // The body is already in memory, so an IOException here can only be a malformed CSV line.
+                RouteCsv.read(Channels.newChannel(new ByteArrayInputStream(body)), route::addLocation);
+            }
+
+            route.setImprovementTimeLimit(timeLimit);
+            double initialDistance = route.totalDistance();
+            route.optimizeRoute();
+
+            if (json) {
+                return new Reply(200, "application/json", jsonResult(route, requestIndex, initialDistance));
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length + 64);
+            RouteCsv.write(route, Channels.newChannel(out));
+            exchange.getResponseHeaders().set("X-Initial-Distance", Double.toString(initialDistance));
+            exchange.getResponseHeaders().set("X-Total-Distance", Double.toString(route.totalDistance()));
+            return new Reply(200, "text/csv", out.toByteArray());
+        } catch (IllegalArgumentException | IOException e) {
+            return Reply.text(400, "Bad request: " + e.getMessage());
+        } catch (RuntimeException e) {
+            return Reply.text(500, "Optimizing the route failed: " + e);
+        }
+    }
+
+    /*
+    Adds the stops to the route. Returns the index of every stop in the request, keyed by the identity of its Location,
+    so the optimized order can be reported as request indexes even when tracking numbers repeat.
+    */
+    private static Map<Location, Integer> readJsonStops(byte[] body, Route route) {
+        Object parsed = Json.parse(new String(body, StandardCharsets.UTF_8));
+        if (parsed instanceof Map) {
+            Map<?, ?> request = (Map<?, ?>) parsed;
+            readTourEnds(request, route);
+            parsed = request.get("stops");
+        }
+        if (!(parsed instanceof List)) {
+            throw new IllegalArgumentException("Expected a list of stops");
+        }
+        List<?> stops = (List<?>) parsed;
+        Map<Location, Integer> requestIndex = new IdentityHashMap<>(stops.size() * 2);
+        for (int i = 0; i < stops.size(); i++) {
+            if (!(stops.get(i) instanceof Map)) {
+                throw new IllegalArgumentException("Stop " + i + " is not an object");
+            }
+            Map<?, ?> stop = (Map<?, ?>) stops.get(i);
+            Object trackingNumber = stop.get("trackingNumber");
+            if (trackingNumber == null) {
+                throw new IllegalArgumentException("Stop " + i + " has no trackingNumber");
+            }
+            Location location = new Location(trackingNumber.toString(), intField(stop, "x", i, null),
+                    intField(stop, "y", i, null), intField(stop, "serialNumber", i, i + 1));
+            location.setDemand(intField(stop, "demand", i, 1));
+            if (stop.containsKey("earliest") || stop.containsKey("latest")) {
+                location.setTimeWindow(numberField(stop, "earliest", i, 0), numberField(stop, "latest", i, Double.POSITIVE_INFINITY));
+            }
+            location.setServiceTime(numberField(stop, "serviceTime", i, 0));
+            route.addLocation(location);
+            requestIndex.put(location, i);
+        }
+        return requestIndex;
+    }
+
+    // The optional depot, mode and end fields of a JSON request.
+    private static void readTourEnds(Map<?, ?> request, Route route) {
+        if (request.get("depot") != null) {
+            route.setDepot(readPlace(request.get("depot"), "Depot"));
+        }
+        Object mode = request.get("mode");
+        if (mode != null && !"open".equals(mode) && !"closed".equals(mode)) {
+            throw new IllegalArgumentException("mode must be \"open\" or \"closed\"");
+        }
+        if (request.get("end") != null) {
+            route.setFixedEnd(readPlace(request.get("end"), "End"));
+        } else if ("closed".equals(mode)) {
+            route.setTourMode(TourMode.CLOSED);
+        }
+    }
+
+    private static Location readPlace(Object value, String name) {
+        if (!(value instanceof Map) || !(((Map<?, ?>) value).get("x") instanceof Long) || !(((Map<?, ?>) value).get("y") instanceof Long)) {
+            throw new IllegalArgumentException(name.toLowerCase() + " needs whole number x and y");
+        }
+        Map<?, ?> place = (Map<?, ?>) value;
+        return new Location(name, ((Long) place.get("x")).intValue(), ((Long) place.get("y")).intValue(), 0);
+    }
+
+    private static int intField(Map<?, ?> stop, String name, int index, Integer defaultValue) {
+        Object value = stop.get(name);
+        if (value == null && defaultValue != null) {
+            return defaultValue;
+        }
+        if (!(value instanceof Long) || (Long) value < Integer.MIN_VALUE || (Long) value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Stop " + index + " needs a whole number for " + name);
+        }
+        return ((Long) value).intValue();
+    }
+
+    private static double numberField(Map<?, ?> stop, String name, int index, double defaultValue) {
+        Object value = stop.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException("Stop " + index + " needs a number for " + name);
+        }
+        return ((Number) value).doubleValue();
+    }
+
+    private static byte[] jsonResult(Route route, Map<Location, Integer> requestIndex, double initialDistance) {
+        int stopCount = route.getSize();
+        StringBuilder out = new StringBuilder(32 + stopCount * 24);
+        out.append("{\"stops\":").append(route.getSize())
+                .append(",\"initialDistance\":").append(initialDistance)
+                .append(",\"totalDistance\":").append(route.totalDistance())
+                .append(",\"order\":[");
+        StringBuilder trackingNumbers = new StringBuilder(stopCount * 16);
+        for (Node node = route.getHead(); node != null; node = node.getNext()) {
+            if (node != route.getHead()) {
+                out.append(',');
+                trackingNumbers.append(',');
+            }
+            out.append(requestIndex.get(node.getCurrentLocation()));
+            Json.appendString(trackingNumbers, node.getCurrentLocation().getTrackingNumber());
+        }
+        out.append("],\"trackingNumbers\":[").append(trackingNumbers).append("],\"violations\":[");
+        List<TimeWindowViolation> violations = route.timeWindowViolations();
+        for (int i = 0; i < violations.size(); i++) {
+            TimeWindowViolation violation = violations.get(i);
+            out.append(i == 0 ? "" : ",").append("{\"index\":").append(requestIndex.get(violation.getLocation()))
+                    .append(",\"arrival\":").append(violation.getArrivalTime())
+                    .append(",\"lateness\":").append(violation.getLateness()).append('}');
+        }
+        out.append("]}\n");
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static boolean isJson(HttpExchange exchange, byte[] body) {
+        String type = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (type != null) {
+            if (type.contains("json")) {
+                return true;
+            }
+            if (type.contains("csv")) {
+                return false;
+            }
+        }
+        for (byte b : body) {
+            if (!Character.isWhitespace(b)) {
+                return b == '{' || b == '[';
+            }
+        }
+        return false;
+    }
+
+    // The whole body, or null as soon as it grows past maxBodyBytes.
+    private byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            if (out.size() + read > maxBodyBytes) {
+                return null;
+            }
+            out.write(chunk, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static String queryParameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0 && pair.substring(0, equals).equals(name)) {
+                return pair.substring(equals + 1);
+            }
+        }
+        return null;
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + value);
+        }
+    }
+
+    // The Content-Length header, or -1 when it is missing or not a number; readBody() still enforces the limit then.
+    private static long declaredLength(String length) {
+        if (length == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(length.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void respondText(HttpExchange exchange, int status, String message) throws IOException {
+        Reply reply = Reply.text(status, message);
+        respond(exchange, reply.status, reply.contentType, reply.body);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // Status and body of an answer, built before it is sent.
+    private static final class Reply {
+        private final int status;
+        private final String contentType;
+        private final byte[] body;
+
+        Reply(int status, String contentType, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        static Reply text(int status, String message) {
+            return new Reply(status, TEXT_TYPE, (message + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package OptimizeRoute;
+
+import java.util.Arrays;
+
+/*
+A uniform grid over integer x/y points that supports insertion, deletion and nearest-point queries.
+Points are identified by the int id returned from add(). Each cell keeps its points in an intrusive
+doubly linked list (cellNext/cellPrevious), so add and remove are O(1).
+The grid rebuilds itself with a finer or coarser cell size whenever the number of live points drifts
+far from the number of cells, which keeps searches close to O(1) for evenly spread stops
+even after most of the points have been removed.
+A point added outside the grid's box also makes it rebuild, and then the box gets a margin of a quarter of its size
+on every side, so points that keep landing further out only cost a rebuild every time the box has grown by half.
+*/
+public class SpatialGrid {
+
+    private static final int TARGET_POINTS_PER_CELL = 2;
+    // Margin added on each side of the box when a point lands outside it: the box size divided by this.
+    private static final int MARGIN_DIVISOR = 4;
+
+    private int[] xs;
+    private int[] ys;
+    private boolean[] alive;
+    private int[] cellOf;
+    private int[] cellNext;
+    private int[] cellPrevious;
+    private int pointCount;
+    private int liveCount;
+
+    private int[] cellHead;
+    private long[] nearestDistances = new long[0];
+    private int minX;
+    private int minY;
+    private int maxX;
+    private int maxY;
+    private int cellSize;
+    private int columns;
+    private int rows;
+
+    public SpatialGrid() {
+        this(16);
+    }
+
+    public SpatialGrid(int expectedPoints) {
+        int capacity = Math.max(expectedPoints, 4);
+        xs = new int[capacity];
+        ys = new int[capacity];
+        alive = new boolean[capacity];
+        cellOf = new int[capacity];
+        cellNext = new int[capacity];
+        cellPrevious = new int[capacity];
+        cellHead = null;
+    }
+
+    // Builds a grid over the given points in one pass. The id of point i is i.
+    public static SpatialGrid of(int[] xs, int[] ys, int count) {
+        SpatialGrid grid = new SpatialGrid(count);
+        System.arraycopy(xs, 0, grid.xs, 0, count);
+        System.arraycopy(ys, 0, grid.ys, 0, count);
+        Arrays.fill(grid.alive, 0, count, true);
+        grid.pointCount = count;
+        grid.liveCount = count;
+        grid.rebuild(false);
+        return grid;
+    }
+
+    public int size() {
+        return liveCount;
+    }
+
+    public boolean isEmpty() {
+        return liveCount == 0;
+    }
+
+    public boolean contains(int id) {
+        return id >= 0 && id < pointCount && alive[id];
+    }
+
+    public int getX(int id) {
+        return xs[id];
+    }
+
+    public int getY(int id) {
+        return ys[id];
+    }
+
+    public int add(int x, int y) {
+        if (pointCount == xs.length) {
+            int capacity = xs.length * 2;
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            alive = Arrays.copyOf(alive, capacity);
+            cellOf = Arrays.copyOf(cellOf, capacity);
+            cellNext = Arrays.copyOf(cellNext, capacity);
+            cellPrevious = Arrays.copyOf(cellPrevious, capacity);
+        }
+        int id = pointCount++;
+        xs[id] = x;
+        ys[id] = y;
+        alive[id] = true;
+        liveCount++;
+
+        if (cellHead == null || x < minX || x > maxX || y < minY || y > maxY) {
+            rebuild(cellHead != null);
+        } else if (liveCount > cellHead.length * TARGET_POINTS_PER_CELL * 4) {
+            rebuild(false);
+        } else {
+            link(id, cellIndex(x, y));
+        }
+        return id;
+    }
+
+    public boolean remove(int id) {
+        if (!contains(id)) {
+            return false;
+        }
+        unlink(id);
+        alive[id] = false;
+        liveCount--;
+        if (liveCount > 0 && liveCount * TARGET_POINTS_PER_CELL * 4 < cellHead.length) {
+            rebuild(false);
+        }
+        return true;
+    }
+
+    /*
+    Returns the live point closest to (x, y), or -1 when the grid is empty.
+    Ties are broken by the smaller id, so a caller that adds points in list order gets the same answer
+    as a linear scan that keeps the first strictly closer point.
+    */
+    public int nearest(int x, int y) {
+        if (liveCount == 0) {
+            return -1;
+        }
+        int cx = clamp((int) (((long) x - minX) / cellSize), columns);
+        int cy = clamp((int) (((long) y - minY) / cellSize), rows);
+
+        int best = -1;
+        long bestDistance = Long.MAX_VALUE;
+        int maxRing = Math.max(Math.max(cx, columns - 1 - cx), Math.max(cy, rows - 1 - cy));
+
+        for (int ring = 0; ring <= maxRing; ring++) {
+            if (best != -1 && ring > 0) {
+                long bound = ringLowerBound(x, y, cx, cy, ring);
+                if (bound * bound > bestDistance) {
+                    break;
+                }
+            }
+            int left = cx - ring;
+            int right = cx + ring;
+            int bottom = cy - ring;
+            int top = cy + ring;
+            for (int row = Math.max(bottom, 0); row <= Math.min(top, rows - 1); row++) {
+                boolean edgeRow = row == bottom || row == top;
+                int step = edgeRow ? 1 : right - left;
+                for (int column = left; column <= right; column += Math.max(step, 1)) {
+                    if (column < 0 || column >= columns) {
+                        continue;
+                    }
+                    for (int id = cellHead[row * columns + column]; id != -1; id = cellNext[id]) {
+                        long distance = EuclideanDistance.squaredDistance(x, y, xs[id], ys[id]);
+                        if (distance < bestDistance || (distance == bestDistance && id < best)) {
+                            bestDistance = distance;
+                            best = id;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /*
+    Writes up to k live points closest to (x, y) into result, nearest first, and returns how many were found.
+    The point with id skip is left out, which lets callers ask for the neighbors of a point that is itself in the grid.
+    */
+    public int nearest(int x, int y, int k, int skip, int[] result) {
+        if (liveCount == 0 || k <= 0) {
+            return 0;
+        }
+        int cx = clamp((int) (((long) x - minX) / cellSize), columns);
+        int cy = clamp((int) (((long) y - minY) / cellSize), rows);
+
+        if (nearestDistances.length < k) {
+            nearestDistances = new long[k];
+        }
+        long[] distances = nearestDistances;
+        int found = 0;
+        int maxRing = Math.max(Math.max(cx, columns - 1 - cx), Math.max(cy, rows - 1 - cy));
+
+        for (int ring = 0; ring <= maxRing; ring++) {
+            if (found == k && ring > 0) {
+                long bound = ringLowerBound(x, y, cx, cy, ring);
+                if (bound * bound > distances[k - 1]) {
+                    break;
+                }
+            }
+            int left = cx - ring;
+            int right = cx + ring;
+            int bottom = cy - ring;
+            int top = cy + ring;
+            for (int row = Math.max(bottom, 0); row <= Math.min(top, rows - 1); row++) {
+                boolean edgeRow = row == bottom || row == top;
+                int step = edgeRow ? 1 : right - left;
+                for (int column = left; column <= right; column += Math.max(step, 1)) {
+                    if (column < 0 || column >= columns) {
+                        continue;
+                    }
+                    for (int id = cellHead[row * columns + column]; id != -1; id = cellNext[id]) {
+                        if (id == skip) {
+                            continue;
+                        }
+                        long distance = EuclideanDistance.squaredDistance(x, y, xs[id], ys[id]);
+                        if (found == k && !closer(distance, id, distances[k - 1], result[k - 1])) {
+                            continue;
+                        }
+                        int position = found < k ? found++ : k - 1;
+                        while (position > 0 && closer(distance, id, distances[position - 1], result[position - 1])) {
+                            distances[position] = distances[position - 1];
+                            result[position] = result[position - 1];
+                            position--;
+                        }
+                        distances[position] = distance;
+                        result[position] = id;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private static boolean closer(long distance, int id, long otherDistance, int otherId) {
+        return distance < otherDistance || (distance == otherDistance && id < otherId);
+    }
+
+    // Smallest possible distance from (x, y) to any existing cell of the given ring around cell (cx, cy).
+    private long ringLowerBound(int x, int y, int cx, int cy, int ring) {
+        long bound = Long.MAX_VALUE;
+        if (cx - ring >= 0) {
+            bound = Math.min(bound, axisDistance(x, (long) minX + (long) (cx - ring) * cellSize));
+        }
+        if (cx + ring < columns) {
+            bound = Math.min(bound, axisDistance(x, (long) minX + (long) (cx + ring) * cellSize));
+        }
+        if (cy - ring >= 0) {
+            bound = Math.min(bound, axisDistance(y, (long) minY + (long) (cy - ring) * cellSize));
+        }
+        if (cy + ring < rows) {
+            bound = Math.min(bound, axisDistance(y, (long) minY + (long) (cy + ring) * cellSize));
+        }
+        return bound == Long.MAX_VALUE ? Integer.MAX_VALUE : bound;
+    }
+
+    // Distance along one axis from a coordinate to the strip of cells starting at stripStart.
+    private long axisDistance(int value, long stripStart) {
+        long stripEnd = stripStart + cellSize - 1;
+        if (value < stripStart) {
+            return stripStart - value;
+        }
+        return value > stripEnd ? value - stripEnd : 0;
+    }
+
+    // Fits the box to the live points, plus a margin on every side with withMargin, and relinks them into new cells.
+    private void rebuild(boolean withMargin) {
+        minX = Integer.MAX_VALUE;
+        minY = Integer.MAX_VALUE;
+        maxX = Integer.MIN_VALUE;
+        maxY = Integer.MIN_VALUE;
+        for (int id = 0; id < pointCount; id++) {
+            if (alive[id]) {
+                minX = Math.min(minX, xs[id]);
+                minY = Math.min(minY, ys[id]);
+                maxX = Math.max(maxX, xs[id]);
+                maxY = Math.max(maxY, ys[id]);
+            }
+        }
+        if (liveCount == 0) {
+            minX = 0;
+            minY = 0;
+            maxX = 0;
+            maxY = 0;
+        }
+        if (withMargin) {
+            long marginX = ((long) maxX - minX) / MARGIN_DIVISOR + 1;
+            long marginY = ((long) maxY - minY) / MARGIN_DIVISOR + 1;
+            minX = (int) Math.max(Integer.MIN_VALUE, minX - marginX);
+            maxX = (int) Math.min(Integer.MAX_VALUE, maxX + marginX);
+            minY = (int) Math.max(Integer.MIN_VALUE, minY - marginY);
+            maxY = (int) Math.min(Integer.MAX_VALUE, maxY + marginY);
+        }
+
+        long width = (long) maxX - minX + 1;
+        long height = (long) maxY - minY + 1;
+        long targetCells = Math.max(1, liveCount / TARGET_POINTS_PER_CELL);
+        cellSize = (int) Math.max(1, Math.min(Integer.MAX_VALUE, (long) Math.ceil(Math.sqrt((double) width * height / targetCells))));
+        columns = (int) ((width + cellSize - 1) / cellSize);
+        rows = (int) ((height + cellSize - 1) / cellSize);
+
+        cellHead = new int[columns * rows];
+        Arrays.fill(cellHead, -1);
+        // Link in reverse id order so every cell list ends up sorted by id.
+        for (int id = pointCount - 1; id >= 0; id--) {
+            if (alive[id]) {
+                link(id, cellIndex(xs[id], ys[id]));
+            }
+        }
+    }
+
+    private int cellIndex(int x, int y) {
+        int column = (int) (((long) x - minX) / cellSize);
+        int row = (int) (((long) y - minY) / cellSize);
+        return row * columns + column;
+    }
+
+    private static int clamp(int value, int limit) {
+        return Math.max(0, Math.min(value, limit - 1));
+    }
+
+    private void link(int id, int cell) {
+        int head = cellHead[cell];
+        cellOf[id] = cell;
+        cellPrevious[id] = -1;
+        cellNext[id] = head;
+        if (head != -1) {
+            cellPrevious[head] = id;
+        }
+        cellHead[cell] = id;
+    }
+
+    private void unlink(int id) {
+        int previous = cellPrevious[id];
+        int next = cellNext[id];
+        if (previous == -1) {
+            cellHead[cellOf[id]] = next;
+        } else {
+            cellNext[previous] = next;
+        }
+        if (next != -1) {
+            cellPrevious[next] = previous;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package OptimizeRoute;
+
+/*
+One change to a route as it comes in during the day, for StopEventPipeline: a new stop, a cancelled one,
+or a stop whose address changed. Events are immutable, so they can be handed between threads freely.
+*/
+public final class StopEvent {
+
+    public enum Kind {
+        ADD,
+        DELETE,
+        MOVE
+    }
+
+    private final Kind kind;
+    private final String trackingNumber;
+    // The new stop, for ADD.
+    private final Location location;
+    // The new address, for MOVE.
+    private final int x;
+    private final int y;
+
+    private StopEvent(Kind kind, String trackingNumber, Location location, int x, int y) {
+        if (trackingNumber == null) {
+            throw new IllegalArgumentException("A stop event needs a tracking number");
+        }
+        this.kind = kind;
+        this.trackingNumber = trackingNumber;
+        this.location = location;
+        this.x = x;
+        this.y = y;
+    }
+
+    // Adds the stop, or replaces the stop with the same tracking number.
+    public static StopEvent add(Location location) {
+        return new StopEvent(Kind.ADD, location.getTrackingNumber(), location, location.getX(), location.getY());
+    }
+
+    public static StopEvent delete(String trackingNumber) {
+        return new StopEvent(Kind.DELETE, trackingNumber, null, 0, 0);
+    }
+
+    // Moves the stop to a new address and keeps everything else about it.
+    public static StopEvent move(String trackingNumber, int x, int y) {
+        return new StopEvent(Kind.MOVE, trackingNumber, null, x, y);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+    public String getTrackingNumber() {
+        return trackingNumber;
+    }
+    public Location getLocation() {
+        return location;
+    }
+    public int getX() {
+        return x;
+    }
+    public int getY() {
+        return y;
+    }
+
+    /*
+    The one event that has the same effect as this one followed by later, for the same stop.
+    A move after an add is an add at the new address; a move of a deleted stop stays a delete.
+    */
+    StopEvent then(StopEvent later) {
+        if (later.kind != Kind.MOVE) {
+            return later;
+        }
+        if (kind == Kind.ADD) {
+            return add(location.movedTo(later.x, later.y));
+        }
+        return kind == Kind.DELETE ? this : later;
+    }
+}
@@ -0,0 +1,200 @@
+package OptimizeRoute;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/*
+Takes the stream of stop events during the day (new stops, cancellations, changed addresses) and applies them to a
+Route in batches, instead of running a full optimizeRoute() for every single event.
+
+Events go into a bounded queue. When it is full, submit() waits and offer() gives up after its timeout, so a burst
+from the scan stations slows the senders down instead of piling up without limit. One worker thread takes the first
+event of a batch and then keeps collecting for windowMillis (or until a batch is as big as the queue). The batch is
+coalesced per tracking number, so a stop that is added and cancelled in the same window never touches the route,
+and ten moves of one stop are one move. What is left goes to Route.applyChanges(), which does all of it with a
+single local repair, or one optimizeRoute() when the batch changes a big part of the route. So the work per second
+depends on the window, not on how many events arrive.
+
+After every batch the listener gets a TourSnapshot of the route, on the worker thread. Like with an OptimizationJob,
+the Route belongs to the pipeline from start() until close() returns, and must not be read or changed by anyone else.
+*/
+public class StopEventPipeline {
+
+    public static final int DEFAULT_CAPACITY = 10_000;
+    public static final long DEFAULT_WINDOW_MILLIS = 200;
+    // How often an idle worker looks whether close() was called.
+    private static final long IDLE_POLL_MILLIS = 50;
+
+    private final Route route;
+    private final BlockingQueue<StopEvent> queue;
+    private final int capacity;
+    private final long windowMillis;
+    private final Consumer<TourSnapshot> listener;
+    private final Thread worker;
+    private volatile boolean closing;
+    private volatile Throwable error;
+
+    private final AtomicLong eventsReceived = new AtomicLong();
+    private final AtomicLong eventsApplied = new AtomicLong();
+    private final AtomicLong batchesApplied = new AtomicLong();
+
+    public StopEventPipeline(Route route, Consumer<TourSnapshot> listener) {
+        this(route, DEFAULT_CAPACITY, DEFAULT_WINDOW_MILLIS, listener);
+    }
+
+    public StopEventPipeline(Route route, int capacity, long windowMillis, Consumer<TourSnapshot> listener) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The queue needs room for at least one event, got " + capacity);
+        }
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("Invalid window " + windowMillis);
+        }
+        this.route = route;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.capacity = capacity;
+        this.windowMillis = windowMillis;
+        this.listener = listener;
+        this.worker = new Thread(this::run, "stop-events");
+        this.worker.setDaemon(true);
+    }
+
+    public void start() {
+        worker.start();
+    }
+
+    // Queues an event, waiting while the queue is full.
+    public void submit(StopEvent event) throws InterruptedException {
+        checkOpen();
+        queue.put(event);
+        eventsReceived.incrementAndGet();
+    }
+
+    // Queues an event, waiting at most the timeout for room. Returns false if the queue stayed full.
+    public boolean offer(StopEvent event, long timeout, TimeUnit unit) throws InterruptedException {
+        checkOpen();
+        if (!queue.offer(event, timeout, unit)) {
+            return false;
+        }
+        eventsReceived.incrementAndGet();
+        return true;
+    }
+
+    /*
+    Stops taking events, applies the ones still queued and waits for the worker to finish.
+    After this the Route can be used again.
+    */
+    public void close() throws InterruptedException {
+        closing = true;
+        if (worker.isAlive()) {
+            worker.join();
+        }
+        if (error != null) {
+            throw new IllegalStateException("Applying stop events failed", error);
+        }
+    }
+
+    public long getEventsReceived() {
+        return eventsReceived.get();
+    }
+    // Events left after coalescing, that is the changes that reached the route.
+    public long getEventsApplied() {
+        return eventsApplied.get();
+    }
+    public long getBatchesApplied() {
+        return batchesApplied.get();
+    }
+    public int getQueuedEvents() {
+        return queue.size();
+    }
+
+    private void checkOpen() {
+        if (closing) {
+            throw new IllegalStateException("The pipeline is closed");
+        }
+        if (error != null) {
+            throw new IllegalStateException("Applying stop events failed", error);
+        }
+    }
+
+    private void run() {
+        List<StopEvent> batch = new ArrayList<>();
+        try {
+            while (true) {
+                StopEvent first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closing) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.clear();
+                batch.add(first);
+                long deadline = System.nanoTime() + windowMillis * 1_000_000L;
+                while (batch.size() < capacity && !closing) {
+                    long left = deadline - System.nanoTime();
+                    StopEvent next = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, capacity - batch.size());
+                }
+                // Once closing, whatever is still queued goes into this batch.
+                if (closing) {
+                    queue.drainTo(batch);
+                }
+                apply(batch);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException | Error e) {
+            error = e;
+            queue.clear();
+        }
+    }
+
+    // Coalesces the batch per tracking number, keeping the order in which the stops first showed up.
+    private void apply(List<StopEvent> batch) {
+        Map<String, StopEvent> pending = new LinkedHashMap<>();
+        for (StopEvent event : batch) {
+            StopEvent earlier = pending.get(event.getTrackingNumber());
+            pending.put(event.getTrackingNumber(), earlier == null ? event : earlier.then(event));
+        }
+        List<String> removals = new ArrayList<>();
+        List<Location> additions = new ArrayList<>();
+        for (StopEvent event : pending.values()) {
+            Node existing = route.findTrackingNumber(event.getTrackingNumber());
+            switch (event.getKind()) {
+                case ADD:
+                    if (existing != null) {
+                        removals.add(event.getTrackingNumber());
+                    }
+                    additions.add(event.getLocation());
+                    break;
+                case DELETE:
+                    removals.add(event.getTrackingNumber());
+                    break;
+                case MOVE:
+                    // Moving a stop that is not on the route does nothing.
+                    if (existing != null) {
+                        removals.add(event.getTrackingNumber());
+                        additions.add(existing.getCurrentLocation().movedTo(event.getX(), event.getY()));
+                    }
+                    break;
+            }
+        }
+        route.applyChanges(removals, additions);
+        eventsApplied.addAndGet(pending.size());
+        batchesApplied.incrementAndGet();
+        if (listener != null) {
+            listener.accept(TourSnapshot.of(route));
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package OptimizeRoute;
+
+import java.util.Arrays;
+
+/*
+Builds and improves routes whose stops have time windows, on plain arrays like TourImprover.
+The van leaves the depot at the travel model's start time, waits when it is early for a stop and spends the
+service time at every stop. Arriving after a stop's latest time is a violation.
+
+Routes are compared by how late they are first ("time warp": the total time the van would have to travel back
+in time to be on time everywhere) and by driving distance second, so a route that fits all windows always wins,
+and a route that cannot fit them all is made as little late as possible. The distance includes the leg from the depot
+and, for a closed route or one with a fixed end, the leg after the last stop. That last leg has no time window,
+so it only counts towards the distance.
+
+Feasibility of a move is checked in O(1). For every piece of the route a summary of four numbers is kept
+(duration, time warp, earliest and latest time it can be started without waiting or warping), and the summary
+of two pieces joined by a drive is computed from theirs alone. The summaries of every prefix (the forward view)
+and every suffix (the backward view) of the route are cached, so a move is checked by joining a cached prefix,
+the moved piece and a cached suffix instead of driving the whole route again. The piece between the old and the
+new place of a move is grown by one stop per candidate, which keeps that O(1) too.
+Only the caches are rebuilt, in O(n), after a move is made.
+
+Construction is cheapest insertion: stops with the earliest deadlines are inserted first, each at the place that
+keeps the route least late and then shortest. The improvement runs 2-opt and Or-opt (pieces of 1 to 3 stops,
+either way round) moves until none helps. Every place on the route is tried, so one pass is O(n^2); routes with
+time windows are one van's day, not the huge routes TourImprover is built for.
+*/
+public class TimeWindowOptimizer {
+
+    private static final double EPSILON = 1e-7;
+    private static final int MAX_SEGMENT = 3;
+    private static final int DEPOT = -1;
+    private static final int NONE = -2;
+
+    private final int count;
+    private final DistanceTable distances;
+    private final double[] depotDistance;
+    private final double[] endDistance;
+    private final TravelModel travel;
+    private final Segment[] single;
+    private final Segment depot;
+
+    private final int[] tour;
+    private final int[] scratchTour;
+    private final Segment[] prefix;
+    private final Segment[] suffix;
+    // nextTime[k]: travel time from tour[k] to tour[k + 1], so growing a piece along the route needs no distance lookup.
+    private final double[] nextTime;
+    private int length;
+    private volatile boolean stopped;
+
+    // Reused summaries for the candidate moves.
+    private final Segment piece = new Segment();
+    private final Segment reversedPiece = new Segment();
+    private final Segment middle = new Segment();
+    private final Segment joined = new Segment();
+    private final Segment joinedAll = new Segment();
+    private final Segment tailPart = new Segment();
+
+    /*
+    depotDistance[i] is the distance from the depot to stop i, endDistance[i] the one from stop i to the end of the route
+    (null for an open route). Times are in the travel model's minutes, and latest[i] is Double.POSITIVE_INFINITY
+    for stops without a deadline.
+    */
+    public TimeWindowOptimizer(int count, double[] earliest, double[] latest, double[] service,
+                               DistanceTable distances, double[] depotDistance, double[] endDistance, TravelModel travel) {
+        this.count = count;
+        this.distances = distances;
+        this.depotDistance = depotDistance;
+        this.endDistance = endDistance;
+        this.travel = travel;
+        this.single = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            single[i] = new Segment().setStop(i, service[i], earliest[i], latest[i]);
+        }
+        this.depot = new Segment().setStop(DEPOT, 0, travel.getStartTime(), Double.POSITIVE_INFINITY);
+        this.tour = new int[count];
+        this.scratchTour = new int[count];
+        this.prefix = new Segment[count];
+        this.suffix = new Segment[count];
+        this.nextTime = new double[count];
+        for (int i = 0; i < count; i++) {
+            prefix[i] = new Segment();
+            suffix[i] = new Segment();
+        }
+    }
+
+    // Cheapest insertion in order of deadline. Returns the visiting order.
+    public int[] build() {
+        Integer[] byDeadline = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            byDeadline[i] = i;
+        }
+        Arrays.sort(byDeadline, (a, b) -> {
+            int compare = Double.compare(single[a].latest, single[b].latest);
+            return compare != 0 ? compare : Double.compare(single[a].earliest, single[b].earliest);
+        });
+
+        length = 0;
+        for (int stop : byDeadline) {
+            int bestPlace = -1;
+            double bestWarp = Double.POSITIVE_INFINITY;
+            double bestCost = Double.POSITIVE_INFINITY;
+            // Place p means after tour[p]; -1 is right after the depot.
+            for (int p = -1; p < length; p++) {
+                Segment before = p < 0 ? depot : prefix[p];
+                joined.join(before, single[stop], time(before.last, stop));
+                double warp = joined.timeWarp;
+                double cost = distance(before.last, stop);
+                if (p + 1 < length) {
+                    int next = tour[p + 1];
+                    warp = joinedAll.join(joined, suffix[p + 1], time(stop, next)).timeWarp;
+                    cost += distance(stop, next) - distance(before.last, next);
+                } else {
+                    cost += endDistance(stop) - endDistance(before.last);
+                }
+                if (warp < bestWarp - EPSILON || (warp <= bestWarp + EPSILON && cost < bestCost)) {
+                    bestPlace = p;
+                    bestWarp = warp;
+                    bestCost = cost;
+                }
+            }
+            System.arraycopy(tour, bestPlace + 1, tour, bestPlace + 2, length - bestPlace - 1);
+            tour[bestPlace + 1] = stop;
+            length++;
+            rebuild();
+        }
+        return Arrays.copyOf(tour, count);
+    }
+
+    /*
+    Improves the given visiting order in place. timeLimitMillis <= 0 runs until no move helps.
+    Returns true if it stopped because no move helps.
+    */
+    public boolean improve(int[] order, long timeLimitMillis) {
+        if (count < 3) {
+            return true;
+        }
+        System.arraycopy(order, 0, tour, 0, count);
+        length = count;
+        rebuild();
+        long deadline = timeLimitMillis > 0 ? System.nanoTime() + timeLimitMillis * 1_000_000L : Long.MAX_VALUE;
+        boolean converged = false;
+        while (!converged && !isOutOfTime(deadline)) {
+            boolean improved = twoOptPass(deadline);
+            improved |= orOptPass(deadline);
+            converged = !improved;
+        }
+        System.arraycopy(tour, 0, order, 0, count);
+        return converged;
+    }
+
+    // Makes a running improve() return soon with the best order so far. Can be called from any thread.
+    public void stop() {
+        stopped = true;
+    }
+
+    private boolean isOutOfTime(long deadline) {
+        return stopped || System.nanoTime() >= deadline;
+    }
+
+    // Total time warp of a visiting order: 0 when every stop is reached within its window.
+    public double timeWarp(int[] order) {
+        System.arraycopy(order, 0, tour, 0, count);
+        length = count;
+        rebuild();
+        return currentWarp();
+    }
+
+    // Reverses tour[i + 1 .. j] when that makes the route less late or shorter.
+    private boolean twoOptPass(long deadline) {
+        boolean improved = false;
+        for (int i = -1; i < length - 2; i++) {
+            if (isOutOfTime(deadline)) {
+                break;
+            }
+            Segment before = i < 0 ? depot : prefix[i];
+            int a = before.last;
+            int b = tour[i + 1];
+            double warp = currentWarp();
+            double removed = distance(a, b);
+            middle.copy(single[b]);
+            for (int j = i + 2; j < length; j++) {
+                int c = tour[j];
+                double ac = distance(a, c);
+                // The reversed piece c, ..., b grows at its front.
+                middle.join(single[c], middle, nextTime[j - 1]);
+                joined.join(before, middle, travel.travelTime(ac));
+                if (joined.timeWarp > warp + EPSILON) {
+                    // Joining more pieces never takes time warp away.
+                    break;
+                }
+                double newWarp = joined.timeWarp;
+                double gain = removed - ac;
+                if (j + 1 < length) {
+                    int d = tour[j + 1];
+                    double bd = distance(b, d);
+                    gain += distance(c, d) - bd;
+                    if (warp <= 0 && gain <= EPSILON) {
+                        // On time already, so only a shorter route helps.
+                        continue;
+                    }
+                    newWarp = joinedAll.join(joined, suffix[j + 1], travel.travelTime(bd)).timeWarp;
+                } else {
+                    // b becomes the last stop.
+                    gain += endDistance(c) - endDistance(b);
+                }
+                if (isBetter(newWarp, gain, warp)) {
+                    reverse(i + 1, j);
+                    rebuild();
+                    improved = true;
+                    i--;
+                    break;
+                }
+            }
+        }
+        return improved;
+    }
+
+    // Moves tour[s .. e] (1 to 3 stops, either way round) to another place when that makes the route less late or shorter.
+    private boolean orOptPass(long deadline) {
+        boolean improved = false;
+        for (int s = 0; s < length; s++) {
+            if (isOutOfTime(deadline)) {
+                break;
+            }
+            for (int size = 1; size <= MAX_SEGMENT && s + size <= length; size++) {
+                if (tryMoveSegment(s, s + size - 1)) {
+                    improved = true;
+                    s--;
+                    break;
+                }
+            }
+        }
+        return improved;
+    }
+
+    private boolean tryMoveSegment(int s, int e) {
+        double warp = currentWarp();
+        Segment before = s > 0 ? prefix[s - 1] : depot;
+        int previous = before.last;
+        int next = e + 1 < length ? tour[e + 1] : NONE;
+        piece.copy(single[tour[s]]);
+        reversedPiece.copy(single[tour[e]]);
+        for (int k = s + 1; k <= e; k++) {
+            piece.join(piece, single[tour[k]], nextTime[k - 1]);
+            int r = tour[e - (k - s)];
+            reversedPiece.join(reversedPiece, single[r], time(reversedPiece.last, r));
+        }
+        double removeGain = distance(previous, tour[s]);
+        if (next != NONE) {
+            removeGain += distance(tour[e], next) - distance(previous, next);
+        } else {
+            removeGain += endDistance(tour[e]) - endDistance(previous);
+        }
+
+        // Later on the route: between tour[p] and tour[p + 1].
+        double closeGap = next != NONE ? time(previous, next) : 0;
+        for (int p = e + 1; p < length; p++) {
+            int x = tour[p];
+            if (p == e + 1) {
+                middle.copy(single[x]);
+            } else {
+                middle.join(middle, single[x], nextTime[p - 1]);
+            }
+            Segment head = tailPart.join(before, middle, closeGap);
+            if (head.timeWarp > warp + EPSILON) {
+                break;
+            }
+            int y = p + 1 < length ? tour[p + 1] : NONE;
+            for (int orientation = 0; orientation < 2; orientation++) {
+                Segment moved = orientation == 0 ? piece : reversedPiece;
+                double toFirst = distance(x, moved.first);
+                double fromLast = y != NONE ? distance(moved.last, y) : 0;
+                double addCost = toFirst + (y != NONE ? fromLast - distance(x, y) : endDistance(moved.last) - endDistance(x));
+                if (warp <= 0 && removeGain - addCost <= EPSILON) {
+                    continue;
+                }
+                double newWarp = joined.join(head, moved, travel.travelTime(toFirst)).timeWarp;
+                if (y != NONE) {
+                    newWarp = joinedAll.join(joined, suffix[p + 1], travel.travelTime(fromLast)).timeWarp;
+                }
+                if (isBetter(newWarp, removeGain - addCost, warp)) {
+                    moveSegment(s, e, p, orientation == 1);
+                    return true;
+                }
+            }
+        }
+
+        // Earlier on the route: between tour[p] (or the depot) and tour[p + 1].
+        for (int p = s - 2; p >= -1; p--) {
+            int y = tour[p + 1];
+            if (p == s - 2) {
+                middle.copy(single[y]);
+            } else {
+                middle.join(single[y], middle, nextTime[p + 1]);
+            }
+            Segment rest = middle;
+            if (next != NONE) {
+                rest = tailPart.join(middle, suffix[e + 1], closeGap);
+            }
+            if (rest.timeWarp > warp + EPSILON) {
+                break;
+            }
+            Segment head = p >= 0 ? prefix[p] : depot;
+            int x = head.last;
+            for (int orientation = 0; orientation < 2; orientation++) {
+                Segment moved = orientation == 0 ? piece : reversedPiece;
+                double toFirst = distance(x, moved.first);
+                double fromLast = distance(moved.last, y);
+                double addCost = toFirst + fromLast - distance(x, y);
+                if (warp <= 0 && removeGain - addCost <= EPSILON) {
+                    continue;
+                }
+                joined.join(head, moved, travel.travelTime(toFirst));
+                double newWarp = joinedAll.join(joined, rest, travel.travelTime(fromLast)).timeWarp;
+                if (isBetter(newWarp, removeGain - addCost, warp)) {
+                    moveSegment(s, e, p, orientation == 1);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Less late, or just as late and shorter.
+    private static boolean isBetter(double newWarp, double gain, double warp) {
+        return newWarp < warp - EPSILON || (newWarp <= warp && gain > EPSILON);
+    }
+
+    // Moves tour[s .. e] so it follows tour[p] (p = -1: the depot), optionally reversed, and rebuilds the caches.
+    private void moveSegment(int s, int e, int p, boolean reversed) {
+        int out;
+        if (p > e) {
+            System.arraycopy(tour, 0, scratchTour, 0, s);
+            out = s;
+            System.arraycopy(tour, e + 1, scratchTour, out, p - e);
+            out += p - e;
+            out = copyPiece(s, e, reversed, out);
+            System.arraycopy(tour, p + 1, scratchTour, out, length - p - 1);
+        } else {
+            // p < s - 1, so the piece moves in front of tour[p + 1 .. s - 1].
+            System.arraycopy(tour, 0, scratchTour, 0, p + 1);
+            out = copyPiece(s, e, reversed, p + 1);
+            System.arraycopy(tour, p + 1, scratchTour, out, s - p - 1);
+            out += s - p - 1;
+            System.arraycopy(tour, e + 1, scratchTour, out, length - e - 1);
+        }
+        System.arraycopy(scratchTour, 0, tour, 0, length);
+        rebuild();
+    }
+
+    private int copyPiece(int s, int e, boolean reversed, int out) {
+        for (int k = 0; k <= e - s; k++) {
+            scratchTour[out++] = reversed ? tour[e - k] : tour[s + k];
+        }
+        return out;
+    }
+
+    private void reverse(int i, int j) {
+        while (i < j) {
+            int swap = tour[i];
+            tour[i++] = tour[j];
+            tour[j--] = swap;
+        }
+    }
+
+    // Recomputes the forward (prefix) and backward (suffix) summaries of the current tour.
+    private void rebuild() {
+        for (int k = 0; k < length; k++) {
+            Segment before = k > 0 ? prefix[k - 1] : depot;
+            prefix[k].join(before, single[tour[k]], time(before.last, tour[k]));
+        }
+        for (int k = length - 1; k >= 0; k--) {
+            if (k == length - 1) {
+                suffix[k].copy(single[tour[k]]);
+            } else {
+                nextTime[k] = time(tour[k], tour[k + 1]);
+                suffix[k].join(single[tour[k]], suffix[k + 1], nextTime[k]);
+            }
+        }
+    }
+
+    private double currentWarp() {
+        return length == 0 ? 0 : prefix[length - 1].timeWarp;
+    }
+
+    private double distance(int from, int to) {
+        return from == DEPOT ? depotDistance[to] : distances.distance(from, to);
+    }
+
+    // Leg from the last stop to the end of the route; nothing for an open route or a route without stops.
+    private double endDistance(int last) {
+        return endDistance == null || last == DEPOT ? 0 : endDistance[last];
+    }
+
+    private double time(int from, int to) {
+        return travel.travelTime(distance(from, to));
+    }
+
+    /*
+    Summary of a piece of route: how long it takes (driving, waiting and service), how much time warp it needs,
+    and the earliest and latest time it can be started without waiting or warping at its first stop.
+    */
+    private static class Segment {
+        double duration;
+        double timeWarp;
+        double earliest;
+        double latest;
+        int first;
+        int last;
+
+        Segment setStop(int stop, double service, double earliestTime, double latestTime) {
+            duration = service;
+            timeWarp = 0;
+            earliest = earliestTime;
+            latest = latestTime;
+            first = stop;
+            last = stop;
+            return this;
+        }
+
+        Segment copy(Segment other) {
+            duration = other.duration;
+            timeWarp = other.timeWarp;
+            earliest = other.earliest;
+            latest = other.latest;
+            first = other.first;
+            last = other.last;
+            return this;
+        }
+
+        // This becomes a followed by b, with travelTime between them. This may be a or b.
+        Segment join(Segment a, Segment b, double travelTime) {
+            double delta = a.duration - a.timeWarp + travelTime;
+            double wait = Math.max(b.earliest - delta - a.latest, 0);
+            double warp = Math.max(a.earliest + delta - b.latest, 0);
+            double newEarliest = Math.max(b.earliest - delta, a.earliest) - wait;
+            double newLatest = Math.min(b.latest - delta, a.latest) + warp;
+            duration = a.duration + b.duration + travelTime + wait;
+            timeWarp = a.timeWarp + b.timeWarp + warp;
+            earliest = newEarliest;
+            latest = newLatest;
+            int newFirst = a.first;
+            last = b.last;
+            first = newFirst;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package OptimizeRoute;
+
+// A stop that the route reaches after its latest time, see Route.timeWindowViolations().
+public class TimeWindowViolation {
+
+    private final int position;
+    private final Location location;
+    private final double arrivalTime;
+
+    public TimeWindowViolation(int position, Location location, double arrivalTime) {
+        this.position = position;
+        this.location = location;
+        this.arrivalTime = arrivalTime;
+    }
+
+    // Position of the stop on the route, 0 for the first stop.
+    public int getPosition() {
+        return position;
+    }
+    public Location getLocation() {
+        return location;
+    }
+    public double getArrivalTime() {
+        return arrivalTime;
+    }
+    // Minutes after the end of the window.
+    public double getLateness() {
+        return arrivalTime - location.getLatestTime();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Stop %d (%s) arrives at %.1f, %.1f minutes after its window closes at %.1f",
+                position + 1, location.getTrackingNumber(), arrivalTime, getLateness(), location.getLatestTime());
+    }
+}
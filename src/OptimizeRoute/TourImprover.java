@@ -0,0 +1,579 @@
+package OptimizeRoute;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/*
+Local search that shortens a route produced by the greedy pass, using 2-opt and Or-opt moves.
+
+The route is handled as a cycle stored in an array (tour/position). Besides the stops 0..n-1 the cycle holds two
+sentinel nodes: START (n) sits in front of the first stop and END (n + 1) after the last one, and the edge END-START
+is fixed, so the cycle always reads START, first stop, ..., last stop, END. An edge from START to a stop costs the drive
+from the depot and an edge from a stop to END the drive to the end of the route (see RouteEnds), so the moves pick the
+first and the last stop like any other edge; the fixed END-START edge costs nothing.
+
+Only the k nearest stops of every stop are tried as move partners (neighbor lists), and a stop is only looked at again
+after one of its edges has changed (don't-look bits, kept as a queue of active stops).
+Edge lengths come from a DistanceTable. The neighbor lists are picked on a SpatialGrid for straight-line providers
+and from the rows of the DistanceTable for any other (road distances rank stops differently), see buildNeighbors().
+*/
+public class TourImprover implements TourSearch {
+
+    public static final int DEFAULT_NEIGHBORS = 8;
+    private static final double EPSILON = 1e-7;
+    private static final int MAX_SEGMENT = 3;
+    private static final int KICK_SEGMENT = 50;
+
+    private final DistanceTable distances;
+    private final RouteEnds ends;
+    private final int stopCount;
+    private final int nodeCount;
+    private final int start;
+    private final int end;
+    private final int[] neighbors;
+    private final int neighborCount;
+
+    private final int[] tour;
+    private final int[] position;
+    private final int[] queue;
+    private final boolean[] queued;
+    private int queueHead;
+    private int queueSize;
+    private double tourLength;
+
+    // What the last improve() / improveWithKicks() call did, for OptimizationMetrics.
+    private int twoOptMoves;
+    private double twoOptGain;
+    private int orOptMoves;
+    private double orOptGain;
+    private int kicksKept;
+    private double kickGain;
+
+    // Last route kept by kick(), to go back to when a kick does not pay off. Only valid while savedTourCurrent is set.
+    private int[] savedTour;
+    private double savedLength;
+    private boolean savedTourCurrent;
+
+    // An open route leaving from (0, 0), with straight-line distances.
+    public TourImprover(int[] xs, int[] ys, int count) {
+        this(xs, ys, count, buildNeighbors(xs, ys, count, DEFAULT_NEIGHBORS), DEFAULT_NEIGHBORS);
+    }
+
+    public TourImprover(int[] xs, int[] ys, int count, int[] neighbors, int neighborCount) {
+        this(count, neighbors, neighborCount, EuclideanDistance.INSTANCE.table(xs, ys, count),
+                RouteEnds.open(xs, ys, count, EuclideanDistance.INSTANCE, 0, 0));
+    }
+
+    public TourImprover(int count, int[] neighbors, int neighborCount, DistanceTable distances, RouteEnds ends) {
+        this.distances = distances;
+        this.ends = ends;
+        this.stopCount = count;
+        this.nodeCount = count + 2;
+        this.start = count;
+        this.end = count + 1;
+        this.neighbors = neighbors;
+        this.neighborCount = neighborCount;
+        this.tour = new int[nodeCount];
+        this.position = new int[nodeCount];
+        this.queue = new int[nodeCount];
+        this.queued = new boolean[nodeCount];
+    }
+
+    /*
+    For every stop, the ids of its k nearest other stops, closest first, in a flat array (stop i owns slots i*k .. i*k+k-1).
+    Stops with fewer than k other stops pad their row with -1.
+    */
+    public static int[] buildNeighbors(int[] xs, int[] ys, int count, int k) {
+        int[] neighbors = new int[count * k];
+        SpatialGrid grid = SpatialGrid.of(xs, ys, count);
+        int[] found = new int[k];
+        for (int i = 0; i < count; i++) {
+            int size = grid.nearest(xs[i], ys[i], k, i, found);
+            for (int j = 0; j < k; j++) {
+                neighbors[i * k + j] = j < size ? found[j] : -1;
+            }
+        }
+        return neighbors;
+    }
+
+    /*
+    The same lists ranked by a DistanceTable instead of straight lines, for providers like RoadDistance: every stop
+    scans its whole row, so this takes count * count lookups, spread over the threads of the common pool with one
+    DistanceTable.forThread() each. Ties go to the smaller id.
+    */
+    public static int[] buildNeighbors(DistanceTable distances, int count, int k) {
+        int[] neighbors = new int[count * k];
+        ThreadLocal<DistanceTable> tables = ThreadLocal.withInitial(distances::forThread);
+        ThreadLocal<double[]> rowDistances = ThreadLocal.withInitial(() -> new double[k]);
+        IntStream.range(0, count).parallel().forEach(i -> {
+            int found = nearestInRow(tables.get(), count, i, k, rowDistances.get(), neighbors, i * k);
+            Arrays.fill(neighbors, i * k + found, i * k + k, -1);
+        });
+        return neighbors;
+    }
+
+    // Neighbor lists for a search measured by the given provider and table: on a grid or from the table, see above.
+    public static int[] buildNeighbors(int[] xs, int[] ys, int count, int k, DistanceProvider distanceProvider,
+                                       DistanceTable distances) {
+        return distanceProvider.isStraightLine() ? buildNeighbors(xs, ys, count, k) : buildNeighbors(distances, count, k);
+    }
+
+    /*
+    Writes up to k stops closest to stop by the table into result[offset ..], closest first, and returns how many.
+    rowDistances (at least k long) is scratch space.
+    */
+    static int nearestInRow(DistanceTable distances, int count, int stop, int k, double[] rowDistances,
+                            int[] result, int offset) {
+        int found = 0;
+        for (int other = 0; other < count; other++) {
+            if (other == stop) {
+                continue;
+            }
+            double distance = distances.distance(stop, other);
+            // The stops come in id order, so a tie never moves ahead of the earlier stop.
+            if (found == k && distance >= rowDistances[k - 1]) {
+                continue;
+            }
+            int position = found < k ? found++ : k - 1;
+            while (position > 0 && distance < rowDistances[position - 1]) {
+                rowDistances[position] = rowDistances[position - 1];
+                result[offset + position] = result[offset + position - 1];
+                position--;
+            }
+            rowDistances[position] = distance;
+            result[offset + position] = other;
+        }
+        return found;
+    }
+
+    /*
+    Improves the given visiting order (stop ids, first stop first) in place.
+    timeLimitMillis <= 0 runs until no improving move is left. Returns true if it stopped at a local optimum.
+    */
+    @Override
+    public boolean improve(int[] order, long timeLimitMillis) {
+        if (stopCount < 3) {
+            return true;
+        }
+        start(order);
+        boolean converged = resume(timeLimitMillis);
+        readOrder(order);
+        return converged;
+    }
+
+    /*
+    The same search in slices, for callers that want to look at the route in between (see OptimizationJob):
+    start() loads an order, every resume() continues where the last one stopped, and copyOrder() reads the route out.
+    */
+    @Override
+    public void start(int[] order) {
+        load(order);
+    }
+
+    // Returns true once no improving move is left. A time limit <= 0 runs until then.
+    @Override
+    public boolean resume(long timeLimitMillis) {
+        if (stopCount < 3) {
+            return true;
+        }
+        long deadline = timeLimitMillis > 0 ? System.nanoTime() + timeLimitMillis * 1_000_000L : Long.MAX_VALUE;
+        savedTourCurrent = false;
+        return runQueue(deadline);
+    }
+
+    @Override
+    public void copyOrder(int[] order) {
+        readOrder(order);
+    }
+
+    // Length of the current route, including the legs from the depot and to the end.
+    @Override
+    public double getTourLength() {
+        return tourLength;
+    }
+
+    /*
+    Iterated local search: after the normal improvement, repeatedly swaps two short neighboring pieces of the route
+    (a "double bridge" kick that 2-opt and Or-opt cannot undo in one move), repairs the route around the kick
+    and keeps the result only if the whole route got shorter. Runs without a time limit, so the result
+    only depends on the order and the random source.
+    */
+    public void improveWithKicks(int[] order, int kicks, SplittableRandom random) {
+        if (stopCount < 8) {
+            improve(order, 0);
+            return;
+        }
+        load(order);
+        runQueue(Long.MAX_VALUE);
+        for (int k = 0; k < kicks; k++) {
+            kick(random);
+        }
+        readOrder(order);
+    }
+
+    /*
+    One kick of improveWithKicks() on the current route, which should be at a local optimum (after resume() returned true).
+    The kicked and repaired route is kept only if it is shorter; returns true if it was.
+    */
+    @Override
+    public boolean kick(SplittableRandom random) {
+        if (stopCount < 8) {
+            return false;
+        }
+        if (!savedTourCurrent) {
+            if (savedTour == null) {
+                savedTour = new int[nodeCount];
+            }
+            System.arraycopy(tour, 0, savedTour, 0, nodeCount);
+            savedLength = tourLength;
+            savedTourCurrent = true;
+        }
+        if (!doubleBridge(random)) {
+            return false;
+        }
+        runQueue(Long.MAX_VALUE);
+        if (tourLength < savedLength - EPSILON) {
+            kicksKept++;
+            kickGain += savedLength - tourLength;
+            System.arraycopy(tour, 0, savedTour, 0, nodeCount);
+            savedLength = tourLength;
+            return true;
+        }
+        System.arraycopy(savedTour, 0, tour, 0, nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            position[tour[i]] = i;
+        }
+        tourLength = savedLength;
+        return false;
+    }
+
+    @Override
+    public void reportPasses(OptimizationMetrics metrics) {
+        metrics.improvementPass("2-opt", twoOptMoves, twoOptGain);
+        metrics.improvementPass("or-opt", orOptMoves, orOptGain);
+    }
+
+    public int getTwoOptMoves() {
+        return twoOptMoves;
+    }
+    public double getTwoOptGain() {
+        return twoOptGain;
+    }
+    public int getOrOptMoves() {
+        return orOptMoves;
+    }
+    public double getOrOptGain() {
+        return orOptGain;
+    }
+    // Kicks that made the best route shorter, and how much shorter in total. The gains of the moves
+    // inside rejected kicks are still counted in the 2-opt / Or-opt totals.
+    public int getKicksKept() {
+        return kicksKept;
+    }
+    public double getKickGain() {
+        return kickGain;
+    }
+
+    private void load(int[] order) {
+        tour[0] = start;
+        for (int i = 0; i < stopCount; i++) {
+            tour[i + 1] = order[i];
+        }
+        tour[nodeCount - 1] = end;
+        for (int i = 0; i < nodeCount; i++) {
+            position[tour[i]] = i;
+        }
+        savedTourCurrent = false;
+        twoOptMoves = 0;
+        twoOptGain = 0;
+        orOptMoves = 0;
+        orOptGain = 0;
+        kicksKept = 0;
+        kickGain = 0;
+        tourLength = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            tourLength += cost(tour[i], next(tour[i]));
+        }
+
+        queueHead = 0;
+        queueSize = 0;
+        for (int i = 0; i < stopCount; i++) {
+            push(order[i]);
+        }
+    }
+
+    private boolean runQueue(long deadline) {
+        int steps = 0;
+        while (queueSize > 0) {
+            if ((++steps & 127) == 0 && System.nanoTime() > deadline) {
+                return false;
+            }
+            int node = poll();
+            if (improveTwoOpt(node) || improveOrOpt(node)) {
+                push(node);
+            }
+        }
+        return true;
+    }
+
+    // Turns A B C D into A C B D, where B and C are short pieces that follow each other in the array.
+    private boolean doubleBridge(SplittableRandom random) {
+        int firstLength = 1 + random.nextInt(KICK_SEGMENT);
+        int secondLength = 1 + random.nextInt(KICK_SEGMENT);
+        if (firstLength + secondLength + 2 > nodeCount) {
+            return false;
+        }
+        int p1 = random.nextInt(nodeCount - firstLength - secondLength - 1);
+        int p2 = p1 + firstLength;
+        int p3 = p2 + secondLength;
+        int a = tour[p1];
+        int b1 = tour[p1 + 1];
+        int bEnd = tour[p2];
+        int c1 = tour[p2 + 1];
+        int cEnd = tour[p3];
+        int d = tour[p3 + 1];
+        if (isFixed(a, b1) || isFixed(bEnd, c1) || isFixed(cEnd, d)) {
+            return false;
+        }
+        tourLength += cost(a, c1) + cost(cEnd, b1) + cost(bEnd, d) - cost(a, b1) - cost(bEnd, c1) - cost(cEnd, d);
+        reversePositions(p1 + 1, p2);
+        reversePositions(p2 + 1, p3);
+        reversePositions(p1 + 1, p3);
+        push(a);
+        push(b1);
+        push(bEnd);
+        push(c1);
+        push(cEnd);
+        push(d);
+        return true;
+    }
+
+    private void reversePositions(int i, int j) {
+        while (i < j) {
+            int nodeI = tour[i];
+            int nodeJ = tour[j];
+            tour[i] = nodeJ;
+            position[nodeJ] = i;
+            tour[j] = nodeI;
+            position[nodeI] = j;
+            i++;
+            j--;
+        }
+    }
+
+    private boolean improveTwoOpt(int a) {
+        for (int direction = 0; direction < 2; direction++) {
+            boolean forward = direction == 0;
+            int b = step(a, forward);
+            if (isFixed(a, b)) {
+                continue;
+            }
+            double removedAB = cost(a, b);
+            for (int k = 0; k < neighborCount; k++) {
+                int c = neighbors[a * neighborCount + k];
+                if (c < 0) {
+                    break;
+                }
+                double addedAC = cost(a, c);
+                if (addedAC >= removedAB) {
+                    break;
+                }
+                int d = step(c, forward);
+                if (c == b || d == a || isFixed(c, d)) {
+                    continue;
+                }
+                double gain = removedAB + cost(c, d) - addedAC - cost(b, d);
+                if (gain > EPSILON) {
+                    twoOptMove(a, b, c, d);
+                    tourLength -= gain;
+                    twoOptMoves++;
+                    twoOptGain += gain;
+                    push(a);
+                    push(b);
+                    push(c);
+                    push(d);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /*
+    Moves a segment of 1..3 stops that starts at s1 next to one of s1's neighbors,
+    keeping or flipping its direction so that s1 ends up beside that neighbor.
+    */
+    private boolean improveOrOpt(int s1) {
+        for (int direction = 0; direction < 2; direction++) {
+            boolean forward = direction == 0;
+            int s2 = s1;
+            for (int segmentLength = 1; segmentLength <= MAX_SEGMENT && nodeCount >= segmentLength + 4; segmentLength++) {
+                if (segmentLength > 1) {
+                    s2 = step(s2, forward);
+                }
+                int p = step(s1, !forward);
+                int next = step(s2, forward);
+                if (isFixed(p, s1) || isFixed(s2, next)) {
+                    continue;
+                }
+                double removeGain = cost(p, s1) + cost(s2, next) - cost(p, next);
+                if (removeGain <= EPSILON) {
+                    continue;
+                }
+                for (int k = 0; k < neighborCount; k++) {
+                    int c = neighbors[s1 * neighborCount + k];
+                    if (c < 0) {
+                        break;
+                    }
+                    double addedCS1 = cost(c, s1);
+                    if (addedCS1 >= removeGain) {
+                        break;
+                    }
+                    if (c == p || c == next || inSegment(c, s1, segmentLength, forward)) {
+                        continue;
+                    }
+                    for (int side = 0; side < 2; side++) {
+                        boolean eAfterC = side == 0;
+                        int e = step(c, eAfterC == forward);
+                        if (e == p || e == next || inSegment(e, s1, segmentLength, forward) || isFixed(c, e)) {
+                            continue;
+                        }
+                        double gain = removeGain + cost(c, e) - addedCS1 - cost(s2, e);
+                        if (gain > EPSILON) {
+                            tourLength -= gain;
+                            orOptMoves++;
+                            orOptGain += gain;
+                            if (eAfterC) {
+                                twoOptMove(p, s1, c, e);
+                                twoOptMove(p, c, next, s2);
+                                if (segmentLength > 1) {
+                                    twoOptMove(c, s2, s1, e);
+                                }
+                            } else {
+                                twoOptMove(p, s1, e, c);
+                                twoOptMove(p, e, next, s2);
+                            }
+                            push(p);
+                            push(next);
+                            push(s1);
+                            push(s2);
+                            push(c);
+                            push(e);
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean inSegment(int node, int s1, int length, boolean forward) {
+        int current = s1;
+        for (int i = 0; i < length; i++) {
+            if (current == node) {
+                return true;
+            }
+            current = step(current, forward);
+        }
+        return false;
+    }
+
+    /*
+    Replaces edges (a,b) and (c,d) with (a,c) and (b,d). b must follow a and d must follow c
+    in the same direction, which may be either direction of the array.
+    */
+    private void twoOptMove(int a, int b, int c, int d) {
+        if (next(a) == b) {
+            reverse(b, c);
+        } else {
+            reverse(c, b);
+        }
+    }
+
+    // Reverses the path from node first to node last (walking forward), or the rest of the cycle if that is shorter.
+    private void reverse(int first, int last) {
+        int i = position[first];
+        int j = position[last];
+        int length = (j - i + nodeCount) % nodeCount + 1;
+        if (length * 2 > nodeCount) {
+            int newFirst = next(last);
+            int newLast = previous(first);
+            i = position[newFirst];
+            j = position[newLast];
+            length = nodeCount - length;
+        }
+        for (int swaps = length / 2; swaps > 0; swaps--) {
+            int nodeI = tour[i];
+            int nodeJ = tour[j];
+            tour[i] = nodeJ;
+            position[nodeJ] = i;
+            tour[j] = nodeI;
+            position[nodeI] = j;
+            i = i + 1 == nodeCount ? 0 : i + 1;
+            j = j == 0 ? nodeCount - 1 : j - 1;
+        }
+    }
+
+    private void readOrder(int[] order) {
+        boolean forward = next(start) != end;
+        int node = step(start, forward);
+        for (int i = 0; i < stopCount; i++) {
+            order[i] = node;
+            node = step(node, forward);
+        }
+    }
+
+    private boolean isFixed(int a, int b) {
+        return (a == start && b == end) || (a == end && b == start);
+    }
+
+    private double cost(int a, int b) {
+        if (a < stopCount && b < stopCount) {
+            return distances.distance(a, b);
+        }
+        return endCost(a, b);
+    }
+
+    // An edge with a sentinel in it: a leg from the depot, a leg to the end, or the fixed END-START edge.
+    private double endCost(int a, int b) {
+        int stop = a < stopCount ? a : b;
+        int sentinel = a < stopCount ? b : a;
+        if (stop >= stopCount) {
+            return 0;
+        }
+        return sentinel == start ? ends.startCost(stop) : ends.endCost(stop);
+    }
+
+    private int step(int node, boolean forward) {
+        return forward ? next(node) : previous(node);
+    }
+
+    private int next(int node) {
+        int i = position[node] + 1;
+        return tour[i == nodeCount ? 0 : i];
+    }
+
+    private int previous(int node) {
+        int i = position[node];
+        return tour[i == 0 ? nodeCount - 1 : i - 1];
+    }
+
+    private void push(int node) {
+        if (node >= stopCount || queued[node]) {
+            return;
+        }
+        queued[node] = true;
+        queue[(queueHead + queueSize) % nodeCount] = node;
+        queueSize++;
+    }
+
+    private int poll() {
+        int node = queue[queueHead];
+        queueHead = (queueHead + 1) % nodeCount;
+        queueSize--;
+        queued[node] = false;
+        return node;
+    }
+}
@@ -0,0 +1,15 @@
+package OptimizeRoute;
+
+/*
+Where a route ends, see Route.setTourMode(). Every route leaves from the depot (Route.setDepot()),
+and the leg from the depot to the first stop is part of the route's distance in every mode.
+*/
+public enum TourMode {
+
+    // The route ends at its last stop, wherever that is. The default.
+    OPEN,
+    // The van drives back to the depot after the last stop.
+    CLOSED,
+    // The route ends at a fixed place after the last stop (Route.setFixedEnd()), for example a second depot.
+    FIXED_END
+}
@@ -0,0 +1,31 @@
+package OptimizeRoute;
+
+import java.util.SplittableRandom;
+
+/*
+A local search over a visiting order of stop ids, as run by Route.improveRoute() and OptimizationJob.
+TourImprover (2-opt and Or-opt) and LinKernighanImprover implement it; Route picks one by its ImprovementEngine.
+The legs from the depot and to the end of the route (RouteEnds) count like any other edge, so any stop can end up first.
+*/
+public interface TourSearch {
+
+    // Improves the order in place. timeLimitMillis <= 0 means no time limit. Returns true if it finished in time.
+    boolean improve(int[] order, long timeLimitMillis);
+
+    // Loads an order for resume(), kick() and copyOrder().
+    void start(int[] order);
+
+    // Continues the local search; returns true once no improving move is left. A time limit <= 0 runs until then.
+    boolean resume(long timeLimitMillis);
+
+    // One double bridge kick on a local optimum, kept only if the route got shorter. Returns true if it was.
+    boolean kick(SplittableRandom random);
+
+    void copyOrder(int[] order);
+
+    // Length of the current route.
+    double getTourLength();
+
+    // Writes what the last improve() call did to the metrics, one improvementPass() per kind of move.
+    void reportPasses(OptimizationMetrics metrics);
+}
@@ -0,0 +1,80 @@
+package OptimizeRoute;
+
+/*
+An immutable copy of a route at one moment, for drawing it while an OptimizationJob keeps changing the real one.
+Holds the stop coordinates and serial numbers in visiting order and the length of the route. Nothing in it is ever changed after
+it is made, so it can be handed from the optimizer threads to the Swing thread without locking.
+*/
+public final class TourSnapshot {
+
+    private final int[] xs;
+    private final int[] ys;
+    private final int[] serialNumbers;
+    private final double distance;
+    private final long elapsedMillis;
+    private final boolean finished;
+
+    private TourSnapshot(int[] xs, int[] ys, int[] serialNumbers, double distance, long elapsedMillis, boolean finished) {
+        this.xs = xs;
+        this.ys = ys;
+        this.serialNumbers = serialNumbers;
+        this.distance = distance;
+        this.elapsedMillis = elapsedMillis;
+        this.finished = finished;
+    }
+
+    // A copy of the route as it is now.
+    public static TourSnapshot of(Route route) {
+        int[] xs = new int[route.getSize()];
+        int[] ys = new int[route.getSize()];
+        int[] serialNumbers = new int[route.getSize()];
+        int i = 0;
+        for (Node node = route.getHead(); node != null; node = node.getNext()) {
+            xs[i] = node.getCurrentLocation().getX();
+            ys[i] = node.getCurrentLocation().getY();
+            serialNumbers[i] = node.getCurrentLocation().getSerialNumber();
+            i++;
+        }
+        return new TourSnapshot(xs, ys, serialNumbers, route.totalDistance(), 0, false);
+    }
+
+    // Copies the coordinates and serial numbers of the stops in the given visiting order.
+    static TourSnapshot of(int[] xs, int[] ys, int[] serialNumbers, int[] order, double distance, long elapsedMillis,
+                           boolean finished) {
+        int[] orderedXs = new int[order.length];
+        int[] orderedYs = new int[order.length];
+        int[] orderedSerialNumbers = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            orderedXs[i] = xs[order[i]];
+            orderedYs[i] = ys[order[i]];
+            orderedSerialNumbers[i] = serialNumbers[order[i]];
+        }
+        return new TourSnapshot(orderedXs, orderedYs, orderedSerialNumbers, distance, elapsedMillis, finished);
+    }
+
+    public int getSize() {
+        return xs.length;
+    }
+    // Coordinates of the stop at a position of the route.
+    public int getX(int position) {
+        return xs[position];
+    }
+    public int getY(int position) {
+        return ys[position];
+    }
+    public int getSerialNumber(int position) {
+        return serialNumbers[position];
+    }
+    // Length of the route, measured like Route.totalDistance().
+    public double getDistance() {
+        return distance;
+    }
+    // Time since the optimization started.
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+    // True for the last snapshot of a job; the Route has been reordered to it by then.
+    public boolean isFinished() {
+        return finished;
+    }
+}
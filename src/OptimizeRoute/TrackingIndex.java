@@ -0,0 +1,145 @@
+package OptimizeRoute;
+
+import java.util.Arrays;
+
+/*
+Tracking number -> Node lookup table used by Route.
+It is an open-addressing hash table with linear probing over a primitive long[] of keys, so lookups do not
+create String or Long objects and do not walk the route. Removal shifts later entries back instead of leaving
+tombstones, so the table never needs a cleanup pass.
+
+Only tracking numbers made of plain decimal digits (no leading zero, at most 18 digits) can be keys;
+key() returns -1 for anything else and Route falls back to scanning the list for those.
+*/
+public class TrackingIndex {
+
+    private static final long EMPTY = -1;
+    private static final int MAX_DIGITS = 18;
+
+    private long[] keys;
+    private Node[] values;
+    private int size;
+    private int mask;
+
+    public TrackingIndex() {
+        this(16);
+    }
+
+    public TrackingIndex(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+        allocate(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Numeric key for a tracking number, or -1 if it is not a plain decimal number.
+    public static long key(String trackingNumber) {
+        int length = trackingNumber == null ? 0 : trackingNumber.length();
+        if (length == 0 || length > MAX_DIGITS || (length > 1 && trackingNumber.charAt(0) == '0')) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = trackingNumber.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    public Node get(long key) {
+        for (int slot = slot(key); keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+        return null;
+    }
+
+    // Stores the node for this key and returns the node it replaced, if any.
+    public Node put(long key, Node node) {
+        int slot = slot(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                Node old = values[slot];
+                values[slot] = node;
+                return old;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = node;
+        size++;
+        if (size * 4 > keys.length * 3) {
+            resize(keys.length * 2);
+        }
+        return null;
+    }
+
+    public Node remove(long key) {
+        int slot = slot(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                Node old = values[slot];
+                shiftBack(slot);
+                size--;
+                return old;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    public void clear() {
+        allocate(keys.length);
+    }
+
+    // Moves later entries of the probe chain into the freed slot so lookups never stop at a hole too early.
+    private void shiftBack(int freed) {
+        int slot = freed;
+        while (true) {
+            slot = (slot + 1) & mask;
+            long key = keys[slot];
+            if (key == EMPTY) {
+                break;
+            }
+            int home = slot(key);
+            boolean canMove = freed <= slot ? (home <= freed || home > slot) : (home <= freed && home > slot);
+            if (canMove) {
+                keys[freed] = key;
+                values[freed] = values[slot];
+                freed = slot;
+            }
+        }
+        keys[freed] = EMPTY;
+        values[freed] = null;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Node[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new Node[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+}
@@ -0,0 +1,33 @@
+package OptimizeRoute;
+
+/*
+Turns distances into driving time for routes with time windows.
+Times are in minutes after the start of the shift and distances in map units (1/100 mile, as the demos print them),
+so the default speed of 50 units per minute is 30 mph. The van leaves the warehouse at startTime.
+*/
+public class TravelModel {
+
+    public static final TravelModel DEFAULT = new TravelModel(50, 0);
+
+    private final double speed;
+    private final double startTime;
+
+    public TravelModel(double speed, double startTime) {
+        if (!(speed > 0) || speed == Double.POSITIVE_INFINITY || !(startTime >= 0) || startTime == Double.POSITIVE_INFINITY) {
+            throw new IllegalArgumentException("Invalid travel model: speed " + speed + ", start time " + startTime);
+        }
+        this.speed = speed;
+        this.startTime = startTime;
+    }
+
+    public double travelTime(double distance) {
+        return distance / speed;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+    public double getStartTime() {
+        return startTime;
+    }
+}